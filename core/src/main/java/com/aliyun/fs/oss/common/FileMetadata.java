@@ -27,11 +27,17 @@ public class FileMetadata {
     private final String key;
     private final long length;
     private final long lastModified;
+    private final String eTag;
 
     public FileMetadata(String key, long length, long lastModified) {
+        this(key, length, lastModified, null);
+    }
+
+    public FileMetadata(String key, long length, long lastModified, String eTag) {
         this.key = key;
         this.length = length;
         this.lastModified = lastModified;
+        this.eTag = eTag;
     }
 
     public String getKey() {
@@ -46,6 +52,13 @@ public class FileMetadata {
         return lastModified;
     }
 
+    /**
+     * @return the ETag of the object, or null if unknown.
+     */
+    public String getETag() {
+        return eTag;
+    }
+
     @Override
     public String toString() {
         return "FileMetadata[" + key + ", " + length + ", " + lastModified + "]";
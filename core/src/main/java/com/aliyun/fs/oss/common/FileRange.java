@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * A byte range of a file to be read by a vectored read. The content of the range is
+ * available through {@link #getData()} once the read has been issued.
+ * </p>
+ */
+public class FileRange {
+    private final long offset;
+    private final int length;
+    private Future<ByteBuffer> data;
+
+    public FileRange(long offset, int length) {
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public Future<ByteBuffer> getData() {
+        return data;
+    }
+
+    public void setData(Future<ByteBuffer> data) {
+        this.data = data;
+    }
+
+    @Override
+    public String toString() {
+        return "FileRange[" + offset + ", " + length + "]";
+    }
+
+}
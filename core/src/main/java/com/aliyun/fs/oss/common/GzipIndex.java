@@ -0,0 +1,351 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.common;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Index of the members of a gzip object made of several members, as written by bgzip or by
+ * concatenating gzip files, so that it can be read from the start of any member. The index is
+ * kept next to the object, with the name of the object followed by ".gzi", in the format of
+ * `bgzip -i`: the number of entries then, for each member but the first, its offset in the object
+ * and its offset in the uncompressed bytes, all as little-endian 64 bits integers.
+ */
+public class GzipIndex {
+    private static final Log LOG = LogFactory.getLog(GzipIndex.class);
+
+    public static final String SUFFIX = ".gzi";
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    // offsets of the members, the first one at 0
+    private final long[] compressedOffsets;
+    private final long[] uncompressedOffsets;
+
+    GzipIndex(long[] compressedOffsets, long[] uncompressedOffsets) {
+        this.compressedOffsets = compressedOffsets;
+        this.uncompressedOffsets = uncompressedOffsets;
+    }
+
+    public static Path getIndexPath(Path file) {
+        return new Path(file.getParent(), file.getName() + SUFFIX);
+    }
+
+    public int getNumMembers() {
+        return compressedOffsets.length;
+    }
+
+    /**
+     * @return the offset of the member `i` in the object.
+     */
+    public long getCompressedOffset(int i) {
+        return compressedOffsets[i];
+    }
+
+    /**
+     * @return the offset of the member `i` in the uncompressed bytes.
+     */
+    public long getUncompressedOffset(int i) {
+        return uncompressedOffsets[i];
+    }
+
+    /**
+     * @return the offset in the uncompressed bytes of the member at `compressedOffset` in the
+     * object, -1 if no member starts there.
+     */
+    public long toUncompressedOffset(long compressedOffset) {
+        int i = Arrays.binarySearch(compressedOffsets, compressedOffset);
+        return i < 0 ? -1 : uncompressedOffsets[i];
+    }
+
+    /**
+     * @return the index of `file`, null if it has none.
+     */
+    public static GzipIndex read(FileSystem fs, Path file) throws IOException {
+        Path indexPath = getIndexPath(file);
+        if (!fs.exists(indexPath)) {
+            return null;
+        }
+        FSDataInputStream in = fs.open(indexPath);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    static GzipIndex read(InputStream in) throws IOException {
+        long count = readLong(in);
+        if (count < 0 || count >= Integer.MAX_VALUE) {
+            throw new IOException("Invalid gzip index of " + count + " entries");
+        }
+        long[] compressed = new long[(int) count + 1];
+        long[] uncompressed = new long[(int) count + 1];
+        for (int i = 1; i <= count; i++) {
+            compressed[i] = readLong(in);
+            uncompressed[i] = readLong(in);
+        }
+        return new GzipIndex(compressed, uncompressed);
+    }
+
+    public void write(OutputStream out) throws IOException {
+        writeLong(out, compressedOffsets.length - 1);
+        for (int i = 1; i < compressedOffsets.length; i++) {
+            writeLong(out, compressedOffsets[i]);
+            writeLong(out, uncompressedOffsets[i]);
+        }
+    }
+
+    /**
+     * Reads `file` once to index its members, and writes the index next to it.
+     */
+    public static GzipIndex build(FileSystem fs, Path file) throws IOException {
+        long startTime = System.currentTimeMillis();
+        GzipIndex index;
+        FSDataInputStream in = fs.open(file);
+        try {
+            index = build(in);
+        } finally {
+            in.close();
+        }
+        FSDataOutputStream out = fs.create(getIndexPath(file), true);
+        try {
+            index.write(out);
+        } finally {
+            out.close();
+        }
+        LOG.info("Indexed " + index.getNumMembers() + " gzip members of " + file + " in " +
+                (System.currentTimeMillis() - startTime) + " ms");
+        return index;
+    }
+
+    /**
+     * Indexes the members of a gzip stream. The members of bgzip, whose header gives their size,
+     * are skipped over, the others are inflated to find their end.
+     */
+    static GzipIndex build(InputStream in) throws IOException {
+        Scanner scanner = new Scanner(in);
+        List<Long> compressed = new ArrayList<Long>();
+        List<Long> uncompressed = new ArrayList<Long>();
+        Inflater inflater = new Inflater(true);
+        byte[] out = new byte[64 * 1024];
+        long uncompressedOffset = 0;
+        try {
+            while (scanner.hasMore()) {
+                long memberStart = scanner.offset();
+                compressed.add(memberStart);
+                uncompressed.add(uncompressedOffset);
+                int blockSize = scanner.readHeader();
+                if (blockSize >= 0) {
+                    // bgzip: the size of the member includes the header, the size of the
+                    // uncompressed bytes ends it
+                    scanner.skip(memberStart + blockSize - 4 - scanner.offset());
+                } else {
+                    inflater.reset();
+                    while (!inflater.finished()) {
+                        if (inflater.needsInput()) {
+                            scanner.feed(inflater);
+                        }
+                        int n = inflater.inflate(out);
+                        if (n == 0 && inflater.needsDictionary()) {
+                            throw new IOException("Unsupported gzip member at " + memberStart);
+                        }
+                    }
+                    scanner.giveBack(inflater.getRemaining());
+                    // crc
+                    scanner.skip(4);
+                }
+                uncompressedOffset += scanner.readInt() & 0xFFFFFFFFL;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid gzip data", e);
+        } finally {
+            inflater.end();
+        }
+        long[] compressedOffsets = new long[compressed.size()];
+        long[] uncompressedOffsets = new long[uncompressed.size()];
+        for (int i = 0; i < compressedOffsets.length; i++) {
+            compressedOffsets[i] = compressed.get(i);
+            uncompressedOffsets[i] = uncompressed.get(i);
+        }
+        return new GzipIndex(compressedOffsets, uncompressedOffsets);
+    }
+
+    private static long readLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated gzip index");
+            }
+            value |= (long) b << (8 * i);
+        }
+        return value;
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            out.write((int) (value >>> (8 * i)) & 0xFF);
+        }
+    }
+
+    /**
+     * Reads a gzip stream byte by byte over a buffer, keeping track of the offset.
+     */
+    private static class Scanner {
+        private final InputStream in;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int pos = 0;
+        private int limit = 0;
+        // offset of the start of the buffer
+        private long base = 0;
+
+        Scanner(InputStream in) {
+            this.in = in;
+        }
+
+        long offset() {
+            return base + pos;
+        }
+
+        boolean hasMore() throws IOException {
+            if (pos < limit) {
+                return true;
+            }
+            base += limit;
+            pos = 0;
+            limit = 0;
+            int n;
+            while ((n = in.read(buffer)) == 0) {
+            }
+            if (n < 0) {
+                return false;
+            }
+            limit = n;
+            return true;
+        }
+
+        int read() throws IOException {
+            if (!hasMore()) {
+                throw new EOFException("Truncated gzip member");
+            }
+            return buffer[pos++] & 0xFF;
+        }
+
+        int readShort() throws IOException {
+            return read() | read() << 8;
+        }
+
+        int readInt() throws IOException {
+            return readShort() | readShort() << 16;
+        }
+
+        void skip(long n) throws IOException {
+            if (n < 0) {
+                throw new IOException("Invalid gzip member at " + offset());
+            }
+            while (n > 0) {
+                if (!hasMore()) {
+                    throw new EOFException("Truncated gzip member");
+                }
+                int step = (int) Math.min(n, limit - pos);
+                pos += step;
+                n -= step;
+            }
+        }
+
+        void skipString() throws IOException {
+            while (read() != 0) {
+            }
+        }
+
+        void feed(Inflater inflater) throws IOException {
+            if (!hasMore()) {
+                throw new EOFException("Truncated gzip member");
+            }
+            inflater.setInput(buffer, pos, limit - pos);
+            pos = limit;
+        }
+
+        /**
+         * Gives back the bytes the inflater did not use, all of the last input.
+         */
+        void giveBack(int remaining) {
+            pos -= remaining;
+        }
+
+        /**
+         * Reads the header of a member.
+         *
+         * @return the size of the member if it is a bgzip block, -1 otherwise.
+         */
+        int readHeader() throws IOException {
+            long start = offset();
+            if (read() != 0x1F || read() != 0x8B || read() != 8) {
+                throw new IOException("Not a gzip member at " + start);
+            }
+            int flags = read();
+            // mtime, xfl, os
+            skip(6);
+            int blockSize = -1;
+            if ((flags & FEXTRA) != 0) {
+                int extraLength = readShort();
+                while (extraLength >= 4) {
+                    int si1 = read();
+                    int si2 = read();
+                    int length = readShort();
+                    if (si1 == 'B' && si2 == 'C' && length == 2) {
+                        blockSize = readShort() + 1;
+                    } else {
+                        skip(length);
+                    }
+                    extraLength -= 4 + length;
+                }
+                skip(extraLength);
+            }
+            if ((flags & FNAME) != 0) {
+                skipString();
+            }
+            if ((flags & FCOMMENT) != 0) {
+                skipString();
+            }
+            if ((flags & FHCRC) != 0) {
+                skip(2);
+            }
+            return blockSize;
+        }
+    }
+}
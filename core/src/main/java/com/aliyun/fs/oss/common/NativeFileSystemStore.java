@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 
@@ -32,26 +33,82 @@ import org.apache.hadoop.conf.Configuration;
  * </p>
  */
 public interface NativeFileSystemStore {
+    int MAX_DELETE_BATCH_SIZE = 1000;
+
 
     void initialize(URI uri, Configuration conf) throws Exception;
 
     void storeFile(String key, File file, boolean append) throws IOException;
+    void storeFile(String key, UploadBuffer buffer, boolean append) throws IOException;
     void storeFiles(String key, List<File> files, boolean append) throws IOException;
     void storeEmptyFile(String key) throws IOException;
 
+    /**
+     * Starts a multipart upload, whose parts are uploaded one by one with
+     * {@link #uploadPart(String, String, int, UploadBuffer)} as they become available.
+     * @return the id of the upload.
+     */
+    String initiateMultipartUpload(String key) throws IOException;
+
+    /**
+     * Uploads the whole content of `buffer` as the part `partNumber`, starting from 1.
+     * @return the ETag of the part.
+     */
+    String uploadPart(String key, String uploadId, int partNumber, UploadBuffer buffer) throws IOException;
+
+    /**
+     * Uploads `file` as all the parts of an upload, in parallel, without completing the upload.
+     * The upload is aborted if a part fails.
+     * @return the ETags of the parts, in part number order.
+     */
+    List<String> uploadParts(String key, String uploadId, File file) throws IOException;
+
+    /**
+     * @param partETags the ETags of all the parts, in part number order.
+     */
+    void completeMultipartUpload(String key, String uploadId, List<String> partETags) throws IOException;
+    void abortMultipartUpload(String key, String uploadId) throws IOException;
+
+    /**
+     * @return the keys of the multipart uploads started under `prefix` and neither completed
+     *         nor aborted yet, by upload id.
+     */
+    Map<String, String> listMultipartUploads(String prefix) throws IOException;
+
     FileMetadata retrieveMetadata(String key) throws IOException;
     InputStream retrieve(String key) throws IOException;
     InputStream retrieve(String key, long byteRangeStart) throws IOException;
     InputStream retrieve(String key, long byteRangeStart, long length) throws IOException;
 
+    /**
+     * Ranged read of an object whose metadata is already known, no other request than the
+     * GET itself is issued.
+     * @param eTag if not null, the read fails with an {@link OssFileSystemException}, which is not
+     *             retried, if the object does not match this ETag anymore.
+     * @throws java.io.FileNotFoundException if the object does not exist.
+     * @throws java.io.EOFException if the range starts beyond the end of the object.
+     */
+    InputStream retrieve(String key, long byteRangeStart, long length, String eTag) throws IOException;
+
     PartialListing list(String prefix, int maxListingLength) throws IOException;
     PartialListing list(String prefix, int maxListingLength, String priorLastKey, boolean recursive)
             throws IOException;
 
     void delete(String key) throws IOException;
 
+    /**
+     * Deletes many keys with as few requests as possible, at most
+     * {@link #MAX_DELETE_BATCH_SIZE} keys per request. Missing keys are ignored.
+     */
+    void delete(List<String> keys) throws IOException;
+
     void copy(String srcKey, String dstKey) throws IOException;
 
+    /**
+     * Copies an object whose metadata is already known, e.g. from a listing, without looking it up.
+     */
+    void copy(FileMetadata srcMetadata, String dstKey) throws IOException;
+
     /**
      * Delete all keys with the given prefix. Used for testing.
      * @throws IOException
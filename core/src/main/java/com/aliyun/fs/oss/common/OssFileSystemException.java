@@ -24,4 +24,8 @@ public class OssFileSystemException extends IOException {
     public OssFileSystemException(String message) {
         super(message);
     }
+
+    public OssFileSystemException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
@@ -0,0 +1,379 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.common;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Seekable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.*;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.RecordReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reader of the lines of a split, like {@link OssRecordReader}, which searches the delimiters
+ * itself, 8 bytes at a time, in a buffer filled by large reads of `fs.oss.line.reader.buffer.size`
+ * bytes (default 1MB, or the size of a smaller split), served straight from the read-ahead of the
+ * stream. The current line is a slice of that buffer, see {@link #nextLine()}, so that it needs
+ * neither copy nor decoding.
+ *
+ * The records are the ones of {@link OssRecordReader}: lines end at '\n', '\r' or "\r\n" unless
+ * a delimiter is given, a split skips its first line unless it starts the object, and reads its
+ * last line up to its end, past the end of the split.
+ */
+public class OssLineReader implements RecordReader<LongWritable, Text> {
+    private static final Log LOG = LogFactory.getLog(OssLineReader.class);
+
+    public static final String BUFFER_SIZE = "fs.oss.line.reader.buffer.size";
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long LF_WORD = ONES * '\n';
+    private static final long CR_WORD = ONES * '\r';
+
+    private long start;
+    private long pos;
+    private long end;
+    private InputStream in;
+    private final Seekable filePosition;
+    private final int maxLineLength;
+    private final byte[] delimiter;
+    private CompressionCodec codec;
+    private Decompressor decompressor;
+
+    private byte[] buffer;
+    private int bufferStart = 0;
+    private int bufferEnd = 0;
+    private boolean eof = false;
+    // bytes of a line too long dropped from the buffer
+    private long skippedBytes = 0;
+
+    private int lineOffset;
+    private int lineLength;
+    private long linePos;
+
+    public OssLineReader(Configuration job, FileSplit split, FileSystem fs, byte[] recordDelimiter)
+            throws IOException {
+        this.maxLineLength = job.getInt(org.apache.hadoop.mapreduce.lib.input.
+                LineRecordReader.MAX_LINE_LENGTH, Integer.MAX_VALUE);
+        this.delimiter = recordDelimiter == null || recordDelimiter.length == 0 ? null : recordDelimiter;
+        SplitInput input = SplitInput.open(job, split, fs);
+        in = input.in;
+        start = input.start;
+        end = input.end;
+        filePosition = input.filePosition;
+        codec = input.codec;
+        decompressor = input.decompressor;
+        if (isCompressedInput()) {
+            // the compressed position runs ahead of the lines by a buffer, keep it small
+            buffer = new byte[job.getInt("io.file.buffer.size", 64 * 1024)];
+        } else {
+            buffer = new byte[getBufferSize(job, split.getLength())];
+        }
+        // If this is not the first split, we always throw away first record
+        // because we always (except the last split) read one extra line in
+        // next() method.
+        if (start != 0) {
+            start += readLine();
+        }
+        this.pos = start;
+    }
+
+    /**
+     * @return the initial size of the buffer for a split of `length` uncompressed bytes: no more
+     * than the split, which it grows past on demand.
+     */
+    public static int getBufferSize(Configuration job, long length) {
+        return (int) Math.max(Math.min(job.getInt(BUFFER_SIZE, 1024 * 1024), length), 8);
+    }
+
+    private boolean isCompressedInput() {
+        return (codec != null);
+    }
+
+    private long getFilePosition() throws IOException {
+        if (isCompressedInput() && null != filePosition) {
+            return filePosition.getPos();
+        }
+        return pos;
+    }
+
+    /**
+     * Fills the buffer ahead of the first line, to be called before the lines are needed.
+     */
+    public void prefetch() throws IOException {
+        if (bufferStart == bufferEnd && !eof) {
+            fill();
+        }
+    }
+
+    /**
+     * Moves to the next line of the split, see {@link #getLineBuffer()}.
+     *
+     * @return false at the end of the split.
+     */
+    public boolean nextLine() throws IOException {
+        // We always read one extra line, which lies outside the upper
+        // split limit i.e. (end - 1)
+        while (getFilePosition() <= end) {
+            long size = readLine();
+            if (size == 0) {
+                return false;
+            }
+            linePos = pos;
+            pos += size;
+            if (size < maxLineLength) {
+                return true;
+            }
+
+            // line too long. try again
+            LOG.info("Skipped line of size " + size + " at pos " + linePos);
+        }
+        return false;
+    }
+
+    /**
+     * @return the buffer of the current line, which is only valid until the next line.
+     */
+    public byte[] getLineBuffer() {
+        return buffer;
+    }
+
+    public int getLineOffset() {
+        return lineOffset;
+    }
+
+    /**
+     * @return the length of the current line, without its delimiter.
+     */
+    public int getLineLength() {
+        return lineLength;
+    }
+
+    /**
+     * @return the position of the current line in the object.
+     */
+    public long getLinePos() {
+        return linePos;
+    }
+
+    /**
+     * Reads the line at the start of the buffer.
+     *
+     * @return the bytes consumed, delimiter included, 0 at end of stream.
+     */
+    private long readLine() throws IOException {
+        int scan = bufferStart;
+        while (true) {
+            int lineEnd = -1;
+            int next = -1;
+            if (delimiter == null) {
+                int i = indexOfLineEnd(buffer, scan, bufferEnd);
+                if (i < 0) {
+                    scan = bufferEnd;
+                } else if (buffer[i] == '\n') {
+                    lineEnd = i;
+                    next = i + 1;
+                } else if (i + 1 < bufferEnd) {
+                    lineEnd = i;
+                    next = buffer[i + 1] == '\n' ? i + 2 : i + 1;
+                } else if (eof) {
+                    lineEnd = i;
+                    next = i + 1;
+                } else {
+                    // a '\r' may be followed by a '\n' in the next bytes
+                    scan = i;
+                }
+            } else {
+                int i = scan;
+                while ((i = indexOf(buffer, i, bufferEnd, delimiter[0])) >= 0 &&
+                        i + delimiter.length <= bufferEnd) {
+                    if (matchesDelimiter(i)) {
+                        lineEnd = i;
+                        next = i + delimiter.length;
+                        break;
+                    }
+                    i++;
+                }
+                if (lineEnd < 0) {
+                    // the delimiter may start at `i` and end in the next bytes
+                    scan = i < 0 ? bufferEnd : i;
+                }
+            }
+
+            if (lineEnd >= 0) {
+                return consume(lineEnd, next);
+            }
+            if (eof) {
+                return consume(bufferEnd, bufferEnd);
+            }
+            if (scan - bufferStart > maxLineLength) {
+                // no need to keep a line which is skipped anyway
+                skippedBytes += scan - bufferStart;
+                bufferStart = scan;
+            }
+            scan -= fill();
+        }
+    }
+
+    private long consume(int lineEnd, int next) {
+        lineOffset = bufferStart;
+        lineLength = lineEnd - bufferStart;
+        long consumed = skippedBytes + next - bufferStart;
+        bufferStart = next;
+        skippedBytes = 0;
+        return consumed;
+    }
+
+    private boolean matchesDelimiter(int i) {
+        for (int j = 1; j < delimiter.length; j++) {
+            if (buffer[i + j] != delimiter[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the bytes not consumed yet to the start of the buffer, which is grown if full, and
+     * reads more bytes after them.
+     *
+     * @return the number of bytes the content was moved by.
+     */
+    private int fill() throws IOException {
+        int shift = bufferStart;
+        if (shift > 0) {
+            System.arraycopy(buffer, shift, buffer, 0, bufferEnd - shift);
+            bufferEnd -= shift;
+            bufferStart = 0;
+        }
+        if (bufferEnd == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int n = in.read(buffer, bufferEnd, buffer.length - bufferEnd);
+        if (n < 0) {
+            eof = true;
+        } else {
+            bufferEnd += n;
+        }
+        return shift;
+    }
+
+    /**
+     * @return the index of the first `value` in `b` from `from` to `to`, -1 if none.
+     */
+    static int indexOf(byte[] b, int from, int to, byte value) {
+        long pattern = ONES * (value & 0xFF);
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long word = getLong(b, i) ^ pattern;
+            // the high bit of the lowest zero byte is set, the ones of higher bytes may be wrong
+            long found = (word - ONES) & ~word & HIGHS;
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (b[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the first '\n' or '\r' in `b` from `from` to `to`, -1 if none.
+     */
+    static int indexOfLineEnd(byte[] b, int from, int to) {
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long word = getLong(b, i);
+            long lf = word ^ LF_WORD;
+            long cr = word ^ CR_WORD;
+            long found = ((lf - ONES) & ~lf | (cr - ONES) & ~cr) & HIGHS;
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (b[i] == '\n' || b[i] == '\r') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the 8 bytes of `b` at `i`, the first one as the lowest.
+     */
+    private static long getLong(byte[] b, int i) {
+        return (b[i] & 0xFFL) | (b[i + 1] & 0xFFL) << 8 | (b[i + 2] & 0xFFL) << 16 | (b[i + 3] & 0xFFL) << 24 |
+                (b[i + 4] & 0xFFL) << 32 | (b[i + 5] & 0xFFL) << 40 | (b[i + 6] & 0xFFL) << 48 |
+                (b[i + 7] & 0xFFL) << 56;
+    }
+
+    public boolean next(LongWritable key, Text value) throws IOException {
+        if (!nextLine()) {
+            return false;
+        }
+        key.set(linePos);
+        value.set(buffer, lineOffset, lineLength);
+        return true;
+    }
+
+    public LongWritable createKey() {
+        return new LongWritable();
+    }
+
+    public Text createValue() {
+        return new Text();
+    }
+
+    public long getPos() throws IOException {
+        return pos;
+    }
+
+    public void close() throws IOException {
+        try {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        } finally {
+            if (decompressor != null) {
+                CodecPool.returnDecompressor(decompressor);
+                decompressor = null;
+            }
+        }
+    }
+
+    public float getProgress() throws IOException {
+        if (start == end) {
+            return 0.0f;
+        } else {
+            return Math.min(1.0f, (getFilePosition() - start) / (float) (end - start));
+        }
+    }
+}
@@ -21,9 +21,7 @@ package com.aliyun.fs.oss.common;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.Seekable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
@@ -39,12 +37,10 @@ public class OssRecordReader implements RecordReader<LongWritable, Text> {
     private static final Log LOG
             = LogFactory.getLog(OssRecordReader.class.getName());
 
-    private CompressionCodecFactory compressionCodecs = null;
     private long start;
     private long pos;
     private long end;
     private LineReader in;
-    private FSDataInputStream fileIn;
     private final Seekable filePosition;
     int maxLineLength;
     private CompressionCodec codec;
@@ -54,34 +50,13 @@ public class OssRecordReader implements RecordReader<LongWritable, Text> {
                            byte[] recordDelimiter) throws IOException {
         this.maxLineLength = job.getInt(org.apache.hadoop.mapreduce.lib.input.
                 LineRecordReader.MAX_LINE_LENGTH, Integer.MAX_VALUE);
-        start = split.getStart();
-        end = start + split.getLength();
-        final Path file = split.getPath();
-        compressionCodecs = new CompressionCodecFactory(job);
-        codec = compressionCodecs.getCodec(file);
-
-        // open the file and seek to the start of the split
-        fileIn = fs.open(file);
-        if (isCompressedInput()) {
-            decompressor = CodecPool.getDecompressor(codec);
-            if (codec instanceof SplittableCompressionCodec) {
-                final SplitCompressionInputStream cIn =
-                        ((SplittableCompressionCodec)codec).createInputStream(
-                                fileIn, decompressor, start, end,
-                                SplittableCompressionCodec.READ_MODE.BYBLOCK);
-                in = new LineReader(cIn, job, recordDelimiter);
-                start = cIn.getAdjustedStart();
-                end = cIn.getAdjustedEnd();
-                filePosition = cIn; // take pos from compressed stream
-            } else {
-                in = new LineReader(codec.createInputStream(fileIn, decompressor), job, recordDelimiter);
-                filePosition = fileIn;
-            }
-        } else {
-            fileIn.seek(start);
-            in = new LineReader(fileIn, job, recordDelimiter);
-            filePosition = fileIn;
-        }
+        SplitInput input = SplitInput.open(job, split, fs);
+        in = new LineReader(input.in, job, recordDelimiter);
+        start = input.start;
+        end = input.end;
+        filePosition = input.filePosition;
+        codec = input.codec;
+        decompressor = input.decompressor;
         // If this is not the first split, we always throw away first record
         // because we always (except the last split) read one extra line in
         // next() method.
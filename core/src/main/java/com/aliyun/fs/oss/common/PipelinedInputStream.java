@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.common;
+
+import com.aliyun.fs.oss.utils.TransferScheduler;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a stream on a thread of its own, e.g. a decompression stream, so that it runs while
+ * the bytes already read are consumed. The bytes are handed over in chunks of
+ * `fs.oss.reader.pipeline.chunk.size` bytes (default 256KB), at most
+ * `fs.oss.reader.pipeline.queue.size` of them (default 4) waiting to be consumed.
+ */
+public class PipelinedInputStream extends InputStream {
+    private static final Log LOG = LogFactory.getLog(PipelinedInputStream.class);
+
+    public static final String CHUNK_SIZE = "fs.oss.reader.pipeline.chunk.size";
+    public static final String QUEUE_SIZE = "fs.oss.reader.pipeline.queue.size";
+
+    private static final Chunk END = new Chunk(new byte[0]);
+
+    private static class Chunk {
+        final byte[] data;
+        int length;
+
+        Chunk(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private final InputStream source;
+    private final int chunkSize;
+    private final BlockingQueue<Chunk> filled;
+    private final BlockingQueue<Chunk> free;
+    private final CountDownLatch producerDone = new CountDownLatch(1);
+    private volatile boolean closed = false;
+    private volatile Throwable error;
+
+    private Chunk current;
+    private int offset;
+    private byte[] oneByte = new byte[1];
+
+    public PipelinedInputStream(InputStream source, Configuration conf) {
+        this.source = source;
+        this.chunkSize = Math.max(conf.getInt(CHUNK_SIZE, 256 * 1024), 1);
+        int queueSize = Math.max(conf.getInt(QUEUE_SIZE, 4), 1);
+        // room for the end marker on top of the chunks
+        this.filled = new ArrayBlockingQueue<Chunk>(queueSize + 1);
+        this.free = new ArrayBlockingQueue<Chunk>(queueSize + 2);
+        TransferScheduler.get(conf).executeStreaming(new Runnable() {
+            @Override
+            public void run() {
+                produce();
+            }
+        });
+    }
+
+    private void produce() {
+        try {
+            while (!closed) {
+                Chunk chunk = free.poll();
+                if (chunk == null) {
+                    chunk = new Chunk(new byte[chunkSize]);
+                }
+                chunk.length = 0;
+                int n = 0;
+                while (chunk.length < chunkSize && (n = source.read(chunk.data, chunk.length,
+                        chunkSize - chunk.length)) >= 0) {
+                    chunk.length += n;
+                }
+                if (chunk.length > 0 && !put(chunk)) {
+                    return;
+                }
+                if (n < 0) {
+                    break;
+                }
+            }
+        } catch (Throwable t) {
+            error = t;
+        } finally {
+            put(END);
+            producerDone.countDown();
+        }
+    }
+
+    private boolean put(Chunk chunk) {
+        try {
+            while (!closed) {
+                if (filled.offer(chunk, 1, TimeUnit.SECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * @return false at the end of the stream.
+     */
+    private boolean nextChunk() throws IOException {
+        if (current == END) {
+            return false;
+        }
+        if (current != null) {
+            free.offer(current);
+        }
+        try {
+            current = filled.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for the pipelined stream");
+        }
+        offset = 0;
+        if (current == END) {
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            } else if (error != null) {
+                throw new IOException(error);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int n = read(oneByte, 0, 1);
+        return n < 0 ? -1 : oneByte[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (current == null || offset >= current.length) {
+            if (!nextChunk()) {
+                return -1;
+            }
+        }
+        int size = Math.min(len, current.length - offset);
+        System.arraycopy(current.data, offset, b, off, size);
+        offset += size;
+        return size;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current == null ? 0 : current.length - offset;
+    }
+
+    /**
+     * Stops the reading thread, then closes the source.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        filled.clear();
+        try {
+            producerDone.await();
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while stopping the pipelined stream");
+            Thread.currentThread().interrupt();
+        }
+        source.close();
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.common;
+
+import com.aliyun.fs.oss.nat.NativeOssFileSystem;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.Seekable;
+import org.apache.hadoop.io.compress.*;
+import org.apache.hadoop.mapred.FileSplit;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The uncompressed bytes of a split, for the line readers.
+ *
+ * The object of a codec which cannot split is decompressed on a thread of its own, see
+ * {@link PipelinedInputStream}, unless `fs.oss.reader.decompress.pipelined` is false. Such an
+ * object is read whole, but for a gzip object with a {@link GzipIndex}, whose splits go from a
+ * member to another one: the bounds of these splits are then turned into offsets in the
+ * uncompressed bytes.
+ *
+ * On OSS, a split is opened at its start with a read-ahead which stops shortly after its end,
+ * see {@link NativeOssFileSystem#open(Path, int, long, long)}.
+ */
+class SplitInput {
+    static final String DECOMPRESS_PIPELINED = "fs.oss.reader.decompress.pipelined";
+    static final String SPLIT_OVERRUN = "fs.oss.input.split.overrun";
+
+    final InputStream in;
+    final long start;
+    final long end;
+    // the position in the object the bounds are compared with, null if they are offsets in `in`
+    final Seekable filePosition;
+    final CompressionCodec codec;
+    final Decompressor decompressor;
+
+    private SplitInput(InputStream in, long start, long end, Seekable filePosition,
+                       CompressionCodec codec, Decompressor decompressor) {
+        this.in = in;
+        this.start = start;
+        this.end = end;
+        this.filePosition = filePosition;
+        this.codec = codec;
+        this.decompressor = decompressor;
+    }
+
+    static SplitInput open(Configuration job, FileSplit split, FileSystem fs) throws IOException {
+        long start = split.getStart();
+        long end = start + split.getLength();
+        final Path file = split.getPath();
+        CompressionCodec codec = new CompressionCodecFactory(job).getCodec(file);
+
+        if (codec == null) {
+            FSDataInputStream fileIn = open(job, fs, file, start, end);
+            return new SplitInput(fileIn, start, end, fileIn, null, null);
+        }
+        FSDataInputStream fileIn = null;
+        Decompressor decompressor = CodecPool.getDecompressor(codec);
+        try {
+            if (codec instanceof SplittableCompressionCodec) {
+                fileIn = open(job, fs, file, start, end);
+                final SplitCompressionInputStream cIn =
+                        ((SplittableCompressionCodec) codec).createInputStream(
+                                fileIn, decompressor, start, end,
+                                SplittableCompressionCodec.READ_MODE.BYBLOCK);
+                // take pos from compressed stream
+                return new SplitInput(cIn, cIn.getAdjustedStart(), cIn.getAdjustedEnd(), cIn,
+                        codec, decompressor);
+            }
+
+            Seekable filePosition;
+            if (start != 0 || end < fs.getFileStatus(file).getLen()) {
+                GzipIndex index = GzipIndex.read(fs, file);
+                long uncompressedStart = index == null ? -1 : index.toUncompressedOffset(start);
+                long uncompressedEnd = index == null ? -1 : index.toUncompressedOffset(end);
+                if (uncompressedEnd < 0 && end >= fs.getFileStatus(file).getLen()) {
+                    uncompressedEnd = Long.MAX_VALUE;
+                }
+                if (uncompressedStart < 0 || uncompressedEnd < 0) {
+                    throw new IOException("Split " + split + " is not between members of an indexed " +
+                            "gzip object");
+                }
+                fileIn = open(job, fs, file, start, end);
+                start = uncompressedStart;
+                end = uncompressedEnd;
+                filePosition = null;
+            } else {
+                fileIn = fs.open(file);
+                filePosition = fileIn;
+            }
+            InputStream in = codec.createInputStream(fileIn, decompressor);
+            if (job.getBoolean(DECOMPRESS_PIPELINED, true)) {
+                in = new PipelinedInputStream(in, job);
+            }
+            return new SplitInput(in, start, end, filePosition, codec, decompressor);
+        } catch (IOException e) {
+            if (fileIn != null) {
+                fileIn.close();
+            }
+            CodecPool.returnDecompressor(decompressor);
+            throw e;
+        }
+    }
+
+    /**
+     * Opens `file` at `start`. On OSS, the read-ahead stops after `end` plus the bytes of the
+     * last line, at most `fs.oss.input.split.overrun` (default 1MB) or the maximum line length.
+     */
+    private static FSDataInputStream open(Configuration job, FileSystem fs, Path file, long start, long end)
+            throws IOException {
+        if (fs instanceof NativeOssFileSystem) {
+            long overrun = Math.min(job.getLong(SPLIT_OVERRUN, 1024 * 1024), job.getInt(
+                    org.apache.hadoop.mapreduce.lib.input.LineRecordReader.MAX_LINE_LENGTH, Integer.MAX_VALUE));
+            long fetchEnd = end > Long.MAX_VALUE - overrun ? Long.MAX_VALUE : end + overrun;
+            return ((NativeOssFileSystem) fs).open(file, job.getInt("io.file.buffer.size", 4096), start, fetchEnd);
+        }
+        FSDataInputStream fileIn = fs.open(file);
+        fileIn.seek(start);
+        return fileIn;
+    }
+}
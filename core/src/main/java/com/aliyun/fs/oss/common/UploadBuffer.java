@@ -0,0 +1,401 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.common;
+
+import com.aliyun.fs.oss.utils.Utils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Holds the content of an object, or of a part of it, until it is uploaded. As set by
+ * `fs.oss.upload.buffer.type`, the content is kept in a local file (`disk`, the default), in heap
+ * arrays (`heap`) or in pooled direct buffers (`direct`).
+ *
+ * Memory buffers grow by chunks of at most 1MB, taken from a JVM-wide budget of
+ * `fs.oss.upload.buffer.memory.limit` bytes (default 256MB). Once it is exhausted, the writers
+ * wait for the uploads in flight to release their buffers.
+ */
+public abstract class UploadBuffer {
+    public static final Log LOG = LogFactory.getLog(UploadBuffer.class);
+
+    public static final String BUFFER_TYPE = "fs.oss.upload.buffer.type";
+    public static final String MEMORY_LIMIT = "fs.oss.upload.buffer.memory.limit";
+    public static final int MAX_CHUNK_SIZE = 1024 * 1024;
+
+    private static MemoryBudget memoryBudget;
+
+    /**
+     * @param capacity the maximum number of bytes which will be written to the buffer.
+     */
+    public static UploadBuffer create(Configuration conf, long capacity) throws IOException {
+        String type = conf.getTrimmed(BUFFER_TYPE, "disk");
+        int chunkSize = (int) Math.max(Math.min(capacity, MAX_CHUNK_SIZE), 1);
+        if ("disk".equalsIgnoreCase(type)) {
+            return new DiskBuffer(conf);
+        } else if ("heap".equalsIgnoreCase(type)) {
+            return new MemoryBuffer(getMemoryBudget(conf), chunkSize, false);
+        } else if ("direct".equalsIgnoreCase(type)) {
+            return new MemoryBuffer(getMemoryBudget(conf), chunkSize, true);
+        }
+        throw new IOException("Only disk, heap or direct '" + BUFFER_TYPE + "' is supported, not " + type);
+    }
+
+    private static synchronized MemoryBudget getMemoryBudget(Configuration conf) {
+        if (memoryBudget == null) {
+            memoryBudget = new MemoryBudget(conf.getLong(MEMORY_LIMIT, 256 * 1024 * 1024L));
+        }
+        return memoryBudget;
+    }
+
+    /**
+     * @return the bytes taken by the memory buffers of the JVM, not counting the pooled ones.
+     */
+    public static synchronized long getUsedMemory() {
+        return memoryBudget == null ? 0 : memoryBudget.getUsed();
+    }
+
+    public abstract void write(int b) throws IOException;
+
+    public abstract void write(byte[] b, int off, int len) throws IOException;
+
+    public void flush() throws IOException {
+    }
+
+    public abstract long size();
+
+    /**
+     * Ends the writes, the buffer is about to be uploaded.
+     */
+    public abstract void finish() throws IOException;
+
+    /**
+     * @return a new stream over the whole content, a finished buffer may be read several times.
+     */
+    public abstract InputStream openStream() throws IOException;
+
+    /**
+     * @return the local file holding the content, null for memory buffers.
+     */
+    public File getFile() {
+        return null;
+    }
+
+    /**
+     * Frees the buffer, it may be called several times.
+     */
+    public abstract void release();
+
+    private static class DiskBuffer extends UploadBuffer {
+        private File file;
+        private OutputStream out;
+        private long size = 0;
+
+        DiskBuffer(Configuration conf) throws IOException {
+            File dir = Utils.getTempBufferDir(conf);
+            if (!dir.mkdirs() && !dir.exists()) {
+                throw new IOException("Cannot create OSS buffer directory: " + dir);
+            }
+            this.file = File.createTempFile("output-", ".data", dir);
+            file.deleteOnExit();
+            this.out = new BufferedOutputStream(new FileOutputStream(file));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            size++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            size += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            out.close();
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return new FileInputStream(file);
+        }
+
+        @Override
+        public File getFile() {
+            return file;
+        }
+
+        @Override
+        public void release() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOG.warn("Could not close temporary OSS file: " + file, e);
+            }
+            if (file.exists() && !file.delete()) {
+                LOG.warn("Could not delete temporary OSS file: " + file);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return file.toString();
+        }
+    }
+
+    static class MemoryBuffer extends UploadBuffer {
+        private final MemoryBudget budget;
+        private final int chunkSize;
+        private final boolean direct;
+        private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+        private ByteBuffer current;
+        private long size = 0;
+        private boolean finished = false;
+        private boolean released = false;
+
+        MemoryBuffer(MemoryBudget budget, int chunkSize, boolean direct) {
+            this.budget = budget;
+            this.chunkSize = chunkSize;
+            this.direct = direct;
+        }
+
+        private void ensureCapacity() throws IOException {
+            if (finished || released) {
+                throw new IOException("Upload buffer is closed");
+            }
+            if (current == null || !current.hasRemaining()) {
+                current = budget.allocate(chunkSize, direct);
+                chunks.add(current);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureCapacity();
+            current.put((byte) b);
+            size++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                ensureCapacity();
+                int toWrite = Math.min(current.remaining(), len);
+                current.put(b, off, toWrite);
+                off += toWrite;
+                len -= toWrite;
+                size += toWrite;
+            }
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public synchronized void finish() {
+            if (!finished && !released) {
+                finished = true;
+                budget.finish(chunks);
+            }
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            List<ByteBuffer> views = new ArrayList<ByteBuffer>(chunks.size());
+            for (ByteBuffer chunk : chunks) {
+                ByteBuffer view = chunk.duplicate();
+                view.flip();
+                views.add(view);
+            }
+            return new ChunksInputStream(views.iterator());
+        }
+
+        @Override
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                budget.release(chunks, finished);
+                chunks.clear();
+                current = null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return (direct ? "direct" : "heap") + " buffer of " + size + " bytes";
+        }
+    }
+
+    private static class ChunksInputStream extends InputStream {
+        private final Iterator<ByteBuffer> chunks;
+        private ByteBuffer current;
+
+        ChunksInputStream(Iterator<ByteBuffer> chunks) {
+            this.chunks = chunks;
+        }
+
+        private boolean nextChunk() {
+            while (current == null || !current.hasRemaining()) {
+                if (!chunks.hasNext()) {
+                    return false;
+                }
+                current = chunks.next();
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return nextChunk() ? current.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int n = Math.min(current.remaining(), len);
+            current.get(b, off, n);
+            return n;
+        }
+    }
+
+    /**
+     * Accounts the memory of the buffers being written and of the finished ones, which wait for
+     * or are being uploaded, and keeps the free direct chunks for reuse within the limit.
+     */
+    static class MemoryBudget {
+        private final long limit;
+        private long filling = 0;
+        private long finished = 0;
+        private long pooled = 0;
+        private final LinkedList<ByteBuffer> pool = new LinkedList<ByteBuffer>();
+
+        MemoryBudget(long limit) {
+            this.limit = limit;
+        }
+
+        synchronized ByteBuffer allocate(int size, boolean direct) throws InterruptedIOException {
+            // only the finished buffers release memory, without any waiting would never end,
+            // e.g. for a thread writing many streams at once. The limit is exceeded instead.
+            while (filling + finished + size > limit && finished > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while waiting for upload buffer memory");
+                }
+            }
+            if (filling + finished + size > limit) {
+                LOG.warn("Upload buffers exceed '" + MEMORY_LIMIT + "' of " + limit + " bytes");
+            }
+            filling += size;
+
+            ByteBuffer chunk = null;
+            if (direct) {
+                Iterator<ByteBuffer> it = pool.iterator();
+                while (it.hasNext()) {
+                    ByteBuffer free = it.next();
+                    if (free.capacity() == size) {
+                        it.remove();
+                        pooled -= size;
+                        free.clear();
+                        chunk = free;
+                        break;
+                    }
+                }
+            }
+            while (!pool.isEmpty() && filling + finished + pooled > limit) {
+                pooled -= pool.removeFirst().capacity();
+            }
+            if (chunk == null) {
+                chunk = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+            }
+            return chunk;
+        }
+
+        synchronized void finish(List<ByteBuffer> chunks) {
+            long size = capacity(chunks);
+            filling -= size;
+            finished += size;
+        }
+
+        synchronized void release(List<ByteBuffer> chunks, boolean wasFinished) {
+            long size = capacity(chunks);
+            if (wasFinished) {
+                finished -= size;
+            } else {
+                filling -= size;
+            }
+            for (ByteBuffer chunk : chunks) {
+                if (chunk.isDirect() && filling + finished + pooled + chunk.capacity() <= limit) {
+                    pool.add(chunk);
+                    pooled += chunk.capacity();
+                }
+            }
+            notifyAll();
+        }
+
+        synchronized long getUsed() {
+            return filling + finished;
+        }
+
+        synchronized long getPooled() {
+            return pooled;
+        }
+
+        private static long capacity(List<ByteBuffer> chunks) {
+            long size = 0;
+            for (ByteBuffer chunk : chunks) {
+                size += chunk.capacity();
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.nat;
+
+import com.aliyun.fs.oss.common.NativeFileSystemStore;
+import com.aliyun.fs.oss.utils.TransferScheduler;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Deletes keys by batches of {@link NativeFileSystemStore#MAX_DELETE_BATCH_SIZE}, one
+ * multi-delete request each. The batches are deleted in the transfer pool, at most
+ * `fs.oss.delete.thread.number` at a time (default 8), while the caller goes on listing.
+ *
+ * Deleting the keys already listed does not disturb a listing going on after them.
+ */
+public class BatchDeleter {
+    public static final String DELETE_THREADS = "fs.oss.delete.thread.number";
+
+    private final NativeFileSystemStore store;
+    private final Executor executor;
+    private final List<Future<Void>> batches = new ArrayList<Future<Void>>();
+    private List<String> batch = new ArrayList<String>();
+    private int deletedKeys = 0;
+
+    public BatchDeleter(NativeFileSystemStore store, Configuration conf) {
+        this.store = store;
+        this.executor = TransferScheduler.get(conf).newLimitedExecutor(conf.getInt(DELETE_THREADS, 8));
+    }
+
+    /**
+     * Schedules the deletion of `key`, it happens once its batch is full or in {@link #finish()}.
+     */
+    public void delete(String key) throws IOException {
+        batch.add(key);
+        if (batch.size() >= NativeFileSystemStore.MAX_DELETE_BATCH_SIZE) {
+            checkBatches();
+            submitBatch();
+        }
+    }
+
+    /**
+     * Deletes the last batch and waits for all of them.
+     * @return the number of keys deleted.
+     * @throws IOException the first failure of a batch.
+     */
+    public int finish() throws IOException {
+        if (!batch.isEmpty()) {
+            submitBatch();
+        }
+        try {
+            for (Future<Void> future : batches) {
+                getResult(future);
+            }
+        } finally {
+            cancel();
+        }
+        return deletedKeys;
+    }
+
+    private void submitBatch() {
+        final List<String> keys = batch;
+        batch = new ArrayList<String>();
+        FutureTask<Void> future = new FutureTask<Void>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                store.delete(keys);
+                return null;
+            }
+        });
+        batches.add(future);
+        deletedKeys += keys.size();
+        executor.execute(future);
+    }
+
+    /**
+     * Fails early on a batch which has already failed, instead of listing on for nothing.
+     */
+    private void checkBatches() throws IOException {
+        Iterator<Future<Void>> it = batches.iterator();
+        try {
+            while (it.hasNext()) {
+                Future<Void> future = it.next();
+                if (future.isDone()) {
+                    getResult(future);
+                    it.remove();
+                }
+            }
+        } catch (IOException e) {
+            cancel();
+            throw e;
+        } catch (RuntimeException e) {
+            cancel();
+            throw e;
+        }
+    }
+
+    private void cancel() {
+        for (Future<Void> future : batches) {
+            future.cancel(false);
+        }
+        batches.clear();
+    }
+
+    /**
+     * Waits for `future`, rethrowing the failure of its task.
+     */
+    static void getResult(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for OSS");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
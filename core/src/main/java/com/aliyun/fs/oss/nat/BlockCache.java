@@ -0,0 +1,272 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.nat;
+
+import com.aliyun.fs.oss.utils.Utils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local copy of the blocks of the objects read, for the jobs reading the same objects again and
+ * again. It is enabled by `fs.oss.cache.enabled`, and shared by all the streams of the JVM.
+ *
+ * The objects are cut into blocks of `fs.oss.cache.block.size` bytes (default 4MB), identified
+ * by bucket, key, ETag and index, so that a rewritten object is never served from stale
+ * blocks. The blocks are spread over the disks of `dfs.datanode.data.dir`, at most
+ * `fs.oss.cache.max.size` bytes in all (default 10GB), the least recently used ones are
+ * evicted first. Hits are served by memory mapping the block files.
+ *
+ * The blocks are not kept across JVMs, the directory of a JVM is deleted when it exits.
+ */
+public class BlockCache {
+    public static final Log LOG = LogFactory.getLog(BlockCache.class);
+
+    public static final String CACHE_ENABLED = "fs.oss.cache.enabled";
+    public static final String CACHE_BLOCK_SIZE = "fs.oss.cache.block.size";
+    public static final String CACHE_MAX_SIZE = "fs.oss.cache.max.size";
+
+    private static Index sharedIndex;
+
+    private final Index index;
+    private final String bucket;
+
+    private BlockCache(Index index, String bucket) {
+        this.index = index;
+        this.bucket = bucket;
+    }
+
+    /**
+     * A cache of its own, not shared with the other streams.
+     */
+    BlockCache(List<File> localDirs, int blockSize, long maxSize, String bucket) {
+        this(new Index(localDirs, blockSize, maxSize), bucket);
+    }
+
+    /**
+     * @return the cache of the blocks of `bucket`, null if the cache is disabled.
+     */
+    public static synchronized BlockCache get(Configuration conf, String bucket) {
+        if (!conf.getBoolean(CACHE_ENABLED, false)) {
+            return null;
+        }
+        if (sharedIndex == null) {
+            sharedIndex = new Index(Utils.getLocalDirs(conf, "oss-cache"),
+                    Math.max(conf.getInt(CACHE_BLOCK_SIZE, 4 * 1024 * 1024), 64 * 1024),
+                    conf.getLong(CACHE_MAX_SIZE, 10L * 1024 * 1024 * 1024));
+        }
+        return new BlockCache(sharedIndex, bucket);
+    }
+
+    public int getBlockSize() {
+        return index.blockSize;
+    }
+
+    /**
+     * @return a read-only buffer over the block, null if it is not cached.
+     */
+    public ByteBuffer getBlock(String key, String eTag, long block) {
+        return index.get(blockId(key, eTag, block));
+    }
+
+    /**
+     * Caches the `length` first bytes of `data` as the block `block`, which must be complete: as
+     * long as the block size unless it is the last one of the object.
+     */
+    public void putBlock(String key, String eTag, long block, byte[] data, int length) {
+        index.put(blockId(key, eTag, block), data, length);
+    }
+
+    private String blockId(String key, String eTag, long block) {
+        return bucket + "/" + key + "#" + eTag + "#" + block;
+    }
+
+    public long getHits() {
+        return index.hits.get();
+    }
+
+    public long getMisses() {
+        return index.misses.get();
+    }
+
+    /**
+     * @return the bytes on disk of all the cached blocks.
+     */
+    public long getUsedBytes() {
+        return index.getUsed();
+    }
+
+    private static class Entry {
+        final File file;
+        final int length;
+        MappedByteBuffer mapped;
+
+        Entry(File file, int length) {
+            this.file = file;
+            this.length = length;
+        }
+    }
+
+    private static class Index {
+        private final List<File> dirs = new ArrayList<File>();
+        private final int blockSize;
+        private final long maxSize;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        private final AtomicLong fileSeq = new AtomicLong();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private long used = 0;
+
+        Index(List<File> localDirs, int blockSize, long maxSize) {
+            this.blockSize = blockSize;
+            this.maxSize = maxSize;
+            String jvmDir = UUID.randomUUID().toString();
+            for (File localDir : localDirs) {
+                File dir = new File(localDir, jvmDir);
+                if (dir.mkdirs() || dir.isDirectory()) {
+                    dirs.add(dir);
+                } else {
+                    LOG.warn("Cannot create OSS cache directory: " + dir);
+                }
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    for (File dir : dirs) {
+                        FileUtil.fullyDelete(dir);
+                    }
+                }
+            });
+            LOG.info("Caching OSS blocks of " + blockSize + " bytes in " + dirs + ", at most " + maxSize + " bytes");
+        }
+
+        ByteBuffer get(String id) {
+            Entry entry;
+            synchronized (this) {
+                entry = entries.get(id);
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            synchronized (entry) {
+                if (entry.mapped == null) {
+                    try {
+                        entry.mapped = map(entry);
+                    } catch (IOException e) {
+                        // evicted meanwhile, or the disk is gone
+                        LOG.warn("Cannot map OSS cache file " + entry.file, e);
+                        remove(id, entry);
+                        misses.incrementAndGet();
+                        return null;
+                    }
+                }
+                hits.incrementAndGet();
+                return entry.mapped.duplicate();
+            }
+        }
+
+        private static MappedByteBuffer map(Entry entry) throws IOException {
+            RandomAccessFile file = new RandomAccessFile(entry.file, "r");
+            try {
+                // the mapping stays valid once the file is closed, or even deleted
+                return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, entry.length);
+            } finally {
+                file.close();
+            }
+        }
+
+        void put(String id, byte[] data, int length) {
+            if (dirs.isEmpty() || length > maxSize) {
+                return;
+            }
+            synchronized (this) {
+                if (entries.containsKey(id)) {
+                    return;
+                }
+            }
+            long seq = fileSeq.incrementAndGet();
+            File file = new File(dirs.get((int) (seq % dirs.size())), seq + ".block");
+            try {
+                FileOutputStream out = new FileOutputStream(file);
+                try {
+                    out.write(data, 0, length);
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                LOG.warn("Cannot write OSS cache file " + file, e);
+                file.delete();
+                return;
+            }
+
+            List<File> evicted = new ArrayList<File>();
+            synchronized (this) {
+                if (entries.containsKey(id)) {
+                    // cached by another stream meanwhile
+                    evicted.add(file);
+                } else {
+                    entries.put(id, new Entry(file, length));
+                    used += length;
+                    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+                    while (used > maxSize && it.hasNext()) {
+                        Entry eldest = it.next().getValue();
+                        it.remove();
+                        used -= eldest.length;
+                        evicted.add(eldest.file);
+                    }
+                }
+            }
+            for (File f : evicted) {
+                if (!f.delete()) {
+                    LOG.warn("Cannot delete OSS cache file " + f);
+                }
+            }
+        }
+
+        private void remove(String id, Entry entry) {
+            synchronized (this) {
+                if (entries.get(id) == entry) {
+                    entries.remove(id);
+                    used -= entry.length;
+                }
+            }
+            entry.file.delete();
+        }
+
+        synchronized long getUsed() {
+            return used;
+        }
+    }
+}
@@ -17,23 +17,61 @@
  */
 package com.aliyun.fs.oss.nat;
 
+import com.aliyun.fs.oss.common.FileMetadata;
+import com.aliyun.fs.oss.common.FileRange;
 import com.aliyun.fs.oss.common.NativeFileSystemStore;
-import com.aliyun.fs.oss.utils.TaskEngine;
+import com.aliyun.fs.oss.utils.BufferPool;
 import com.aliyun.fs.oss.utils.Task;
+import com.aliyun.fs.oss.utils.TaskEngine;
+import com.aliyun.fs.oss.utils.TransferScheduler;
+import com.google.common.util.concurrent.SettableFuture;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 
 import java.io.*;
+import java.lang.ref.WeakReference;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * Algorithm version 1 (double buffer):
+ *
  * thread1 thread2        thread2^m
  *  |        |                |
  * /        /                /
  * [0][1][2][3][4][5][6][7]...|...[2^n-8][2^n-7][2^n-6][2^n-5][2^n-4][2^n-3][2^n-2][2^n-1]
+ *
+ * Algorithm version 3 (prefetch ring): the range to read is cut into chunks of `slotSize`,
+ * chunk `c` is fetched into slot `c % slotCount`. A reader thread claims the next chunk as
+ * soon as its slot has been released by the consumer, and the consumer is woken up as soon
+ * as the chunk it waits for has landed.
+ *
+ *   consumer           fetching ...
+ *      |             /    |    \
+ * [slot0][slot1][slot2][slot3][slot4]...[slotN-1]
+ *
+ * The ring is only started by the first read. Seeks into the chunks already fetched or in
+ * flight are served in place, other seeks count as misses: they tear the ring down and shrink
+ * the read-ahead of the next ring. After consecutive misses, the reader switches to random
+ * mode, where each read is served by one small ranged GET, and switches back to sequential
+ * mode once those GETs turn out to be contiguous.
+ *
+ * The read-ahead buffers of both algorithms are direct buffers of the {@link BufferPool} of the
+ * JVM, given back when the stream is closed or seeks out of them, or when the reader of a stream
+ * never closed is garbage collected. When the pool is exhausted, the read-ahead is shrunk down
+ * to 1MB.
  */
 public class BufferReader {
     public static final Log LOG = LogFactory.getLog(BufferReader.class);
@@ -44,7 +82,8 @@ public class BufferReader {
     private Configuration conf;
     private int bufferSize;
     private String key;
-    private byte[] buffer;
+    private BufferPool bufferPool;
+    private ByteBuffer buffer;
     private Task[] readers;
     private int[] splitContentSize;
     private AtomicInteger halfReading = new AtomicInteger(0);
@@ -53,10 +92,12 @@ public class BufferReader {
     private boolean closed = false;
     private int cacheIdx = 0;
     private int splitSize = 0;
-    private long fileContentLength;
+    private long fileContentLength = -1;
+    private String eTag;
     private long pos = 0;
-    private boolean squeezed0 = false;
-    private boolean squeezed1 = false;
+    private int preparedHalf = -1;
+    private int splitIdx = 0;
+    private byte[] oneByte = new byte[1];
     private int realContentSize = 0;
     private double lastProgress = 0.0d;
     private AtomicInteger halfConsuming = new AtomicInteger(1);
@@ -65,27 +106,127 @@ public class BufferReader {
     private long lengthToFetch;
     private long instreamStart = 0;
 
+    // prefetch ring of algorithm version 3, all guarded by `slotLock` except the slot content
+    private final ReentrantLock slotLock = new ReentrantLock();
+    private final Condition slotFilled = slotLock.newCondition();
+    private final Condition slotFreed = slotLock.newCondition();
+    private int slotCount;
+    private int slotSize;
+    private ByteBuffer ringBuffer;
+    private ByteBuffer[] slots;
+    private int[] slotLength;
+    private long[] slotChunk;
+    private long chunkCount;
+    private long nextChunkToFetch = 0;
+    private long chunkConsuming = 0;
+    private boolean chunkReady = false;
+    private IOException fetchError;
+    private boolean ringStarted = false;
+
+    // access pattern detection of algorithm version 3
+    private static final int MIN_READ_AHEAD = 1024 * 1024;
+    private static final int TRANSFER_SIZE = 64 * 1024;
+    private static final int MISSES_BEFORE_RANDOM_MODE = 2;
+    private static final int CONTIGUOUS_RANGES_BEFORE_SEQUENTIAL_MODE = 4;
+    private static final int SWITCH_TO_SEQUENTIAL = -2;
+    private int maxReadAhead;
+    private int readAheadCap;
+    private boolean randomMode = false;
+    private int consecutiveMisses = 0;
+    private long chunksSinceMiss = 0;
+    private long readAheadHits = 0;
+    private long readAheadMisses = 0;
+    private int minRangeSize;
+    private int rangeSize;
+    private byte[] rangeBuffer;
+    private long rangeStart = 0;
+    private int rangeLength = 0;
+    private long lastRangeEnd = -1;
+    private int contiguousRanges = 0;
+
+    // positioned read
+    private int preadSplitSize;
+
+    // vectored read
+    private int vectoredMergeGap;
+    private int vectoredMergeMax;
+
+    private BlockCache blockCache;
+
+    // the read-ahead stops at `fetchEnd`, moved by `fetchOverrun` when reads go past it
+    private long fetchEnd = Long.MAX_VALUE;
+    private long fetchOverrun = 0;
+
     public BufferReader(NativeFileSystemStore store, String key, Configuration conf, int algorithmVersion) throws IOException {
+        this(store, key, conf, algorithmVersion, conf.getInt("fs.oss.readBuffer.size", 64 * 1024 * 1024));
+    }
+
+    /**
+     * @param maxReadAhead upper bound of the read-ahead of algorithm version 3.
+     */
+    public BufferReader(NativeFileSystemStore store, String key, Configuration conf, int algorithmVersion,
+                        int maxReadAhead) throws IOException {
+        this(store, key, conf, algorithmVersion, maxReadAhead, null);
+    }
+
+    /**
+     * @param metadata metadata of the object retrieved at open time if any, which saves a HEAD
+     *                 request and pins the ETag of the object for all the ranged GETs.
+     */
+    public BufferReader(NativeFileSystemStore store, String key, Configuration conf, int algorithmVersion,
+                        int maxReadAhead, FileMetadata metadata) throws IOException {
+        this(store, key, conf, algorithmVersion, maxReadAhead, metadata, null);
+    }
+
+    /**
+     * @param blockCache if not null, the ranges of objects with a known ETag are read through it.
+     */
+    public BufferReader(NativeFileSystemStore store, String key, Configuration conf, int algorithmVersion,
+                        int maxReadAhead, FileMetadata metadata, BlockCache blockCache) throws IOException {
+        this(store, key, conf, algorithmVersion, maxReadAhead, metadata, blockCache, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param start position to read from.
+     * @param end   position the read-ahead stops at, e.g. the end of a split plus the bytes of its
+     *              last line. Reads past it are still served, with a read-ahead of 1MB at first,
+     *              then twice as large every time it is reached again.
+     */
+    public BufferReader(NativeFileSystemStore store, String key, Configuration conf, int algorithmVersion,
+                        int maxReadAhead, FileMetadata metadata, BlockCache blockCache, long start, long end)
+            throws IOException {
+        if (start < 0) {
+            throw new EOFException("negative start position: " + start);
+        }
         this.store = store;
+        this.pos = start;
+        this.instreamStart = start;
+        this.fetchEnd = Math.max(end, start);
+        this.blockCache = blockCache;
         this.key = key;
+        if (metadata != null) {
+            this.fileContentLength = metadata.getLength();
+            this.eTag = metadata.getETag();
+        }
         this.conf = conf;
+        this.bufferPool = BufferPool.get(conf);
         this.algorithmVersion = algorithmVersion;
+        this.maxReadAhead = Math.max(maxReadAhead, MIN_READ_AHEAD);
+        this.readAheadCap = this.maxReadAhead;
+        this.minRangeSize = conf.getInt("fs.oss.reader.random.read.size", 64 * 1024);
+        this.rangeSize = minRangeSize;
+        this.preadSplitSize = Math.max(conf.getInt("fs.oss.reader.pread.split.size", 8 * 1024 * 1024), 64 * 1024);
+        this.vectoredMergeGap = Math.max(conf.getInt("fs.oss.reader.vectored.merge.gap", 256 * 1024), 0);
+        this.vectoredMergeMax = Math.max(conf.getInt("fs.oss.reader.vectored.merge.max", 8 * 1024 * 1024), 64 * 1024);
         prepareBeforeFetch();
     }
 
     private void prepareBeforeFetch() throws IOException {
         if (algorithmVersion == 1) {
-            this.fileContentLength = store.retrieveMetadata(key).getLength();
-            this.lengthToFetch = fileContentLength - pos;
-            this.bufferSize = lengthToFetch < 16 * 1024 * 1024 ? 1024 * 1024 :
-                    (lengthToFetch > 1024 * 1024 * 1024 ? 64 * 1024 * 1024 :
-                            (int) (lengthToFetch / 16));
-            if (Math.log(bufferSize) / Math.log(2) != 0) {
-                int power = (int) Math.ceil(Math.log(bufferSize) / Math.log(2));
-                this.bufferSize = (int) Math.pow(2, power);
-            }
-
-            this.buffer = new byte[bufferSize];
+            this.fileContentLength = getContentLength();
+            this.lengthToFetch = Math.max(Math.min(fileContentLength, fetchEnd) - pos, 0L);
+            this.buffer = bufferPool.acquire(computeBufferSize(lengthToFetch), MIN_READ_AHEAD, this);
+            this.bufferSize = buffer.limit();
             this.concurrentStreams = conf.getInt("fs.oss.reader.concurrent.number", 4);
             if ((Math.log(concurrentStreams) / Math.log(2)) != 0) {
                 int power = (int) Math.ceil(Math.log(concurrentStreams) / Math.log(2));
@@ -96,20 +237,38 @@ public class BufferReader {
             this.splitSize = bufferSize / concurrentStreams / 2;
 
             initializeTaskEngine();
+        } else if (algorithmVersion == 3) {
+            // the prefetch ring is started by the first read
+            this.fileContentLength = getContentLength();
         } else {
             in = store.retrieve(key, pos);
         }
     }
 
+    /**
+     * Read-ahead buffer size, from 1MB up to 64MB according to the length to fetch, rounded
+     * up to a power of 2.
+     */
+    private static int computeBufferSize(long lengthToFetch) {
+        int size = lengthToFetch < 16 * 1024 * 1024 ? 1024 * 1024 :
+                (lengthToFetch > 1024 * 1024 * 1024 ? 64 * 1024 * 1024 :
+                        (int) (lengthToFetch / 16));
+        if (Math.log(size) / Math.log(2) != 0) {
+            int power = (int) Math.ceil(Math.log(size) / Math.log(2));
+            size = (int) Math.pow(2, power);
+        }
+        return size;
+    }
+
     private void initializeTaskEngine() {
         for(int i=0; i<concurrentStreams; i++) {
             try {
-                readers[i] = new ConcurrentReader(i);
+                readers[i] = new ConcurrentReader(this, i);
             } catch (FileNotFoundException e) {
                 LOG.error(e);
             }
         }
-        this.taskEngine = new TaskEngine(Arrays.asList(this.readers), concurrentStreams, concurrentStreams);
+        this.taskEngine = new TaskEngine(Arrays.asList(this.readers), concurrentStreams, true, conf);
         this.taskEngine.executeTask();
     }
 
@@ -119,6 +278,11 @@ public class BufferReader {
         try {
             if (algorithmVersion == 1) {
                 taskEngine.shutdown();
+                releaseBuffer();
+            } else if (algorithmVersion == 3) {
+                stopRing();
+                closed = true;
+                rangeBuffer = null;
             } else {
                 if (in != null) {
                     in.close();
@@ -131,77 +295,12 @@ public class BufferReader {
     }
 
     public synchronized int read() throws IOException {
-        if (algorithmVersion == 1) {
-            while (true) {
-                if (halfReading.get() == 0) {
-                    int i = 0;
-                    while (!(ready0.get() == concurrentStreams)) {
-                        i++;
-                        try {
-                            Thread.sleep(100);
-                        } catch (InterruptedException e) {
-                            LOG.warn("Something wrong, keep waiting.");
-                        }
-                        if (i % 100 == 0) {
-                            LOG.warn("waiting for fetching oss data at half-0, has completed " + ready0.get());
-                        }
-                    }
-                    if (!squeezed0) {
-                        realContentSize = squeeze();
-                        squeezed0 = true;
-                        squeezed1 = false;
-                        progressPrint();
-                    }
-
-                    // read data from buffer half-0
-                    if (pos >= fileContentLength) {
-                        return -1;
-                    } else if (cacheIdx < realContentSize) {
-                        int ret = buffer[cacheIdx];
-                        cacheIdx++;
-                        pos++;
-                        return ret;
-                    } else {
-                        ready0.set(0);
-                        halfReading.set(1);
-                        cacheIdx = 0;
-                        halfConsuming.addAndGet(1);
-                    }
-                } else {
-                    int i = 0;
-                    while (!(ready1.get() == concurrentStreams)) {
-                        i++;
-                        try {
-                            Thread.sleep(100);
-                        } catch (InterruptedException e) {
-                            LOG.warn("Something wrong, keep waiting.");
-                        }
-                        if (i % 100 == 0) {
-                            LOG.warn("waiting for fetching oss data at half-1, has completed " + ready1.get());
-                        }
-                    }
-                    if (!squeezed1) {
-                        realContentSize = squeeze();
-                        squeezed0 = false;
-                        squeezed1 = true;
-                        progressPrint();
-                    }
-
-                    // read data from buffer half-1
-                    if (pos >= fileContentLength) {
-                        return -1;
-                    } else if (cacheIdx < realContentSize) {
-                        int ret = buffer[bufferSize / 2 + cacheIdx];
-                        cacheIdx++;
-                        return ret;
-                    } else {
-                        ready1.set(0);
-                        halfReading.set(0);
-                        cacheIdx = 0;
-                        halfConsuming.addAndGet(1);
-                    }
-                }
-            }
+        if (algorithmVersion == 3) {
+            int size = read(oneByte, 0, 1);
+            return size == -1 ? -1 : oneByte[0] & 0xFF;
+        } else if (algorithmVersion == 1) {
+            int size = readFromHalves(oneByte, 0, 1);
+            return size == -1 ? -1 : oneByte[0] & 0xFF;
         } else {
             int result = in.read();
             if (result != -1) {
@@ -213,86 +312,46 @@ public class BufferReader {
     }
 
     public synchronized int read(byte[] b, int off, int len) throws IOException {
-        if (algorithmVersion == 1) {
-            while (true) {
-                if (halfReading.get() == 0) {
-                    int j = 0;
-                    while (!(ready0.get() == concurrentStreams)) {
-                        j++;
-                        try {
-                            Thread.sleep(100);
-                        } catch (InterruptedException e) {
-                            LOG.warn("Something wrong, keep waiting.");
-                        }
-                        if (j % 100 == 0) {
-                            LOG.warn("waiting for fetching oss data at half-0, has completed " + ready0.get());
-                        }
-                    }
-                    if (!squeezed0) {
-                        realContentSize = squeeze();
-                        squeezed0 = true;
-                        squeezed1 = false;
-                        progressPrint();
-                    }
-
-                    // read data from buffer half-0
-                    int size = 0;
-                    if (pos >= fileContentLength) {
-                        return -1;
-                    } else if (cacheIdx < realContentSize) {
-                        for (int i = 0; i < len && cacheIdx < realContentSize; i++) {
-                            b[off + i] = buffer[cacheIdx];
-                            cacheIdx++;
-                            pos++;
-                            size++;
-                        }
-                        return size;
-                    } else {
-                        ready0.set(0);
-                        halfReading.set(1);
-                        cacheIdx = 0;
-                        halfConsuming.addAndGet(1);
-                    }
-                } else {
-                    int j = 0;
-                    while (!(ready1.get() == concurrentStreams)) {
-                        j++;
-                        try {
-                            Thread.sleep(100);
-                        } catch (InterruptedException e) {
-                            LOG.warn("Something wrong, keep waiting.");
-                        }
-                        if (j % 100 == 0) {
-                            LOG.warn("waiting for fetching oss data at half-1, has completed " + ready1.get());
-                        }
-                    }
-                    if (!squeezed1) {
-                        realContentSize = squeeze();
-                        squeezed0 = false;
-                        squeezed1 = true;
-                        progressPrint();
-                    }
-
-                    // read data from buffer half-1
-                    int size = 0;
-                    if (pos >= fileContentLength) {
-                        return -1;
-                    } else if (cacheIdx < realContentSize) {
-                        for (int i = 0; i < len && cacheIdx < realContentSize; i++) {
-                            b[off + i] = buffer[bufferSize / 2 + cacheIdx];
-                            cacheIdx++;
-                            pos++;
-                            size++;
-                        }
-                        return size;
-                    } else {
-                        ready1.set(0);
-                        halfReading.set(0);
-                        cacheIdx = 0;
-                        halfConsuming.addAndGet(1);
-                    }
+        if (algorithmVersion == 3) {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= fileContentLength) {
+                return -1;
+            }
+            if (randomMode) {
+                int size = readRange(b, off, len);
+                if (size != SWITCH_TO_SEQUENTIAL) {
+                    return size;
                 }
             }
+            if (!ringStarted) {
+                startRing();
+            }
+            int slot = awaitConsumingChunk();
+            if (slot < 0 && pos >= fetchEnd) {
+                // past the range the stream was opened for
+                stopRing();
+                startRing();
+                slot = awaitConsumingChunk();
+            }
+            if (slot < 0) {
+                return -1;
+            }
+            int size = Math.min(len, slotLength[slot] - cacheIdx);
+            slots[slot].position(cacheIdx);
+            slots[slot].get(b, off, size);
+            cacheIdx += size;
+            pos += size;
+            if (cacheIdx >= slotLength[slot]) {
+                releaseConsumingChunk(slot);
+            }
+            return size;
+        } else if (algorithmVersion == 1) {
+            if (len == 0) {
+                return 0;
+            }
+            return readFromHalves(b, off, len);
         } else {
             int result = in.read(b, off, len);
             if (result > 0) {
@@ -303,12 +362,245 @@ public class BufferReader {
         }
     }
 
+    /**
+     * Serve a read of algorithm version 1 straight out of the splits of the half under
+     * consumption. The splits of a half are consumed one after another as (offset, length)
+     * segments, so that short fetches do not need to be compacted.
+     */
+    private int readFromHalves(byte[] b, int off, int len) throws IOException {
+        while (true) {
+            int half = halfReading.get();
+            AtomicInteger ready = half == 0 ? ready0 : ready1;
+            int j = 0;
+            while (!(ready.get() == concurrentStreams)) {
+                j++;
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    LOG.warn("Something wrong, keep waiting.");
+                }
+                if (j % 100 == 0) {
+                    LOG.warn("waiting for fetching oss data at half-" + half + ", has completed " + ready.get());
+                }
+            }
+            if (preparedHalf != half) {
+                realContentSize = 0;
+                for (int i = 0; i < concurrentStreams; i++) {
+                    realContentSize += splitContentSize[half * concurrentStreams + i];
+                }
+                preparedHalf = half;
+                splitIdx = 0;
+                cacheIdx = 0;
+                progressPrint();
+            }
+
+            if (pos >= fileContentLength) {
+                return -1;
+            }
+            if (pos >= fetchEnd) {
+                // past the range the stream was opened for
+                extendFetchEnd();
+                updateInnerStream(pos);
+                continue;
+            }
+            while (splitIdx < concurrentStreams && cacheIdx >= splitContentSize[half * concurrentStreams + splitIdx]) {
+                splitIdx++;
+                cacheIdx = 0;
+            }
+            if (splitIdx < concurrentStreams) {
+                int size = Math.min(len, splitContentSize[half * concurrentStreams + splitIdx] - cacheIdx);
+                buffer.position(half * (bufferSize / 2) + splitIdx * splitSize + cacheIdx);
+                buffer.get(b, off, size);
+                cacheIdx += size;
+                pos += size;
+                return size;
+            } else {
+                // switch to the other half, and let the readers refill this one
+                ready.set(0);
+                halfReading.set(1 - half);
+                splitIdx = 0;
+                cacheIdx = 0;
+                halfConsuming.addAndGet(1);
+            }
+        }
+    }
+
+    /**
+     * Positioned read, served by ranged GETs without touching the position nor the read-ahead
+     * of the stream, so that it may be called concurrently with other reads. Reads larger than
+     * `fs.oss.reader.pread.split.size` are split into sub-ranges fetched in parallel.
+     */
+    public int read(long position, byte[] b, int off, int len) throws IOException {
+        if (position < 0) {
+            throw new EOFException("negative position: " + position);
+        }
+        long contentLength = getContentLength();
+        if (position >= contentLength) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        int size = (int) Math.min(len, contentLength - position);
+        if (size <= preadSplitSize) {
+            int result = fetchRange(position, size, b, off, "[PositionedReader]");
+            return result == 0 ? -1 : result;
+        }
+
+        int parts = (size + preadSplitSize - 1) / preadSplitSize;
+        List<Task> tasks = new ArrayList<Task>();
+        for (int i = 0; i < parts; i++) {
+            int partOffset = i * preadSplitSize;
+            RangeReader rangeReader = new RangeReader(position + partOffset,
+                    Math.min(preadSplitSize, size - partOffset), b, off + partOffset);
+            rangeReader.setUuid(i + "");
+            tasks.add(rangeReader);
+        }
+        int threads = Math.min(Math.max(conf.getInt("fs.oss.reader.concurrent.number", 4), 1), parts);
+        TaskEngine taskEngine = new TaskEngine(tasks, threads, conf);
+        try {
+            taskEngine.executeTask();
+            Map<String, Object> responseMap = taskEngine.getResultMap();
+            int hasRead = 0;
+            for (int i = 0; i < parts; i++) {
+                Object response = responseMap.get(i + "");
+                if (response instanceof IOException) {
+                    throw (IOException) response;
+                }
+                int partRead = (Integer) response;
+                hasRead += partRead;
+                if (partRead < preadSplitSize) {
+                    // short part, the object ends here
+                    break;
+                }
+            }
+            return hasRead == 0 ? -1 : hasRead;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while reading '" + key + "' at position " + position);
+        } finally {
+            taskEngine.shutdown();
+        }
+    }
+
+    /**
+     * Vectored read: sets the data future of each range, and returns without waiting for the
+     * data. Ranges closer than `fs.oss.reader.vectored.merge.gap` are merged into one ranged GET
+     * of at most `fs.oss.reader.vectored.merge.max` bytes, and at most
+     * `fs.oss.reader.vectored.threads` merged GETs are issued at a time on the transfer pool of the
+     * JVM, see {@link TransferScheduler}. Like positioned reads, this does not touch the state of the sequential stream.
+     */
+    public void readVectored(List<FileRange> ranges) throws IOException {
+        List<FileRange> sorted = new ArrayList<FileRange>(ranges);
+        Collections.sort(sorted, new Comparator<FileRange>() {
+            @Override
+            public int compare(FileRange r1, FileRange r2) {
+                return r1.getOffset() < r2.getOffset() ? -1 : (r1.getOffset() == r2.getOffset() ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < sorted.size(); i++) {
+            FileRange range = sorted.get(i);
+            if (range.getOffset() < 0 || range.getLength() < 0) {
+                throw new IllegalArgumentException("Invalid range " + range);
+            }
+            if (i > 0) {
+                FileRange previous = sorted.get(i - 1);
+                if (previous.getOffset() + previous.getLength() > range.getOffset()) {
+                    throw new IllegalArgumentException("Overlapping ranges " + previous + " and " + range);
+                }
+            }
+        }
+        for (FileRange range : sorted) {
+            range.setData(SettableFuture.<ByteBuffer>create());
+        }
+
+        long contentLength = getContentLength();
+        Executor pool = TransferScheduler.get(conf).newLimitedExecutor(
+                conf.getInt("fs.oss.reader.vectored.threads", 16));
+        int first = 0;
+        while (first < sorted.size()) {
+            long start = sorted.get(first).getOffset();
+            long end = start + sorted.get(first).getLength();
+            int last = first + 1;
+            while (last < sorted.size()) {
+                FileRange next = sorted.get(last);
+                long nextEnd = next.getOffset() + next.getLength();
+                if (next.getOffset() - end > vectoredMergeGap || nextEnd - start > vectoredMergeMax) {
+                    break;
+                }
+                end = nextEnd;
+                last++;
+            }
+            pool.execute(new MergedRangeReader(sorted.subList(first, last), start,
+                    (int) (Math.min(end, contentLength) - Math.min(start, contentLength))));
+            first = last;
+        }
+    }
+
+    private class MergedRangeReader implements Runnable {
+        private List<FileRange> ranges;
+        private long start;
+        private int length;
+
+        public MergedRangeReader(List<FileRange> ranges, long start, int length) {
+            this.ranges = ranges;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            byte[] data = new byte[length];
+            int hasRead = 0;
+            IOException error = null;
+            try {
+                if (length > 0) {
+                    hasRead = fetchRange(start, length, data, 0, "[VectoredReader]");
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new IOException(e);
+            }
+            for (FileRange range : ranges) {
+                SettableFuture<ByteBuffer> future = (SettableFuture<ByteBuffer>) range.getData();
+                int offset = (int) (range.getOffset() - start);
+                if (error != null) {
+                    future.setException(error);
+                } else if (offset + range.getLength() > hasRead) {
+                    future.setException(new EOFException("Cannot read " + range + " of '" + key + "', " +
+                            "only " + (start + hasRead) + " bytes available"));
+                } else {
+                    future.set(ByteBuffer.wrap(data, offset, range.getLength()).slice());
+                }
+            }
+        }
+    }
+
+    private long getContentLength() throws IOException {
+        if (fileContentLength < 0) {
+            // not known at open time, algorithm version 2 does not need it for sequential reads
+            FileMetadata metadata = store.retrieveMetadata(key);
+            if (metadata == null) {
+                throw new FileNotFoundException("Key '" + key + "' does not exist");
+            }
+            eTag = metadata.getETag();
+            fileContentLength = metadata.getLength();
+        }
+        return fileContentLength;
+    }
+
     public synchronized void seek(long newpos) throws IOException {
         if (newpos < 0) {
             throw new EOFException("negative seek position: " + newpos);
         }
 
-        if (pos != newpos) {
+        if (algorithmVersion == 3) {
+            if (pos != newpos) {
+                seekInRing(newpos);
+            }
+        } else if (pos != newpos) {
             // the seek is attempting to move to the current position
             updateInnerStream(newpos);
         }
@@ -322,6 +614,7 @@ public class BufferReader {
                 closed = true;
                 taskEngine.shutdown();
                 closed = false;
+                releaseBuffer();
             } else {
                 if (in != null) {
                     in.close();
@@ -342,59 +635,311 @@ public class BufferReader {
         ready0.set(0);
         ready1.set(0);
         cacheIdx = 0;
-        squeezed0 = false;
-        squeezed1 = false;
+        preparedHalf = -1;
+        splitIdx = 0;
         realContentSize = 0;
         lastProgress = 0.0d;
         halfConsuming.set(1);
     }
 
-    private int squeeze() {
-        int totalSize = 0;
-        int begin;
-        if (halfReading.get() == 0) {
-            for(int i=0; i<concurrentStreams; i++) {
-                totalSize += splitContentSize[i];
-            }
-            begin = 0;
+    private void startRing() {
+        if (pos >= fetchEnd) {
+            extendFetchEnd();
+        }
+        this.instreamStart = pos;
+        this.lengthToFetch = Math.max(Math.min(fileContentLength, fetchEnd) - pos, 0L);
+        this.concurrentStreams = Math.max(conf.getInt("fs.oss.reader.concurrent.number", 4), 1);
+        int maxSlots = Math.max(conf.getInt("fs.oss.reader.prefetch.slots", concurrentStreams * 2),
+                concurrentStreams);
+        int readAhead = Math.min(computeBufferSize(lengthToFetch), readAheadCap);
+        long chunks = (lengthToFetch + readAhead / maxSlots - 1) / (readAhead / maxSlots);
+        // small objects do not need all slots
+        int slotsNeeded = (int) Math.max(Math.min(maxSlots, chunks), 1);
+        // a smaller buffer than requested means smaller slots
+        this.ringBuffer = bufferPool.acquire(readAhead / maxSlots * slotsNeeded,
+                MIN_READ_AHEAD / maxSlots * slotsNeeded, this);
+        this.slotSize = ringBuffer.limit() / slotsNeeded;
+        this.bufferSize = slotSize * maxSlots;
+        this.chunkCount = (lengthToFetch + slotSize - 1) / slotSize;
+        this.slotCount = (int) Math.max(Math.min(slotsNeeded, chunkCount), 1);
+        this.slots = new ByteBuffer[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            ringBuffer.limit((i + 1) * slotSize);
+            ringBuffer.position(i * slotSize);
+            slots[i] = ringBuffer.slice();
+        }
+        this.slotLength = new int[slotCount];
+        this.slotChunk = new long[slotCount];
+        Arrays.fill(slotChunk, -1L);
+        this.nextChunkToFetch = 0;
+        this.chunkConsuming = 0;
+        this.chunkReady = false;
+        this.cacheIdx = 0;
+        this.fetchError = null;
+        this.lastProgress = 0.0d;
 
-            int cacheIdx;
-            if (totalSize != bufferSize/2) {
-                cacheIdx = splitContentSize[0];
-                for(int i=1; i <concurrentStreams; i++) {
-                    for (int j=0; j<splitContentSize[i]; j++) {
-                        buffer[begin+cacheIdx] = buffer[begin+splitSize*i+j];
-                        cacheIdx++;
-                    }
+        LOG.info("Opening key '" + key + "' for reading at position '" + pos + "' with read-ahead " + bufferSize);
+        this.readers = new SlotReader[concurrentStreams];
+        for (int i = 0; i < concurrentStreams; i++) {
+            readers[i] = new SlotReader(this, i);
+        }
+        this.taskEngine = new TaskEngine(Arrays.asList(this.readers), concurrentStreams, true, conf);
+        this.taskEngine.executeTask();
+        this.ringStarted = true;
+    }
+
+    private void stopRing() {
+        if (ringStarted) {
+            wakeUpSlotReaders();
+            taskEngine.shutdown();
+            closed = false;
+            ringStarted = false;
+            slots = null;
+            bufferPool.release(ringBuffer);
+            ringBuffer = null;
+        }
+    }
+
+    /**
+     * Moves the end of the read-ahead past the position, 1MB at first, then twice as far as the
+     * previous time.
+     */
+    private void extendFetchEnd() {
+        fetchOverrun = fetchOverrun == 0 ? MIN_READ_AHEAD : Math.min(fetchOverrun * 2, Long.MAX_VALUE / 4);
+        fetchEnd = pos + fetchOverrun < 0 ? Long.MAX_VALUE : pos + fetchOverrun;
+        LOG.debug("Reading '" + key + "' past its range, read-ahead extended to " + fetchEnd);
+    }
+
+    private void releaseBuffer() {
+        bufferPool.release(buffer);
+        buffer = null;
+    }
+
+    /**
+     * Seek of algorithm version 3. Positions inside the chunks already fetched or in flight are
+     * reached by consuming the ring up to them, any other position is a miss.
+     */
+    private void seekInRing(long newpos) throws IOException {
+        if (!ringStarted) {
+            pos = newpos;
+            return;
+        }
+
+        long chunkStart = instreamStart + chunkConsuming * slotSize;
+        long targetChunk = (newpos - instreamStart) / slotSize;
+        boolean inWindow = false;
+        if (newpos >= chunkStart && newpos < fileContentLength) {
+            slotLock.lock();
+            try {
+                inWindow = targetChunk < nextChunkToFetch;
+            } finally {
+                slotLock.unlock();
+            }
+        }
+        if (inWindow) {
+            while (chunkConsuming < targetChunk) {
+                int slot = awaitConsumingChunk();
+                if (slot < 0) {
+                    break;
                 }
+                releaseConsumingChunk(slot);
+            }
+            int slot = chunkConsuming == targetChunk ? awaitConsumingChunk() : -1;
+            int offset = (int) (newpos - (instreamStart + targetChunk * slotSize));
+            if (slot >= 0 && offset < slotLength[slot]) {
+                cacheIdx = offset;
+                pos = newpos;
+                readAheadHits++;
+                return;
             }
+        }
+
+        readAheadMisses++;
+        consecutiveMisses++;
+        chunksSinceMiss = 0;
+        readAheadCap = Math.max(readAheadCap / 2, MIN_READ_AHEAD);
+        stopRing();
+        pos = newpos;
+        if (consecutiveMisses >= MISSES_BEFORE_RANDOM_MODE && !randomMode) {
+            LOG.info("Switching to random read mode for '" + key + "' after " + consecutiveMisses + " seeks");
+            randomMode = true;
+            rangeSize = minRangeSize;
+            contiguousRanges = 0;
+        }
+    }
+
+    /**
+     * Read of random mode, served from the last ranged GET or by a new one of `rangeSize`
+     * bytes, or straight into `b` for large reads.
+     *
+     * @return the number of bytes read, -1 at the end of object, or SWITCH_TO_SEQUENTIAL if
+     * the reads have turned out to be sequential.
+     */
+    private int readRange(byte[] b, int off, int len) throws IOException {
+        if (rangeLength > 0 && pos >= rangeStart && pos < rangeStart + rangeLength) {
+            int size = (int) Math.min(len, rangeStart + rangeLength - pos);
+            System.arraycopy(rangeBuffer, (int) (pos - rangeStart), b, off, size);
+            pos += size;
+            return size;
+        }
+
+        if (pos == lastRangeEnd) {
+            contiguousRanges++;
+            readAheadHits++;
+            if (contiguousRanges >= CONTIGUOUS_RANGES_BEFORE_SEQUENTIAL_MODE) {
+                LOG.info("Switching to sequential read mode for '" + key + "' at position " + pos);
+                randomMode = false;
+                consecutiveMisses = 0;
+                readAheadCap = maxReadAhead;
+                rangeBuffer = null;
+                rangeLength = 0;
+                lastRangeEnd = -1;
+                return SWITCH_TO_SEQUENTIAL;
+            }
+            rangeSize = Math.min(rangeSize * 2, MIN_READ_AHEAD);
         } else {
-            for(int i=0; i<concurrentStreams; i++) {
-                totalSize += splitContentSize[concurrentStreams+i];
-            }
-            begin = bufferSize/2;
-
-            int cacheIdx;
-            if (totalSize != bufferSize/2) {
-                cacheIdx = splitContentSize[concurrentStreams];
-                for(int i=1; i <concurrentStreams; i++) {
-                    for (int j=0; j<splitContentSize[concurrentStreams+i]; j++) {
-                        buffer[begin+cacheIdx] = buffer[begin+splitSize*i+j];
-                        cacheIdx++;
-                    }
+            contiguousRanges = 0;
+            readAheadMisses++;
+            rangeSize = minRangeSize;
+        }
+
+        long remaining = fileContentLength - pos;
+        if (len >= rangeSize) {
+            int size = fetchRange(pos, (int) Math.min(len, remaining), b, off, "[RangeReader]");
+            if (size == 0) {
+                return -1;
+            }
+            pos += size;
+            lastRangeEnd = pos;
+            return size;
+        }
+
+        if (rangeBuffer == null || rangeBuffer.length < rangeSize) {
+            rangeBuffer = new byte[rangeSize];
+        }
+        rangeStart = pos;
+        rangeLength = fetchRange(pos, (int) Math.min(rangeSize, remaining), rangeBuffer, 0, "[RangeReader]");
+        lastRangeEnd = rangeStart + rangeLength;
+        if (rangeLength == 0) {
+            return -1;
+        }
+        int size = Math.min(len, rangeLength);
+        System.arraycopy(rangeBuffer, 0, b, off, size);
+        pos += size;
+        return size;
+    }
+
+    /**
+     * Number of reads or seeks served by data already fetched, of algorithm version 3.
+     */
+    public long getReadAheadHits() {
+        return readAheadHits;
+    }
+
+    /**
+     * Number of seeks which dropped the read-ahead, and of ranged GETs in random mode, of
+     * algorithm version 3.
+     */
+    public long getReadAheadMisses() {
+        return readAheadMisses;
+    }
+
+    public boolean isRandomMode() {
+        return randomMode;
+    }
+
+    /**
+     * Block until the chunk under consumption has landed in its slot.
+     *
+     * @return the slot holding the chunk, or -1 if there is nothing left to read.
+     */
+    private int awaitConsumingChunk() throws IOException {
+        int slot = (int) (chunkConsuming % slotCount);
+        if (chunkReady) {
+            return slot;
+        }
+        if (chunkConsuming >= chunkCount) {
+            return -1;
+        }
+
+        slotLock.lock();
+        try {
+            while (slotChunk[slot] != chunkConsuming) {
+                if (fetchError != null) {
+                    throw new IOException("Failed to fetch oss data of '" + key + "'", fetchError);
+                }
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                if (!slotFilled.await(10, TimeUnit.SECONDS)) {
+                    LOG.warn("waiting for fetching oss data at slot-" + slot + " of '" + key + "'");
                 }
             }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for fetching oss data");
+        } finally {
+            slotLock.unlock();
+        }
+
+        if (slotLength[slot] == 0) {
+            // the object is shorter than expected
+            return -1;
         }
+        chunkReady = true;
+        realContentSize = slotLength[slot];
+        progressPrint();
+        return slot;
+    }
+
+    /**
+     * Hand the slot of the chunk just consumed back to the slot readers.
+     */
+    private void releaseConsumingChunk(int slot) {
+        if (slotLength[slot] < slotSize && chunkConsuming < chunkCount - 1) {
+            LOG.warn("Got less data than expected from '" + key + "', stop reading at position " + pos);
+            chunkCount = chunkConsuming + 1;
+        }
+        cacheIdx = 0;
+        chunkReady = false;
+        slotLock.lock();
+        try {
+            chunkConsuming++;
+            slotFreed.signalAll();
+        } finally {
+            slotLock.unlock();
+        }
+
+        readAheadHits++;
+        consecutiveMisses = 0;
+        if (++chunksSinceMiss >= slotCount) {
+            // a whole ring consumed without miss, allow a larger read-ahead for the next ring
+            readAheadCap = (int) Math.min((long) readAheadCap * 2, maxReadAhead);
+            chunksSinceMiss = 0;
+        }
+    }
 
-        return totalSize;
+    private void wakeUpSlotReaders() {
+        slotLock.lock();
+        try {
+            closed = true;
+            slotFreed.signalAll();
+            slotFilled.signalAll();
+        } finally {
+            slotLock.unlock();
+        }
     }
 
     public long getPos() {
         return pos;
     }
 
-    private class ConcurrentReader extends Task {
+    /**
+     * Reader of a split of both halves of algorithm version 1. Like {@link SlotReader}, it only
+     * holds its BufferReader while fetching, and gives up once the BufferReader is collected.
+     */
+    private static class ConcurrentReader extends Task {
         private final Log LOG = LogFactory.getLog(ConcurrentReader.class);
+        private final WeakReference<BufferReader> owner;
         private Boolean preRead = true;
         private int readerId = -1;
         private boolean half0Completed = false;
@@ -405,45 +950,52 @@ public class BufferReader {
         private boolean _continue = true;
         int halfFetched = 1;
 
-        public ConcurrentReader(int readerId) throws FileNotFoundException {
-            assert(bufferSize%2 == 0);
-            assert(concurrentStreams%2 == 0);
+        public ConcurrentReader(BufferReader owner, int readerId) throws FileNotFoundException {
+            assert(owner.bufferSize%2 == 0);
+            assert(owner.concurrentStreams%2 == 0);
+            this.owner = new WeakReference<BufferReader>(owner);
             this.readerId = readerId;
-            this.length = bufferSize / (2 * concurrentStreams);
-            assert(concurrentStreams*length*2 == bufferSize);
+            this.length = owner.bufferSize / (2 * owner.concurrentStreams);
+            assert(owner.concurrentStreams*length*2 == owner.bufferSize);
 
             this.half0StartPos = readerId * length;
-            this.half1StartPos = bufferSize / 2 + readerId * length;
+            this.half1StartPos = owner.bufferSize / 2 + readerId * length;
         }
 
         @Override
         public void execute(TaskEngine engineRef) throws IOException {
             int i = 0;
-            while (!closed && _continue) {
+            while (_continue) {
+                BufferReader reader = owner.get();
+                if (reader == null || reader.closed) {
+                    return;
+                }
                 if (preRead) {
                     // fetch oss data for half-0 at the first time, as there is no data in buffer.
-                    _continue = fetchData(half0StartPos);
+                    _continue = fetchData(reader, half0StartPos);
                     half0Completed = true;
                     half1Completed = false;
-                    ready0.addAndGet(1);
+                    reader.ready0.addAndGet(1);
                     preRead = false;
-                } else if ((halfFetched<= halfConsuming.get()) && (halfFetched%2 == 1) && !half1Completed) {
+                } else if ((halfFetched<= reader.halfConsuming.get()) && (halfFetched%2 == 1) && !half1Completed) {
                     // fetch oss data for half-1
-                    _continue = fetchData(half1StartPos);
+                    _continue = fetchData(reader, half1StartPos);
                     half1Completed = true;
                     half0Completed = false;
-                    ready1.addAndGet(1);
+                    reader.ready1.addAndGet(1);
                     halfFetched++;
-                } else if (halfFetched<= halfConsuming.get() && (halfFetched%2 == 0) && !half0Completed) {
+                } else if (halfFetched<= reader.halfConsuming.get() && (halfFetched%2 == 0) && !half0Completed) {
                     // fetch oss data for half-0
-                    _continue = fetchData(half0StartPos);
+                    _continue = fetchData(reader, half0StartPos);
                     half0Completed = true;
                     half1Completed = false;
-                    ready0.addAndGet(1);
+                    reader.ready0.addAndGet(1);
                     halfFetched++;
                 } else {
                     i++;
-                    // waiting for `halfReading` block data to be consumed
+                    // waiting for `halfReading` block data to be consumed, without holding the
+                    // reader in case it is dropped without being closed
+                    reader = null;
                     try {
                         Thread.sleep(100);
                     } catch (InterruptedException e) {
@@ -455,100 +1007,253 @@ public class BufferReader {
             }
         }
 
-        private boolean fetchData(int startPos) throws IOException {
-            boolean _continue = true;
-            if (startPos == half0StartPos) {
-                splitContentSize[readerId] = 0;
-            } else {
-                splitContentSize[concurrentStreams + readerId] = 0;
-            }
-            long newPos;
-            int fetchLength;
-            if (preRead && bufferSize / 2 >= lengthToFetch) {
-                _continue = false;
-                fetchLength = (int) lengthToFetch / concurrentStreams;
-                newPos = instreamStart + fetchLength * readerId;
-                if (readerId == (concurrentStreams-1)) {
-                    fetchLength = (int) lengthToFetch - fetchLength * (concurrentStreams - 1);
+        private boolean fetchData(BufferReader reader, int startPos) throws IOException {
+            int splitId = startPos == half0StartPos ? readerId : reader.concurrentStreams + readerId;
+            reader.splitContentSize[splitId] = 0;
+            // the range of a half is cut into `concurrentStreams` splits of `length`, the last
+            // half of the range may leave the tail splits short or empty.
+            long halfOffset = preRead ? 0 : (long) halfFetched * reader.bufferSize / 2;
+            boolean _continue = halfOffset + reader.bufferSize / 2 < reader.lengthToFetch;
+            long splitOffset = halfOffset + (long) readerId * length;
+            int fetchLength = (int) Math.max(0, Math.min(length, reader.lengthToFetch - splitOffset));
+            int hasRead = 0;
+            if (fetchLength > 0) {
+                ByteBuffer dest = reader.buffer.duplicate();
+                dest.position(startPos);
+                hasRead = reader.fetchRange(reader.instreamStart + splitOffset, fetchLength, dest,
+                        "[ConcurrentReader-" + readerId + "]");
+            }
+            reader.splitContentSize[splitId] = hasRead;
+
+            return _continue;
+        }
+    }
+
+    /**
+     * Prefetch reader of algorithm version 3. It only holds its BufferReader weakly while it
+     * waits for a free slot, checking every second whether the BufferReader is still there: a
+     * stream never closed then gives back its ring, see {@link BufferPool}, and its threads.
+     */
+    private static class SlotReader extends Task {
+        private final WeakReference<BufferReader> owner;
+        private final ReentrantLock slotLock;
+        private final Condition slotFreed;
+        private int readerId;
+
+        public SlotReader(BufferReader owner, int readerId) {
+            this.owner = new WeakReference<BufferReader>(owner);
+            this.slotLock = owner.slotLock;
+            this.slotFreed = owner.slotFreed;
+            this.readerId = readerId;
+        }
+
+        @Override
+        public void execute(TaskEngine engineRef) throws IOException {
+            while (true) {
+                BufferReader reader = owner.get();
+                if (reader == null) {
+                    return;
                 }
-            } else if (preRead) {
-                fetchLength = bufferSize / (2*concurrentStreams);
-                newPos = instreamStart + fetchLength * readerId;
-            } else if ((long)(halfFetched+1) * bufferSize / 2 >= lengthToFetch) {
-                _continue = false;
-                fetchLength = (int) (lengthToFetch - (long) halfFetched * bufferSize / 2) / concurrentStreams;
-                newPos = instreamStart + (long) halfFetched * bufferSize / 2 + readerId * fetchLength;
-                if (readerId == (concurrentStreams-1)) {
-                    fetchLength = (int) (lengthToFetch - (long) halfFetched * bufferSize / 2 - (fetchLength * (concurrentStreams - 1)));
+                long chunk;
+                slotLock.lock();
+                try {
+                    if (reader.closed || reader.nextChunkToFetch >= reader.chunkCount) {
+                        return;
+                    }
+                    if (reader.nextChunkToFetch >= reader.chunkConsuming + reader.slotCount) {
+                        reader = null;
+                        slotFreed.await(1, TimeUnit.SECONDS);
+                        continue;
+                    }
+                    chunk = reader.nextChunkToFetch++;
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    slotLock.unlock();
+                }
+
+                int slot = (int) (chunk % reader.slotCount);
+                long offset = chunk * reader.slotSize;
+                int fetchLength = (int) Math.min(reader.slotSize, reader.lengthToFetch - offset);
+                int hasRead = 0;
+                IOException error = null;
+                try {
+                    // the position of the slot is the one of the consumer
+                    ByteBuffer dest = reader.slots[slot].duplicate();
+                    dest.clear();
+                    hasRead = reader.fetchRange(reader.instreamStart + offset, fetchLength, dest,
+                            "[SlotReader-" + readerId + "]");
+                } catch (IOException e) {
+                    error = e;
+                }
+
+                slotLock.lock();
+                try {
+                    if (error != null) {
+                        reader.fetchError = error;
+                    } else {
+                        reader.slotLength[slot] = hasRead;
+                        reader.slotChunk[slot] = chunk;
+                    }
+                    reader.slotFilled.signalAll();
+                } finally {
+                    slotLock.unlock();
+                }
+                if (error != null) {
+                    throw error;
                 }
-            } else {
-                fetchLength = bufferSize / (2*concurrentStreams);
-                newPos = instreamStart + (long) halfFetched * bufferSize / 2 + readerId * fetchLength;
             }
-            InputStream in;
+        }
+    }
+
+    private class RangeReader extends Task {
+        private long start;
+        private int length;
+        private byte[] dest;
+        private int destOff;
+
+        public RangeReader(long start, int length, byte[] dest, int destOff) {
+            this.start = start;
+            this.length = length;
+            this.dest = dest;
+            this.destOff = destOff;
+        }
+
+        @Override
+        public void execute(TaskEngine engineRef) {
             try {
-                in = store.retrieve(key, newPos, fetchLength);
-            } catch (Exception e) {
-                LOG.warn(e.getMessage(), e);
-                throw new IOException("[ConcurrentReader-"+readerId+"] Cannot open oss input stream");
+                response = fetchRange(start, length, dest, destOff, "[RangeReader-" + uuid + "]");
+            } catch (IOException e) {
+                response = e;
+            }
+        }
+    }
+
+    private int fetchRange(long start, int length, byte[] dest, int destOff, String readerName)
+            throws IOException {
+        return fetchRange(start, length, ByteBuffer.wrap(dest, destOff, length), readerName);
+    }
+
+    /**
+     * Fetch `length` bytes of the object from `start` into `dest` at its position, from the
+     * block cache if any.
+     *
+     * @return the number of bytes actually read, less than `length` only at the end of object.
+     */
+    private int fetchRange(long start, int length, ByteBuffer dest, String readerName)
+            throws IOException {
+        if (blockCache == null || eTag == null) {
+            return fetchRemote(start, length, dest, readerName);
+        }
+        int blockSize = blockCache.getBlockSize();
+        int hasRead = 0;
+        while (hasRead < length) {
+            long position = start + hasRead;
+            long block = position / blockSize;
+            ByteBuffer data = blockCache.getBlock(key, eTag, block);
+            if (data == null) {
+                // a miss fetches and caches the whole block
+                long blockStart = block * blockSize;
+                int blockLength = (int) Math.min(blockSize, fileContentLength - blockStart);
+                if (blockLength <= 0) {
+                    break;
+                }
+                byte[] blockData = new byte[blockLength];
+                int fetched = fetchRemote(blockStart, blockLength, ByteBuffer.wrap(blockData), readerName);
+                if (fetched == blockLength) {
+                    blockCache.putBlock(key, eTag, block, blockData, blockLength);
+                }
+                data = ByteBuffer.wrap(blockData, 0, fetched);
             }
+            int offset = (int) (position - block * blockSize);
+            if (offset >= data.limit()) {
+                break;
+            }
+            int size = Math.min(length - hasRead, data.limit() - offset);
+            data.limit(offset + size);
+            data.position(offset);
+            dest.put(data);
+            hasRead += size;
+        }
+        return hasRead;
+    }
 
-            int off = startPos;
-            int tries = 10;
-            int result;
-            boolean retry = true;
-            int hasRead = 0;
-            do {
-                try {
-                    result = in.read(buffer, off, fetchLength-hasRead);
+    /**
+     * Fetch `length` bytes of the object from `start` into `dest` at its position, reopening
+     * the oss stream on transient failures. Direct buffers are filled through a small array.
+     *
+     * @return the number of bytes actually read, less than `length` only at the end of object.
+     */
+    private int fetchRemote(long start, int length, ByteBuffer dest, String readerName)
+            throws IOException {
+        InputStream in = openRange(start, length, readerName);
+
+        int destPos = dest.position();
+        byte[] transfer = dest.hasArray() ? null : new byte[Math.min(length, TRANSFER_SIZE)];
+        int tries = 10;
+        int result;
+        boolean retry = true;
+        int hasRead = 0;
+        do {
+            try {
+                if (transfer == null) {
+                    result = in.read(dest.array(), dest.arrayOffset() + destPos + hasRead, length - hasRead);
+                } else {
+                    result = in.read(transfer, 0, Math.min(transfer.length, length - hasRead));
                     if (result > 0) {
-                        off += result;
-                        hasRead += result;
-                    } else if (result == -1) {
-                        break;
-                    }
-                    retry = hasRead < fetchLength;
-                } catch (EOFException e0) {
-                    LOG.warn(e0.getMessage(), e0);
-                    throw e0;
-                } catch (Exception e1) {
-                    tries--;
-                    if (tries == 0) {
-                        throw new IOException(e1);
+                        dest.put(transfer, 0, result);
                     }
+                }
+                if (result > 0) {
+                    hasRead += result;
+                } else if (result == -1) {
+                    break;
+                }
+                retry = hasRead < length;
+            } catch (EOFException e0) {
+                LOG.warn(e0.getMessage(), e0);
+                throw e0;
+            } catch (Exception e1) {
+                tries--;
+                if (tries == 0) {
+                    throw new IOException(e1);
+                }
 
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e2) {
+                    LOG.warn(e2.getMessage());
+                }
+                if (in != null) {
                     try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException e2) {
-                        LOG.warn(e2.getMessage());
-                    }
-                    if (in != null) {
-                        try {
-                            in.close();
-                        } catch (Exception e) {
-                            // do nothing
-                        } finally {
-                            in = null;
-                        }
-                    }
-                    try {
-                        in = store.retrieve(key, newPos, fetchLength);
+                        in.close();
                     } catch (Exception e) {
-                        LOG.warn(e.getMessage(), e);
-                        throw new IOException("[ConcurrentReader-"+readerId+"] Cannot open oss input stream", e);
+                        // do nothing
+                    } finally {
+                        in = null;
                     }
-                    off = startPos;
-                    hasRead = 0;
                 }
-            } while (tries>0 && retry);
-            in.close();
-            if (startPos == half0StartPos) {
-                splitContentSize[readerId] = hasRead;
-            } else {
-                splitContentSize[concurrentStreams + readerId] = hasRead;
+                in = openRange(start, length, readerName);
+                dest.position(destPos);
+                hasRead = 0;
             }
+        } while (tries>0 && retry);
+        in.close();
+        dest.position(destPos + hasRead);
 
-            return _continue;
+        return hasRead;
+    }
+
+    private InputStream openRange(long start, int length, String readerName) throws IOException {
+        try {
+            return store.retrieve(key, start, length, eTag);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (EOFException e) {
+            throw e;
+        } catch (Exception e) {
+            LOG.warn(e.getMessage(), e);
+            throw new IOException(readerName + " Cannot open oss input stream", e);
         }
     }
 
@@ -21,6 +21,8 @@ package com.aliyun.fs.oss.nat;
 import com.aliyun.fs.oss.common.FileMetadata;
 import com.aliyun.fs.oss.common.NativeFileSystemStore;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -28,14 +30,18 @@ import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import com.aliyun.fs.oss.common.OssException;
+import com.aliyun.fs.oss.common.OssFileSystemException;
 import com.aliyun.fs.oss.common.PartialListing;
+import com.aliyun.fs.oss.common.UploadBuffer;
 import com.aliyun.fs.oss.utils.*;
 import com.aliyun.fs.oss.utils.task.OSSCopyTask;
 import com.aliyun.fs.oss.utils.task.OSSPutTask;
+import com.aliyun.oss.OSSErrorCode;
 import com.aliyun.oss.ServiceException;
 import com.aliyun.oss.model.*;
 import org.apache.commons.lang.StringUtils;
@@ -57,6 +63,8 @@ public class JetOssNativeFileSystemStore implements NativeFileSystemStore{
     private int numPutThreads;
     private int maxSplitSize;
     private int numSplits;
+    private int numPartRetries;
+    private long partRetrySleepMs;
 
     private String endpoint = null;
     private String accessKeyId = null;
@@ -113,6 +121,8 @@ public class JetOssNativeFileSystemStore implements NativeFileSystemStore{
         this.numSplits = conf.getInt("fs.oss.multipart.split.number", 10);
         this.maxSimpleCopySize = conf.getLong("fs.oss.copy.simple.max.byte", 64 * 1024 * 1024L);
         this.maxSimplePutSize = conf.getLong("fs.oss.put.simple.max.byte", 5 * 1024 * 1024);
+        this.numPartRetries = conf.getInt("fs.oss.multipart.part.maxRetries", 4);
+        this.partRetrySleepMs = conf.getLong("fs.oss.multipart.part.retry.sleep.ms", 500L);
     }
 
     public void storeFile(String key, File file, boolean append) throws IOException {
@@ -133,6 +143,25 @@ public class JetOssNativeFileSystemStore implements NativeFileSystemStore{
         }
     }
 
+    public void storeFile(String key, UploadBuffer buffer, boolean append) throws IOException {
+        if (buffer.getFile() != null) {
+            storeFile(key, buffer.getFile(), append);
+            return;
+        }
+        InputStream in = buffer.openStream();
+        try {
+            if (!append) {
+                ossClient.putObject(bucket, key, in, buffer.size());
+            } else {
+                throw new IOException("'append' op not supported.");
+            }
+        } catch (Exception e) {
+            handleException(e);
+        } finally {
+            in.close();
+        }
+    }
+
     @Override
     public void storeFiles(String key, List<File> files, boolean append) throws IOException {
         try {
@@ -173,46 +202,92 @@ public class JetOssNativeFileSystemStore implements NativeFileSystemStore{
         }
     }
 
-    public FileMetadata retrieveMetadata(String key) throws IOException {
+    public String initiateMultipartUpload(String key) throws IOException {
         try {
-            if (!doesObjectExist(key)) {
-                return null;
-            }
-            ObjectMetadata objectMetadata = ossClient.getObjectMetadata(bucket, key);
-            return new FileMetadata(key, objectMetadata.getContentLength(),
-                    objectMetadata.getLastModified().getTime());
+            return ossClient.initiateMultipartUpload(bucket, key, conf).getUploadId();
         } catch (Exception e) {
-            // Following is brittle. Is there a better way?
-            if (e.getMessage().contains("ResponseCode=404")) {
-                return null;
-            }
+            handleException(key, e);
             return null; //never returned - keep compiler happy
         }
     }
 
-    public InputStream retrieve(String key) throws IOException {
+    public String uploadPart(String key, String uploadId, int partNumber, UploadBuffer buffer) throws IOException {
+        InputStream in = buffer.openStream();
         try {
-            if (!doesObjectExist(key)) {
-                return null;
+            UploadPartResult uploadPartResult = ossClient.uploadPart(uploadId, bucket, key, buffer.size(),
+                    partNumber, in, conf);
+            return uploadPartResult.getPartETag().getETag();
+        } catch (Exception e) {
+            handleException(key, e);
+            return null; //never returned - keep compiler happy
+        } finally {
+            in.close();
+        }
+    }
+
+    public void completeMultipartUpload(String key, String uploadId, List<String> partETags) throws IOException {
+        try {
+            List<PartETag> tags = new ArrayList<PartETag>(partETags.size());
+            for (int i = 0; i < partETags.size(); i++) {
+                tags.add(new PartETag(i + 1, partETags.get(i)));
             }
+            ossClient.completeMultipartUpload(bucket, key, uploadId, tags, conf);
+        } catch (Exception e) {
+            handleException(key, e);
+        }
+    }
+
+    public void abortMultipartUpload(String key, String uploadId) throws IOException {
+        try {
+            ossClient.abortMultipartUpload(bucket, key, uploadId, conf);
+        } catch (Exception e) {
+            handleException(key, e);
+        }
+    }
+
+    public Map<String, String> listMultipartUploads(String prefix) throws IOException {
+        Map<String, String> uploads = new LinkedHashMap<String, String>();
+        try {
+            String keyMarker = null;
+            String uploadIdMarker = null;
+            MultipartUploadListing listing;
+            do {
+                listing = ossClient.listMultipartUploads(bucket, prefix, keyMarker, uploadIdMarker, conf);
+                for (MultipartUpload upload : listing.getMultipartUploads()) {
+                    uploads.put(upload.getUploadId(), upload.getKey());
+                }
+                keyMarker = listing.getNextKeyMarker();
+                uploadIdMarker = listing.getNextUploadIdMarker();
+            } while (listing.isTruncated());
+        } catch (Exception e) {
+            handleException(prefix, e);
+        }
+        return uploads;
+    }
+
+    public FileMetadata retrieveMetadata(String key) throws IOException {
+        try {
             ObjectMetadata objectMetadata = ossClient.getObjectMetadata(bucket, key);
-            OSSObject object = ossClient.getObject(bucket, key, 0, objectMetadata.getContentLength(), conf);
-            return object.getObjectContent();
+            return new FileMetadata(key, objectMetadata.getContentLength(),
+                    objectMetadata.getLastModified().getTime(), objectMetadata.getETag());
         } catch (Exception e) {
+            if (isErrorCode(e, OSSErrorCode.NO_SUCH_KEY)) {
+                return null;
+            }
             handleException(key, e);
             return null; //never returned - keep compiler happy
         }
     }
 
+    public InputStream retrieve(String key) throws IOException {
+        return retrieve(key, 0);
+    }
+
     public InputStream retrieve(String key, long byteRangeStart)
             throws IOException {
         try {
-            if (!doesObjectExist(key)) {
-                return null;
-            }
-            ObjectMetadata objectMetadata = ossClient.getObjectMetadata(bucket, key);
-            long fileSize = objectMetadata.getContentLength();
-            OSSObject object = ossClient.getObject(bucket, key, byteRangeStart, fileSize-1, conf);
+            // open-ended range, up to the end of the object
+            OSSObject object = ossClient.getObject(bucket, key, byteRangeStart, -1, null, conf);
             return object.getObjectContent();
         } catch (Exception e) {
             handleException(key, e);
@@ -221,20 +296,16 @@ public class JetOssNativeFileSystemStore implements NativeFileSystemStore{
     }
 
     public InputStream retrieve(String key, long byteRangeStart, long length) throws IOException {
-        try {
-            if (!doesObjectExist(key)) {
-                return null;
-            }
-            ObjectMetadata objectMetadata = ossClient.getObjectMetadata(bucket, key);
-            long fileSize = objectMetadata.getContentLength();
-            long end;
-            if (fileSize - 1 >= byteRangeStart + length) {
-                end = byteRangeStart + length;
-            } else {
-                end = fileSize - 1;
-            }
+        return retrieve(key, byteRangeStart, length, null);
+    }
 
-            OSSObject object = ossClient.getObject(bucket, key, byteRangeStart, end, conf);
+    public InputStream retrieve(String key, long byteRangeStart, long length, String eTag) throws IOException {
+        if (length <= 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        try {
+            OSSObject object = ossClient.getObject(bucket, key, byteRangeStart, byteRangeStart + length - 1,
+                    eTag, conf);
             return object.getObjectContent();
         } catch (Exception e) {
             handleException(key, e);
@@ -276,7 +347,7 @@ public class JetOssNativeFileSystemStore implements NativeFileSystemStore{
             while(iter.hasNext()) {
                 OSSObjectSummary obj = iter.next();
                 fileMetadata[idx] = new FileMetadata(obj.getKey(),
-                        obj.getSize(), obj.getLastModified().getTime());
+                        obj.getSize(), obj.getLastModified().getTime(), obj.getETag());
                 idx += 1;
             }
             return new PartialListing(listing.getNextMarker(), fileMetadata, listing.getCommonPrefixes().toArray(new String[0]));
@@ -294,13 +365,27 @@ public class JetOssNativeFileSystemStore implements NativeFileSystemStore{
         }
     }
 
-    public void copy(String srcKey, String dstKey) throws IOException {
+    public void delete(List<String> keys) throws IOException {
         try {
-            if (!doesObjectExist(srcKey)) {
-                return;
+            for (int i = 0; i < keys.size(); i += MAX_DELETE_BATCH_SIZE) {
+                ossClient.deleteObjects(bucket, keys.subList(i, Math.min(i + MAX_DELETE_BATCH_SIZE, keys.size())));
             }
-            ObjectMetadata objectMetadata = ossClient.getObjectMetadata(bucket, srcKey);
-            Long contentLength = objectMetadata.getContentLength();
+        } catch (Exception e) {
+            handleException(e);
+        }
+    }
+
+    public void copy(String srcKey, String dstKey) throws IOException {
+        FileMetadata metadata = retrieveMetadata(srcKey);
+        if (metadata != null) {
+            copy(metadata, dstKey);
+        }
+    }
+
+    public void copy(FileMetadata srcMetadata, String dstKey) throws IOException {
+        String srcKey = srcMetadata.getKey();
+        try {
+            long contentLength = srcMetadata.getLength();
             if (contentLength <= Math.min(maxSimpleCopySize, 512 * 1024 * 1024L)) {
                 ossClient.copyObject(bucket, srcKey, bucket, dstKey);
             } else {
@@ -314,14 +399,21 @@ public class JetOssNativeFileSystemStore implements NativeFileSystemStore{
     }
 
     public void purge(String prefix) throws IOException {
-        try {
-            List<OSSObjectSummary> objects = ossClient.listObjects(bucket, prefix).getObjectSummaries();
-            for(OSSObjectSummary ossObjectSummary: objects) {
-                ossClient.deleteObject(bucket, ossObjectSummary.getKey());
+        String priorLastKey = null;
+        do {
+            ObjectListing listing = null;
+            try {
+                listing = ossClient.listObjects(bucket, prefix, null, MAX_DELETE_BATCH_SIZE, priorLastKey, conf);
+            } catch (Exception e) {
+                handleException(e);
             }
-        } catch (Exception e) {
-            handleException(e);
-        }
+            List<String> keys = new ArrayList<String>();
+            for (OSSObjectSummary ossObjectSummary : listing.getObjectSummaries()) {
+                keys.add(ossObjectSummary.getKey());
+            }
+            delete(keys);
+            priorLastKey = listing.getNextMarker();
+        } while (priorLastKey != null);
     }
 
     public void dump() throws IOException {
@@ -339,30 +431,33 @@ public class JetOssNativeFileSystemStore implements NativeFileSystemStore{
     }
 
     private void handleException(String key, Exception e) throws IOException, OssException {
-        if (e instanceof ServiceException && "NoSuchKey".equals(((ServiceException) e).getErrorCode())) {
+        if (isErrorCode(e, OSSErrorCode.NO_SUCH_KEY)) {
             throw new FileNotFoundException("Key '" + key + "' does not exist in OSS");
+        } else if (isErrorCode(e, "InvalidRange")) {
+            throw new EOFException("Requested range is beyond the end of '" + key + "'");
+        } else if (isErrorCode(e, OSSErrorCode.PRECONDITION_FAILED)) {
+            // not retried, see NativeOssFileSystem#createDefaultStore
+            throw new OssFileSystemException("Key '" + key + "' has been modified since it was opened", e);
         } else {
             handleException(e);
         }
         LOG.error(e);
     }
 
+    private static boolean isErrorCode(Exception e, String errorCode) {
+        return e instanceof ServiceException && errorCode.equals(((ServiceException) e).getErrorCode());
+    }
+
     private void handleException(Exception e) throws IOException, OssException {
-        if (e.getCause() instanceof IOException) {
+        if (e instanceof OssFileSystemException) {
+            throw (OssFileSystemException) e;
+        } else if (e.getCause() instanceof IOException) {
             throw (IOException) e.getCause();
         } else {
             throw new OssException(e);
         }
     }
 
-    private boolean doesObjectExist(String key) {
-        try {
-            return ossClient.doesObjectExist(bucket, key);
-        } catch (Exception e) {
-            return false;
-        }
-    }
-
     private void doMultipartCopy(String srcKey, String dstKey, Long contentLength) throws IOException {
         InitiateMultipartUploadResult initiateMultipartUploadResult =
                 ossClient.initiateMultipartUpload(bucket, dstKey, conf);
@@ -384,34 +479,70 @@ public class JetOssNativeFileSystemStore implements NativeFileSystemStore{
             ossCopyTask.setUuid(i+"");
             tasks.add(ossCopyTask);
         }
-        TaskEngine taskEngine = new TaskEngine(tasks, numCopyThreads, numCopyThreads);
+        TaskEngine taskEngine = new TaskEngine(tasks, numCopyThreads, conf);
+        taskEngine.setRetryPolicy(numPartRetries, partRetrySleepMs);
         try {
             taskEngine.executeTask();
-            Map<String, Object> responseMap = taskEngine.getResultMap();
-            for (int i = 0; i < partCount; i++) {
+            for (Object response : taskEngine.awaitResponses()) {
                 UploadPartCopyResult uploadPartCopyResult = (UploadPartCopyResult)
-                        ((Result) responseMap.get(i+"")).getModels().get("uploadPartCopyResult");
+                        ((Result) response).getModels().get("uploadPartCopyResult");
                 partETags.add(uploadPartCopyResult.getPartETag());
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            ossClient.completeMultipartUpload(bucket, dstKey, uploadId, partETags, conf);
+        } catch (IOException e) {
+            throw abortMultipartUpload(dstKey, uploadId, e);
+        } catch (RuntimeException e) {
+            throw abortMultipartUpload(dstKey, uploadId, e);
         } finally {
             taskEngine.shutdown();
         }
+    }
 
-        ossClient.completeMultipartUpload(bucket, dstKey, uploadId, partETags, conf);
+    /**
+     * Aborts a multipart upload whose parts failed even after their retries.
+     * @return the exception to throw, which is not retried again as a whole.
+     */
+    private IOException abortMultipartUpload(String key, String uploadId, Exception e) {
+        try {
+            ossClient.abortMultipartUpload(bucket, key, uploadId, conf);
+        } catch (Exception ae) {
+            LOG.warn("Could not abort multipart upload " + uploadId + " of key '" + key + "'", ae);
+        }
+        return new OssFileSystemException("Multipart upload of key '" + key + "' failed", e);
     }
 
     private void doMultipartPut(File file, String key) throws IOException {
         InitiateMultipartUploadResult initiateMultipartUploadResult =
                 ossClient.initiateMultipartUpload(bucket, key, conf);
         String uploadId = initiateMultipartUploadResult.getUploadId();
+        List<PartETag> partETags = putParts(file, key, uploadId);
+        try {
+            ossClient.completeMultipartUpload(bucket, key, uploadId, partETags, conf);
+        } catch (IOException e) {
+            throw abortMultipartUpload(key, uploadId, e);
+        } catch (RuntimeException e) {
+            throw abortMultipartUpload(key, uploadId, e);
+        }
+    }
+
+    public List<String> uploadParts(String key, String uploadId, File file) throws IOException {
+        List<String> eTags = new ArrayList<String>();
+        for (PartETag partETag : putParts(file, key, uploadId)) {
+            eTags.add(partETag.getETag());
+        }
+        return eTags;
+    }
 
+    /**
+     * Uploads all the parts of `file`, at least one even for an empty file, and aborts the upload
+     * if one of them fails.
+     */
+    private List<PartETag> putParts(File file, String key, String uploadId) throws IOException {
         Long contentLength = file.length();
-        Long minSplitSize = contentLength / numSplitsUpperLimit + 1;
+        Long minSplitSize = Math.max(contentLength / numSplitsUpperLimit + 1, NativeOssFileSystem.MIN_PART_SIZE);
         Long partSize = Math.max(Math.min(maxSplitSize, contentLength / numSplits), minSplitSize);
         int partCount = (int) (contentLength / partSize);
-        if (contentLength % partSize != 0) {
+        if (contentLength % partSize != 0 || partCount == 0) {
             partCount++;
         }
         LOG.info("multipart uploading, partCount" + partCount + ", partSize " + partSize);
@@ -426,21 +557,23 @@ public class JetOssNativeFileSystemStore implements NativeFileSystemStore{
         }
 
         List<PartETag> partETags = new ArrayList<PartETag>();
-        TaskEngine taskEngine = new TaskEngine(tasks, numPutThreads, numPutThreads);
+        TaskEngine taskEngine = new TaskEngine(tasks, numPutThreads, conf);
+        taskEngine.setRetryPolicy(numPartRetries, partRetrySleepMs);
         try {
             taskEngine.executeTask();
-            Map<String, Object> responseMap = taskEngine.getResultMap();
-            for (int i = 0; i < partCount; i++) {
+            for (Object response : taskEngine.awaitResponses()) {
                 UploadPartResult uploadPartResult = (UploadPartResult)
-                        ((Result) responseMap.get(i+"")).getModels().get("uploadPartResult");
+                        ((Result) response).getModels().get("uploadPartResult");
                 partETags.add(uploadPartResult.getPartETag());
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            return partETags;
+        } catch (IOException e) {
+            throw abortMultipartUpload(key, uploadId, e);
+        } catch (RuntimeException e) {
+            throw abortMultipartUpload(key, uploadId, e);
         } finally {
             taskEngine.shutdown();
         }
-        ossClient.completeMultipartUpload(bucket, key, uploadId, partETags, conf);
     }
 
     private void doMultipartPut(List<File> files, String key) throws IOException {
@@ -490,22 +623,23 @@ public class JetOssNativeFileSystemStore implements NativeFileSystemStore{
             } while(_continue);
         }
 
-        int realPartCount = tasks.size();
         List<PartETag> partETags = new ArrayList<PartETag>();
-        TaskEngine taskEngine = new TaskEngine(tasks, numPutThreads, numPutThreads);
+        TaskEngine taskEngine = new TaskEngine(tasks, numPutThreads, conf);
+        taskEngine.setRetryPolicy(numPartRetries, partRetrySleepMs);
         try {
             taskEngine.executeTask();
-            Map<String, Object> responseMap = taskEngine.getResultMap();
-            for (int i = 0; i < realPartCount; i++) {
+            for (Object response : taskEngine.awaitResponses()) {
                 UploadPartResult uploadPartResult = (UploadPartResult)
-                        ((Result) responseMap.get(i+"")).getModels().get("uploadPartResult");
+                        ((Result) response).getModels().get("uploadPartResult");
                 partETags.add(uploadPartResult.getPartETag());
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            ossClient.completeMultipartUpload(bucket, key, uploadId, partETags, conf);
+        } catch (IOException e) {
+            throw abortMultipartUpload(key, uploadId, e);
+        } catch (RuntimeException e) {
+            throw abortMultipartUpload(key, uploadId, e);
         } finally {
             taskEngine.shutdown();
         }
-        ossClient.completeMultipartUpload(bucket, key, uploadId, partETags, conf);
     }
 }
@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.nat;
+
+import com.aliyun.fs.oss.common.FileMetadata;
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of what is known about keys of one file system: a file with its metadata, a
+ * directory, or nothing at all (negative entry). Entries expire after
+ * `fs.oss.metadata.cache.ttl.ms` (default 15s), negative ones after
+ * `fs.oss.metadata.cache.negative.ttl.ms` (default 0, not cached), and at most
+ * `fs.oss.metadata.cache.size` keys are kept. The cache is opt-in: the size defaults to 0,
+ * which disables it.
+ *
+ * The cache assumes its file system is the only writer of the keys it reads: its own writes
+ * invalidate the keys they touch and their ancestors, but the changes made by other clients,
+ * e.g. the tasks of a job seen from its driver, are only visible once the entries expire. A
+ * negative entry hides a key created by another client for as long, hence its separate TTL.
+ */
+public class MetadataCache {
+    public static final String CACHE_SIZE = "fs.oss.metadata.cache.size";
+    public static final String CACHE_TTL = "fs.oss.metadata.cache.ttl.ms";
+    public static final String CACHE_NEGATIVE_TTL = "fs.oss.metadata.cache.negative.ttl.ms";
+
+    public static class Entry {
+        private final FileMetadata file;
+        private final boolean directory;
+        private final long expiry;
+
+        Entry(FileMetadata file, boolean directory, long expiry) {
+            this.file = file;
+            this.directory = directory;
+            this.expiry = expiry;
+        }
+
+        /**
+         * @return the metadata if the key is a file, null otherwise.
+         */
+        public FileMetadata getFile() {
+            return file;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        public boolean isAbsent() {
+            return file == null && !directory;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttl;
+    private final long negativeTtl;
+    private final LinkedHashMap<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public MetadataCache(Configuration conf) {
+        this(conf.getInt(CACHE_SIZE, 0), conf.getLong(CACHE_TTL, 15000L),
+                conf.getLong(CACHE_NEGATIVE_TTL, 0L));
+    }
+
+    public MetadataCache(final int maxSize, long ttl, long negativeTtl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0 && ttl > 0;
+    }
+
+    /**
+     * @return the live entry of `key`, or null on a miss.
+     */
+    public synchronized Entry get(String key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiry < System.currentTimeMillis()) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    public void putFile(FileMetadata file) {
+        put(file.getKey(), new Entry(file, false, System.currentTimeMillis() + ttl));
+    }
+
+    public void putDirectory(String key) {
+        put(key, new Entry(null, true, System.currentTimeMillis() + ttl));
+    }
+
+    public void putAbsent(String key) {
+        if (negativeTtl > 0) {
+            put(key, new Entry(null, false, System.currentTimeMillis() + negativeTtl));
+        }
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        if (isEnabled()) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Forget `key` and its ancestors, whose existence may depend on it.
+     */
+    public synchronized void invalidate(String key) {
+        String parent = key;
+        while (parent.length() > 0) {
+            entries.remove(parent);
+            int idx = parent.lastIndexOf('/');
+            parent = idx < 0 ? "" : parent.substring(0, idx);
+        }
+    }
+
+    /**
+     * Forget `key`, its ancestors and everything under it.
+     */
+    public synchronized void invalidateTree(String key) {
+        invalidate(key);
+        String prefix = key + "/";
+        Iterator<String> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.nat;
+
+import com.aliyun.fs.oss.utils.TransferScheduler;
+import com.aliyun.fs.oss.utils.Utils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobStatus;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Output committer writing straight to the final keys of an OSS output directory, without the
+ * renames of {@link FileOutputCommitter}, which copy every byte once more on OSS.
+ *
+ * The tasks write to a local directory. On task commit, every file is uploaded as the parts of
+ * a multipart upload to its final key, which is not completed, and the pending uploads are
+ * saved in a manifest under `_pending_uploads/{job id}` of the output directory. On job commit,
+ * the uploads of all the manifests are completed in parallel, by `fs.oss.committer.thread.number`
+ * threads (default 16), which costs one small request per file. Aborting the job aborts them.
+ */
+public class MultipartOutputCommitter extends FileOutputCommitter {
+    public static final Log LOG = LogFactory.getLog(MultipartOutputCommitter.class);
+
+    public static final String PENDING_UPLOADS_DIR = "_pending_uploads";
+    public static final String COMMIT_THREADS = "fs.oss.committer.thread.number";
+
+    private final Path outputPath;
+    private final NativeOssFileSystem fs;
+    private final File workDir;
+
+    public MultipartOutputCommitter(Path outputPath, TaskAttemptContext context) throws IOException {
+        super(outputPath, context);
+        this.outputPath = outputPath;
+        this.fs = getFileSystem(outputPath, context.getConfiguration());
+        this.workDir = new File(Utils.getTempBufferDir(context.getConfiguration()),
+                "committer/" + context.getTaskAttemptID());
+    }
+
+    public MultipartOutputCommitter(Path outputPath, JobContext context) throws IOException {
+        super(outputPath, context);
+        this.outputPath = outputPath;
+        this.fs = getFileSystem(outputPath, context.getConfiguration());
+        this.workDir = null;
+    }
+
+    private static NativeOssFileSystem getFileSystem(Path outputPath, Configuration conf) throws IOException {
+        FileSystem fs = outputPath.getFileSystem(conf);
+        if (!(fs instanceof NativeOssFileSystem)) {
+            throw new IOException("Only OSS output directories are supported, not " + outputPath);
+        }
+        return (NativeOssFileSystem) fs;
+    }
+
+    /**
+     * @return the local directory where the task writes its files.
+     */
+    @Override
+    public Path getWorkPath() {
+        return workDir == null ? null : new Path(workDir.toURI());
+    }
+
+    private Path getPendingUploadsPath(JobContext context) {
+        return new Path(new Path(outputPath, PENDING_UPLOADS_DIR), context.getJobID().toString());
+    }
+
+    @Override
+    public void setupJob(JobContext context) throws IOException {
+        fs.mkdirs(outputPath);
+    }
+
+    @Override
+    public void setupTask(TaskAttemptContext context) throws IOException {
+    }
+
+    @Override
+    public boolean needsTaskCommit(TaskAttemptContext context) throws IOException {
+        return workDir.exists();
+    }
+
+    @Override
+    public void commitTask(TaskAttemptContext context) throws IOException {
+        List<PendingUpload> uploads = new ArrayList<PendingUpload>();
+        try {
+            uploadFiles(workDir, outputPath, uploads);
+            Path manifest = new Path(getPendingUploadsPath(context), context.getTaskAttemptID().toString());
+            FSDataOutputStream out = fs.create(manifest, true);
+            try {
+                out.writeInt(uploads.size());
+                for (PendingUpload upload : uploads) {
+                    upload.write(out);
+                }
+            } finally {
+                out.close();
+            }
+            LOG.info("Task " + context.getTaskAttemptID() + " uploaded " + uploads.size() + " files to " +
+                    outputPath);
+        } catch (IOException e) {
+            abortUploads(uploads);
+            throw e;
+        } finally {
+            FileUtil.fullyDelete(workDir);
+        }
+    }
+
+    private void uploadFiles(File dir, Path dst, List<PendingUpload> uploads) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                uploadFiles(file, new Path(dst, file.getName()), uploads);
+            } else if (!file.getName().startsWith(".")) {
+                // the local file system leaves .crc files around
+                uploads.add(fs.uploadPending(file, new Path(dst, file.getName())));
+            }
+        }
+    }
+
+    @Override
+    public void abortTask(TaskAttemptContext context) throws IOException {
+        FileUtil.fullyDelete(workDir);
+    }
+
+    @Override
+    public void commitJob(JobContext context) throws IOException {
+        Configuration conf = context.getConfiguration();
+        List<PendingUpload> uploads = readPendingUploads(context);
+        Executor executor = TransferScheduler.get(conf).newLimitedExecutor(conf.getInt(COMMIT_THREADS, 16));
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(uploads.size());
+        for (final PendingUpload upload : uploads) {
+            FutureTask<Void> future = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    fs.completeUpload(upload);
+                    return null;
+                }
+            });
+            futures.add(future);
+            executor.execute(future);
+        }
+        try {
+            for (Future<Void> future : futures) {
+                BatchDeleter.getResult(future);
+            }
+        } catch (IOException e) {
+            abortIncomplete(uploads, futures);
+            throw e;
+        }
+        LOG.info("Completed " + uploads.size() + " uploads to " + outputPath);
+
+        cleanupJob(context);
+        if (conf.getBoolean(SUCCESSFUL_JOB_OUTPUT_DIR_MARKER, true)) {
+            fs.create(new Path(outputPath, SUCCEEDED_FILE_NAME), true).close();
+        }
+    }
+
+    /**
+     * Aborts the uploads which could not be completed, once the completions in flight are over.
+     */
+    private void abortIncomplete(List<PendingUpload> uploads, List<Future<Void>> futures) {
+        for (Future<Void> future : futures) {
+            future.cancel(false);
+        }
+        List<PendingUpload> incomplete = new ArrayList<PendingUpload>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                BatchDeleter.getResult(futures.get(i));
+            } catch (Exception e) {
+                incomplete.add(uploads.get(i));
+            }
+        }
+        abortUploads(incomplete);
+    }
+
+    /**
+     * Deletes the manifests of the job, and `_pending_uploads` too once no other job has any
+     * left, as {@link FileOutputCommitter} does with `_temporary`.
+     */
+    @Override
+    @Deprecated
+    public void cleanupJob(JobContext context) throws IOException {
+        fs.delete(getPendingUploadsPath(context), true);
+        Path pendingUploadsDir = new Path(outputPath, PENDING_UPLOADS_DIR);
+        try {
+            if (fs.listStatus(pendingUploadsDir).length == 0) {
+                fs.delete(pendingUploadsDir, true);
+            }
+        } catch (FileNotFoundException e) {
+            // already deleted
+        }
+    }
+
+    /**
+     * Aborts the uploads of the manifests, then all the other uploads pending under the output
+     * directory, e.g. the ones of the task attempts which died while committing. Like
+     * {@link FileOutputCommitter} deleting the whole `_temporary`, this also aborts the uploads of
+     * the other jobs writing to the same directory.
+     */
+    @Override
+    public void abortJob(JobContext context, JobStatus.State state) throws IOException {
+        abortUploads(readPendingUploads(context));
+        try {
+            int aborted = fs.abortUploads(outputPath);
+            if (aborted > 0) {
+                LOG.info("Aborted " + aborted + " uploads to " + outputPath + " not in any manifest");
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not list the uploads pending under " + outputPath, e);
+        }
+        cleanupJob(context);
+    }
+
+    private List<PendingUpload> readPendingUploads(JobContext context) throws IOException {
+        List<PendingUpload> uploads = new ArrayList<PendingUpload>();
+        FileStatus[] manifests;
+        try {
+            manifests = fs.listStatus(getPendingUploadsPath(context));
+        } catch (FileNotFoundException e) {
+            return uploads;
+        }
+        for (FileStatus manifest : manifests) {
+            FSDataInputStream in = fs.open(manifest.getPath());
+            try {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    PendingUpload upload = new PendingUpload();
+                    upload.readFields(in);
+                    uploads.add(upload);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return uploads;
+    }
+
+    private void abortUploads(List<PendingUpload> uploads) {
+        for (PendingUpload upload : uploads) {
+            try {
+                fs.abortUpload(upload);
+            } catch (IOException e) {
+                LOG.warn("Could not abort " + upload, e);
+            }
+        }
+    }
+
+    @Override
+    public boolean isRecoverySupported() {
+        return false;
+    }
+}
@@ -22,9 +22,14 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import com.aliyun.fs.oss.common.*;
+import com.aliyun.fs.oss.utils.TransferScheduler;
 import com.aliyun.fs.oss.utils.Utils;
 import com.google.common.base.Preconditions;
 import org.apache.commons.logging.Log;
@@ -46,15 +51,48 @@ public class NativeOssFileSystem extends FileSystem {
     public static final String PATH_DELIMITER = Path.SEPARATOR;
     public static final int OSS_MAX_LISTING_LENGTH = 1000;
     public static final String OSSREADER_ALGORITHM_VERSION = "mapreduce.ossreader.algorithm.version";
-    public static final int OSSREADER_ALGORITHM_VERSION_DEFAULT = 1;
+    public static final int OSSREADER_ALGORITHM_VERSION_DEFAULT = 3;
+    // OSS multipart upload limits
+    public static final long MIN_PART_SIZE = 100 * 1024L;
+    public static final int MAX_PART_NUMBER = 10000;
     private int algorithmVersion;
 
+    /**
+     * The stream returned by {@link #open(Path, int)}, which exposes the vectored read of the
+     * {@link NativeOssFsInputStream} under its buffer.
+     */
+    public static class OssDataInputStream extends FSDataInputStream {
+        private final NativeOssFsInputStream ossIn;
+
+        OssDataInputStream(NativeOssFsInputStream in, int bufferSize) throws IOException {
+            super(new BufferedFSInputStream(in, bufferSize));
+            this.ossIn = in;
+        }
+
+        /**
+         * Vectored read, see {@link NativeOssFsInputStream#readVectored(List)}. Like positioned
+         * reads, this neither moves nor uses the buffer of the stream.
+         */
+        public void readVectored(List<FileRange> ranges) throws IOException {
+            ossIn.readVectored(ranges);
+        }
+    }
+
     public class NativeOssFsInputStream extends FSInputStream {
 
         BufferReader bufferReader = null;
 
-        public NativeOssFsInputStream(String key) throws IOException {
-            this.bufferReader = new BufferReader(store, key, conf, algorithmVersion);
+        public NativeOssFsInputStream(FileMetadata metadata) throws IOException {
+            this.bufferReader = new BufferReader(store, metadata.getKey(), conf, algorithmVersion, bufferSize,
+                    metadata, blockCache);
+        }
+
+        /**
+         * A stream at `start` whose read-ahead stops at `end`, see {@link NativeOssFileSystem#open(Path, int, long, long)}.
+         */
+        public NativeOssFsInputStream(FileMetadata metadata, long start, long end) throws IOException {
+            this.bufferReader = new BufferReader(store, metadata.getKey(), conf, algorithmVersion, bufferSize,
+                    metadata, blockCache, start, end);
         }
 
         @Override
@@ -67,6 +105,22 @@ public class NativeOssFileSystem extends FileSystem {
             return bufferReader.read(b, off, len);
         }
 
+        /**
+         * Positioned read with ranged GETs, which leaves the read-ahead of the stream alone
+         * and may be called by several threads at once.
+         */
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+            return bufferReader.read(position, buffer, offset, length);
+        }
+
+        /**
+         * Vectored read, see {@link BufferReader#readVectored(List)}.
+         */
+        public void readVectored(List<FileRange> ranges) throws IOException {
+            bufferReader.readVectored(ranges);
+        }
+
         @Override
         public synchronized void close() throws IOException {
             bufferReader.close();
@@ -87,43 +141,51 @@ public class NativeOssFileSystem extends FileSystem {
         }
     }
 
+    /**
+     * Writes to blocks of `fs.oss.multipart.upload.part.size` bytes, kept on local disk or in
+     * memory as set by `fs.oss.upload.buffer.type`, see {@link UploadBuffer}. Once the first block
+     * is full a multipart upload is started, and every full block is uploaded as a part in the
+     * background, with at most `fs.oss.uploadPart.thread.number` parts in flight per stream.
+     * close() only uploads the tail block and completes the upload. Objects smaller than a part
+     * are stored at once on close().
+     */
     private class NativeOssFsOutputStream extends OutputStream {
 
         private Configuration conf;
         private String key;
-        private File blockFile;
-        private OutputStream blockOutStream;
+        private UploadBuffer block;
         private boolean closed;
         private boolean append;
-        private List<File> blockFiles = new ArrayList<File>();
-        private long blockSize;
-        private Long blockWritten = 0L;
+        private List<UploadBuffer> blocks = new ArrayList<UploadBuffer>();
+        private long partSize;
         private int blockId = 0;
+        private String uploadId;
+        private Semaphore activeParts;
+        private List<Future<String>> parts = new ArrayList<Future<String>>();
+        private volatile IOException uploadError;
+        private boolean aborted;
 
         public NativeOssFsOutputStream(Configuration conf, NativeFileSystemStore store, String key,
                                        boolean append, Progressable progress, int bufferSize) throws IOException {
             this.conf = conf;
             this.key = key;
             this.append = append;
-            this.blockFile = newBlockFile();
-            blockSize = conf.getLong("fs.oss.local.block.size", 128 * 1024 * 1024L);
-            LOG.info("OutputStream for key '" + key + "' writing to tempfile '" + this.blockFile + "' for block " + blockId);
-            this.blockOutStream = new BufferedOutputStream(new FileOutputStream(blockFile));
+            this.partSize = Math.max(conf.getLong("fs.oss.multipart.upload.part.size", 32 * 1024 * 1024L),
+                    MIN_PART_SIZE);
+            this.activeParts = new Semaphore(Math.max(conf.getInt("fs.oss.uploadPart.thread.number", 5), 1));
+            this.block = newBlock();
         }
 
-        private File newBlockFile() throws IOException {
-            File dir = Utils.getTempBufferDir(conf);
-            if (!dir.mkdirs() && !dir.exists()) {
-                throw new IOException("Cannot create OSS buffer directory: " + dir);
-            }
-            File result = File.createTempFile("output-", ".data", dir);
-            result.deleteOnExit();
+        private UploadBuffer newBlock() throws IOException {
+            UploadBuffer result = UploadBuffer.create(conf, partSize);
+            blocks.add(result);
+            LOG.info("OutputStream for key '" + key + "' writing to '" + result + "' for block " + blockId);
             return result;
         }
 
         @Override
         public synchronized void flush() throws IOException {
-            blockOutStream.flush();
+            block.flush();
         }
 
         @Override
@@ -132,20 +194,27 @@ public class NativeOssFileSystem extends FileSystem {
                 return;
             }
 
-            blockOutStream.flush();
-            blockOutStream.close();
-            if (!blockFiles.contains(blockFile)) {
-                blockFiles.add(blockFile);
-            }
+            block.finish();
             LOG.info("OutputStream for key '" + key + "' closed. Now beginning upload");
 
             try {
-                store.storeFiles(key, blockFiles, append);
-            } finally {
-                for(File blockFile: blockFiles) {
-                    if (blockFile.exists() && !blockFile.delete()) {
-                        LOG.warn("Could not delete temporary OSS file: " + blockFile);
+                if (uploadError != null) {
+                    throw uploadError;
+                } else if (uploadId == null) {
+                    store.storeFile(key, block, append);
+                } else {
+                    if (block.size() > 0) {
+                        uploadBlock();
                     }
+                    completeUpload();
+                }
+            } catch (IOException e) {
+                abortUpload();
+                throw e;
+            } finally {
+                metadataCache.invalidate(key);
+                for (UploadBuffer block : blocks) {
+                    block.release();
                 }
                 super.close();
                 closed = true;
@@ -159,11 +228,9 @@ public class NativeOssFileSystem extends FileSystem {
                 throw new IOException("Stream closed");
             }
 
-            blockOutStream.write(b);
-            blockWritten++;
-            if (blockWritten >= blockSize) {
+            block.write(b);
+            if (block.size() >= partSize) {
                 flushData();
-                blockWritten = 0L;
             }
         }
 
@@ -173,28 +240,116 @@ public class NativeOssFileSystem extends FileSystem {
                 throw new IOException("Stream closed");
             }
 
-            blockOutStream.write(b, off, len);
-            blockWritten += len;
-            if (blockWritten >= blockSize) {
-                flushData();
-                blockWritten = 0L;
+            while (len > 0) {
+                int toWrite = (int) Math.min(len, partSize - block.size());
+                block.write(b, off, toWrite);
+                off += toWrite;
+                len -= toWrite;
+                if (block.size() >= partSize) {
+                    flushData();
+                }
             }
         }
 
         private synchronized void flushData() throws IOException {
-            blockFiles.add(blockFile);
-            blockOutStream.flush();
-            blockOutStream.close();
-            blockFile = newBlockFile();
+            block.finish();
+            try {
+                uploadBlock();
+            } catch (IOException e) {
+                // the stream is unusable from now on
+                if (uploadError == null) {
+                    uploadError = e;
+                }
+                abortUpload();
+                throw e;
+            }
             blockId++;
-            LOG.info("OutputStream for key '" + key + "' writing to tempfile '" + this.blockFile + "' for block " + blockId);
-            blockOutStream = new BufferedOutputStream(new FileOutputStream(blockFile));
+            block = newBlock();
+        }
+
+        /**
+         * Uploads the current block in the background, once less than the maximum number of
+         * parts are in flight.
+         */
+        private void uploadBlock() throws IOException {
+            if (uploadError != null) {
+                throw uploadError;
+            }
+            if (uploadId == null) {
+                if (append) {
+                    throw new IOException("'append' op not supported.");
+                }
+                uploadId = store.initiateMultipartUpload(key);
+                LOG.info("OutputStream for key '" + key + "' started multipart upload " + uploadId);
+            }
+            final int partNumber = parts.size() + 1;
+            if (partNumber > MAX_PART_NUMBER) {
+                throw new IOException("Too many parts for key '" + key + "', increase " +
+                        "'fs.oss.multipart.upload.part.size' which is " + partSize);
+            }
+            try {
+                activeParts.acquire();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while uploading key '" + key + "'");
+            }
+            final String id = uploadId;
+            final UploadBuffer part = block;
+            parts.add(TransferScheduler.get(conf).submit(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    try {
+                        return store.uploadPart(key, id, partNumber, part);
+                    } catch (IOException e) {
+                        uploadError = e;
+                        throw e;
+                    } finally {
+                        activeParts.release();
+                        part.release();
+                    }
+                }
+            }));
+        }
+
+        private void completeUpload() throws IOException {
+            List<String> partETags = new ArrayList<String>(parts.size());
+            try {
+                for (Future<String> part : parts) {
+                    partETags.add(part.get());
+                }
+                store.completeMultipartUpload(key, uploadId, partETags);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while uploading key '" + key + "'");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+
+        private void abortUpload() {
+            if (uploadId == null || aborted) {
+                return;
+            }
+            aborted = true;
+            for (Future<String> part : parts) {
+                part.cancel(true);
+            }
+            try {
+                store.abortMultipartUpload(key, uploadId);
+            } catch (IOException e) {
+                LOG.warn("Could not abort multipart upload " + uploadId + " of key '" + key + "'", e);
+            }
         }
     }
 
+
     private URI uri;
+    private BlockCache blockCache;
     private int bufferSize;
     NativeFileSystemStore store;
+    private MetadataCache metadataCache;
+    private int listThreads;
     private Configuration conf;
     private Path workingDir = new Path(".");
 
@@ -219,7 +374,11 @@ public class NativeOssFileSystem extends FileSystem {
             throw new IOException(e);
         }
         setConf(conf);
+        TransferScheduler.get(conf);
+        this.metadataCache = new MetadataCache(conf);
+        this.listThreads = Math.max(conf.getInt("fs.oss.list.thread.number", 8), 1);
         this.uri = URI.create(uri.getScheme() + "://" + uri.getAuthority());
+        this.blockCache = BlockCache.get(conf, uri.getHost());
         this.bufferSize = conf.getInt("fs.oss.readBuffer.size", 64 * 1024 * 1024);
         // do not suggest to use too large buffer in case of GC issue or OOM.
         if (this.bufferSize >= 256 * 1024 * 1024) {
@@ -229,8 +388,8 @@ public class NativeOssFileSystem extends FileSystem {
         }
         this.conf = conf;
         this.algorithmVersion = conf.getInt(OSSREADER_ALGORITHM_VERSION, OSSREADER_ALGORITHM_VERSION_DEFAULT);
-        if (algorithmVersion != 1 && algorithmVersion != 2) {
-            throw new IOException("Only 1 or 2 algorithm version is supported");
+        if (algorithmVersion != 1 && algorithmVersion != 2 && algorithmVersion != 3) {
+            throw new IOException("Only 1, 2 or 3 algorithm version is supported");
         }
     }
 
@@ -242,6 +401,8 @@ public class NativeOssFileSystem extends FileSystem {
                 conf.getLong("fs.oss.sleepTimeSeconds", 10), TimeUnit.SECONDS);
         Map<Class<? extends Exception>, RetryPolicy> exceptionToPolicyMap =
                 new HashMap<Class<? extends Exception>, RetryPolicy>();
+        // the classes are matched exactly: subclasses of IOException, e.g. FileNotFoundException or
+        // OssFileSystemException, fail at once.
         // for reflection invoke.
         exceptionToPolicyMap.put(InvocationTargetException.class, basePolicy);
         exceptionToPolicyMap.put(IOException.class, basePolicy);
@@ -253,6 +414,11 @@ public class NativeOssFileSystem extends FileSystem {
         methodNameToPolicyMap.put("storeFile", methodPolicy);
         methodNameToPolicyMap.put("storeFiles", methodPolicy);
         methodNameToPolicyMap.put("storeEmptyFile", methodPolicy);
+        methodNameToPolicyMap.put("initiateMultipartUpload", methodPolicy);
+        methodNameToPolicyMap.put("uploadPart", methodPolicy);
+        methodNameToPolicyMap.put("completeMultipartUpload", methodPolicy);
+        methodNameToPolicyMap.put("abortMultipartUpload", methodPolicy);
+        methodNameToPolicyMap.put("listMultipartUploads", methodPolicy);
         methodNameToPolicyMap.put("retrieveMetadata", methodPolicy);
         methodNameToPolicyMap.put("retrieve", methodPolicy);
         methodNameToPolicyMap.put("purge", methodPolicy);
@@ -304,6 +470,50 @@ public class NativeOssFileSystem extends FileSystem {
                 key, false, progress, bufferSize), statistics);
     }
 
+    /**
+     * Uploads `localFile` to `f` without making it visible, see {@link #completeUpload(PendingUpload)}.
+     */
+    public PendingUpload uploadPending(File localFile, Path f) throws IOException {
+        String key = pathToKey(makeAbsolute(f));
+        String uploadId = store.initiateMultipartUpload(key);
+        List<String> partETags = store.uploadParts(key, uploadId, localFile);
+        return new PendingUpload(key, uploadId, partETags);
+    }
+
+    public void completeUpload(PendingUpload upload) throws IOException {
+        try {
+            store.completeMultipartUpload(upload.getKey(), upload.getUploadId(), upload.getPartETags());
+        } finally {
+            metadataCache.invalidate(upload.getKey());
+        }
+    }
+
+    public void abortUpload(PendingUpload upload) throws IOException {
+        store.abortMultipartUpload(upload.getKey(), upload.getUploadId());
+    }
+
+    /**
+     * Aborts all the multipart uploads pending under the directory `f`, whoever started them.
+     * @return the number of uploads aborted.
+     */
+    public int abortUploads(Path f) throws IOException {
+        String prefix = pathToKey(makeAbsolute(f));
+        if (prefix.length() > 0 && !prefix.endsWith(PATH_DELIMITER)) {
+            prefix += PATH_DELIMITER;
+        }
+        int aborted = 0;
+        for (Map.Entry<String, String> upload : store.listMultipartUploads(prefix).entrySet()) {
+            try {
+                store.abortMultipartUpload(upload.getValue(), upload.getKey());
+                aborted++;
+            } catch (IOException e) {
+                LOG.warn("Could not abort multipart upload " + upload.getKey() + " of key '" +
+                        upload.getValue() + "'", e);
+            }
+        }
+        return aborted;
+    }
+
     @Override
     @Deprecated
     public boolean delete(Path path) throws IOException {
@@ -329,24 +539,31 @@ public class NativeOssFileSystem extends FileSystem {
             createParent(f);
 
             LOG.debug("Deleting directory '" + f  + "'");
-            String priorLastKey = null;
-            do {
-                PartialListing listing = store.list(key, OSS_MAX_LISTING_LENGTH, priorLastKey, true);
-                for (FileMetadata file : listing.getFiles()) {
-                    store.delete(file.getKey());
-                }
-                priorLastKey = listing.getPriorLastKey();
-            } while (priorLastKey != null);
-
             try {
-                store.delete(key + FOLDER_SUFFIX);
-            } catch (FileNotFoundException e) {
-                //this is fine, we don't require a marker
+                BatchDeleter deleter = new BatchDeleter(store, getConf());
+                String priorLastKey = null;
+                do {
+                    PartialListing listing = store.list(key, OSS_MAX_LISTING_LENGTH, priorLastKey, true);
+                    for (FileMetadata file : listing.getFiles()) {
+                        deleter.delete(file.getKey());
+                    }
+                    priorLastKey = listing.getPriorLastKey();
+                } while (priorLastKey != null);
+                // a missing marker is fine, the batches ignore missing keys
+                deleter.delete(key + FOLDER_SUFFIX);
+                int deleted = deleter.finish();
+                LOG.debug("Deleted " + deleted + " keys under '" + f + "'");
+            } finally {
+                metadataCache.invalidateTree(key);
             }
         } else {
             LOG.debug("Deleting file '" + f + "'");
             createParent(f);
-            store.delete(key);
+            try {
+                store.delete(key);
+            } finally {
+                metadataCache.invalidate(key);
+            }
         }
         return true;
     }
@@ -360,16 +577,29 @@ public class NativeOssFileSystem extends FileSystem {
             return newDirectory(absolutePath);
         }
 
+        MetadataCache.Entry entry = metadataCache.get(key);
+        if (entry != null) {
+            LOG.debug("getFileStatus found key '" + key + "' in metadata cache");
+            if (entry.getFile() != null) {
+                return newFile(entry.getFile(), absolutePath);
+            } else if (entry.isDirectory()) {
+                return newDirectory(absolutePath);
+            }
+            throw new FileNotFoundException("No such file or directory '" + absolutePath + "'");
+        }
+
         LOG.debug("getFileStatus retrieving metadata for key '" + key + "'");
         FileMetadata meta = store.retrieveMetadata(key);
         if (meta != null) {
             LOG.debug("getFileStatus returning 'file' for key '" + key + "'");
+            metadataCache.putFile(meta);
             return newFile(meta, absolutePath);
         }
 
         if (store.retrieveMetadata(key + FOLDER_SUFFIX) != null) {
             LOG.debug("getFileStatus returning 'directory' for key '" + key + "' as '"
                     + key + FOLDER_SUFFIX + "' exists");
+            metadataCache.putDirectory(key);
             return newDirectory(absolutePath);
         }
 
@@ -378,13 +608,22 @@ public class NativeOssFileSystem extends FileSystem {
         if (listing.getFiles().length > 0 ||
                 listing.getCommonPrefixes().length > 0) {
             LOG.debug("getFileStatus returning 'directory' for key '" + key + "' as it has contents");
+            metadataCache.putDirectory(key);
             return newDirectory(absolutePath);
         }
 
         LOG.debug("getFileStatus could not find key '" + key + "'");
+        metadataCache.putAbsent(key);
         throw new FileNotFoundException("No such file or directory '" + absolutePath + "'");
     }
 
+    /**
+     * @return the metadata cache of this file system, mostly to look at its hit ratio.
+     */
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
     @Override
     public String getScheme() {
         return "oss";
@@ -410,14 +649,17 @@ public class NativeOssFileSystem extends FileSystem {
         String key = pathToKey(absolutePath);
 
         if (key.length() > 0) {
-            FileMetadata meta = store.retrieveMetadata(key);
+            MetadataCache.Entry entry = metadataCache.get(key);
+            FileMetadata meta = entry == null ? store.retrieveMetadata(key) : entry.getFile();
             if (meta != null) {
+                metadataCache.putFile(meta);
                 return new FileStatus[] { newFile(meta, absolutePath) };
             }
         }
 
         URI pathUri = absolutePath.toUri();
-        Set<FileStatus> status = new TreeSet<FileStatus>();
+        // no need to keep it sorted, OSS lists keys in order, the set only drops duplicated directories
+        Set<FileStatus> status = new LinkedHashSet<FileStatus>();
         String priorLastKey = null;
         do {
             PartialListing listing = store.list(key, OSS_MAX_LISTING_LENGTH, priorLastKey, false);
@@ -430,17 +672,22 @@ public class NativeOssFileSystem extends FileSystem {
                 } else if (relativePath.endsWith(FOLDER_SUFFIX)) {
                     status.add(newDirectory(new Path("/" +
                             relativePath.substring(0, relativePath.indexOf(FOLDER_SUFFIX)))));
+                    metadataCache.putDirectory(fileMetadata.getKey().substring(0,
+                            fileMetadata.getKey().length() - FOLDER_SUFFIX.length()));
                 } else {
                     // Here, we need to convert "file/path" to "/file/path". Otherwise, Path.makeQualified will
                     // throw `URISyntaxException`.
                     Path modifiedPath = new Path("/" + subPath.toString());
                     status.add(newFile(fileMetadata, modifiedPath));
+                    metadataCache.putFile(fileMetadata);
                 }
             }
             for (String commonPrefix : listing.getCommonPrefixes()) {
                 Path subPath = keyToPath(commonPrefix);
                 String relativePath = pathUri.relativize(subPath.toUri()).getPath();
                 status.add(newDirectory(new Path("/" + relativePath)));
+                metadataCache.putDirectory(commonPrefix.endsWith(PATH_DELIMITER) ?
+                        commonPrefix.substring(0, commonPrefix.length() - 1) : commonPrefix);
             }
             priorLastKey = listing.getPriorLastKey();
         } while (priorLastKey != null);
@@ -452,6 +699,68 @@ public class NativeOssFileSystem extends FileSystem {
         return status.toArray(new FileStatus[status.size()]);
     }
 
+    /**
+     * Recursive listings are served by a {@link ParallelLister} instead of walking the tree
+     * directory by directory. The files are returned in no particular order. The iterator is
+     * {@link Closeable}, to stop the listing when not all the files are consumed.
+     */
+    @Override
+    public RemoteIterator<LocatedFileStatus> listFiles(Path f, boolean recursive)
+            throws FileNotFoundException, IOException {
+        if (!recursive) {
+            return super.listFiles(f, false);
+        }
+        final FileStatus status = getFileStatus(f);
+        if (!status.isDir()) {
+            return new RemoteIterator<LocatedFileStatus>() {
+                private boolean consumed = false;
+
+                @Override
+                public boolean hasNext() {
+                    return !consumed;
+                }
+
+                @Override
+                public LocatedFileStatus next() throws IOException {
+                    if (consumed) {
+                        throw new NoSuchElementException("No more files under '" + status.getPath() + "'");
+                    }
+                    consumed = true;
+                    return new LocatedFileStatus(status, getFileBlockLocations(status, 0, status.getLen()));
+                }
+            };
+        }
+
+        String key = pathToKey(makeAbsolute(f));
+        return new ListedFiles(new ParallelLister(store, key, listThreads, conf));
+    }
+
+    private class ListedFiles implements RemoteIterator<LocatedFileStatus>, Closeable {
+        private final ParallelLister lister;
+
+        ListedFiles(ParallelLister lister) {
+            this.lister = lister;
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            return lister.hasNext();
+        }
+
+        @Override
+        public LocatedFileStatus next() throws IOException {
+            FileMetadata meta = lister.next();
+            metadataCache.putFile(meta);
+            FileStatus fileStatus = newFile(meta, new Path("/" + meta.getKey()));
+            return new LocatedFileStatus(fileStatus, getFileBlockLocations(fileStatus, 0, fileStatus.getLen()));
+        }
+
+        @Override
+        public void close() {
+            lister.close();
+        }
+    }
+
     private FileStatus newFile(FileMetadata meta, Path path) {
         return new FileStatus(meta.getLength(), false, 1, MAX_OSS_FILE_SIZE,
                 meta.getLastModified(), path.makeQualified(this));
@@ -489,20 +798,49 @@ public class NativeOssFileSystem extends FileSystem {
             LOG.debug("Making dir '" + f + "' in OSS");
             String key = pathToKey(f);
             store.storeEmptyFile(key + PATH_DELIMITER);
+            metadataCache.invalidate(key);
+            metadataCache.putDirectory(key);
         }
         return true;
     }
 
     @Override
-    public FSDataInputStream open(Path f, int bufferSize) throws IOException {
-        FileStatus fs = getFileStatus(f); // will throw if the file doesn't exist
-        if (fs.isDir()) {
-            throw new IOException("'" + f + "' is a directory");
-        }
+    public OssDataInputStream open(Path f, int bufferSize) throws IOException {
+        FileMetadata meta = retrieveFileMetadata(f);
         LOG.info("Opening '" + f + "' for reading");
+        return new OssDataInputStream(new NativeOssFsInputStream(meta), bufferSize);
+    }
+
+    /**
+     * Opens `f` at `start`, with a read-ahead which does not go past `end`, so that a reader of
+     * the range [start, end) neither fetches the bytes before nor far after it. The stream may
+     * still seek and read anywhere: past `end` the read-ahead starts again from 1MB.
+     */
+    public OssDataInputStream open(Path f, int bufferSize, long start, long end) throws IOException {
+        FileMetadata meta = retrieveFileMetadata(f);
+        LOG.info("Opening '" + f + "' for reading from " + start + " to " + end);
+        return new OssDataInputStream(new NativeOssFsInputStream(meta, start, end), bufferSize);
+    }
+
+    private FileMetadata retrieveFileMetadata(Path f) throws IOException {
         Path absolutePath = makeAbsolute(f);
         String key = pathToKey(absolutePath);
-        return new FSDataInputStream(new BufferedFSInputStream(new NativeOssFsInputStream(key), bufferSize));
+        // the metadata is handed down to the reader, which then only issues ranged GETs
+        MetadataCache.Entry entry = key.length() == 0 ? null : metadataCache.get(key);
+        FileMetadata meta = entry != null ? entry.getFile() :
+                (key.length() == 0 ? null : store.retrieveMetadata(key));
+        if (meta == null) {
+            FileStatus fs = getFileStatus(f); // will throw if the file doesn't exist
+            if (fs.isDir()) {
+                throw new IOException("'" + f + "' is a directory");
+            }
+            meta = store.retrieveMetadata(key);
+            if (meta == null) {
+                throw new FileNotFoundException("No such file or directory '" + absolutePath + "'");
+            }
+        }
+        metadataCache.putFile(meta);
+        return meta;
     }
 
     // rename() and delete() use this method to ensure that the parent directory
@@ -513,6 +851,7 @@ public class NativeOssFileSystem extends FileSystem {
             String key = pathToKey(makeAbsolute(parent));
             if (key.length() > 0) {
                 store.storeEmptyFile(key + PATH_DELIMITER);
+                metadataCache.invalidate(key);
             }
         }
     }
@@ -562,39 +901,27 @@ public class NativeOssFileSystem extends FileSystem {
             LOG.debug(debugPreamble + "returning false as src does not exist");
             return false;
         }
+        try {
+            renameKeys(srcKey, dstKey, srcIsFile, debugPreamble);
+        } finally {
+            metadataCache.invalidateTree(srcKey);
+            metadataCache.invalidateTree(dstKey);
+        }
+        return true;
+    }
+
+    private void renameKeys(String srcKey, String dstKey, boolean srcIsFile, String debugPreamble)
+            throws IOException {
         if (srcIsFile) {
             LOG.debug(debugPreamble + "src is file, so doing copy then delete in Oss");
             store.copy(srcKey, dstKey);
             store.delete(srcKey);
         } else {
-            LOG.debug(debugPreamble + "src is directory, so copying contents");
+            LOG.debug(debugPreamble + "src is directory, so moving contents");
             store.storeEmptyFile(dstKey + PATH_DELIMITER);
-
-            List<String> keysToDelete = new ArrayList<String>();
-            String priorLastKey = null;
-            do {
-                PartialListing listing = store.list(srcKey, OSS_MAX_LISTING_LENGTH, priorLastKey, true);
-                for (FileMetadata file : listing.getFiles()) {
-                    keysToDelete.add(file.getKey());
-                    store.copy(file.getKey(), dstKey + file.getKey().substring(srcKey.length()));
-                }
-                priorLastKey = listing.getPriorLastKey();
-            } while (priorLastKey != null);
-
-            LOG.debug(debugPreamble + "all files in src copied, now removing src files");
-            for (String key: keysToDelete) {
-                store.delete(key);
-            }
-
-            try {
-                store.delete(srcKey + FOLDER_SUFFIX);
-            } catch (FileNotFoundException e) {
-                //this is fine, we don't require a marker
-            }
+            new ParallelRenamer(store, getConf()).rename(srcKey, dstKey);
             LOG.debug(debugPreamble + "done");
         }
-
-        return true;
     }
 
     /**
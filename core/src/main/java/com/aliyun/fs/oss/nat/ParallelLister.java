@@ -0,0 +1,358 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.nat;
+
+import com.aliyun.fs.oss.common.FileMetadata;
+import com.aliyun.fs.oss.common.NativeFileSystemStore;
+import com.aliyun.fs.oss.common.PartialListing;
+import com.aliyun.fs.oss.utils.TransferScheduler;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.RemoteIterator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recursive listing of all the files under a key, in no particular order.
+ *
+ * The key is listed with a delimiter to discover its sub-prefixes, which are listed in turn,
+ * at most `fs.oss.list.thread.number` at a time on the threads of the {@link TransferScheduler}.
+ * While fewer prefixes than threads are listed, the sub-prefixes are listed with a delimiter
+ * too, so that a single directory fans out further; otherwise they are listed flat.
+ *
+ * A flat listing which runs past its first page while threads are left idle, e.g. a directory
+ * of many files and no sub-directory, is split by key range: the rest of the keys is cut at
+ * keys extrapolated from the first and last keys of the page, and every range is listed from
+ * its start key by another lister, which may split it again. The files are streamed to the
+ * caller through a bounded queue as pages come in. Directory markers are skipped.
+ *
+ * A caller which stops before the end must close the lister, which stops the listings.
+ */
+public class ParallelLister implements RemoteIterator<FileMetadata>, Closeable {
+    public static final Log LOG = LogFactory.getLog(ParallelLister.class);
+
+    private static final Object END = new Object();
+    private static final int QUEUE_CAPACITY = 16 * NativeOssFileSystem.OSS_MAX_LISTING_LENGTH;
+    // a consumer which neither takes anything nor closes for that long is considered gone
+    private static final long ABANDON_TIMEOUT_SECONDS = 600;
+    // the number of pages a split range is sized for, as extrapolated from the current page
+    private static final int PAGES_PER_RANGE = 4;
+
+    private final NativeFileSystemStore store;
+    private final String key;
+    private final int threads;
+    private final Executor executor;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>(QUEUE_CAPACITY);
+    private final AtomicInteger pendingListers = new AtomicInteger(0);
+    private final AtomicInteger splitRanges = new AtomicInteger(0);
+    private volatile boolean aborted = false;
+    private volatile IOException error;
+    private FileMetadata next;
+    private boolean done = false;
+
+    public ParallelLister(NativeFileSystemStore store, String key, int threads, Configuration conf) {
+        this.store = store;
+        this.key = key;
+        this.threads = threads;
+        // the listers wait for the caller to consume their files
+        this.executor = TransferScheduler.get(conf).newLimitedExecutor(threads, true);
+        submit(key, null, null, true);
+    }
+
+    /**
+     * Lists the keys of `prefix` after `startAfter`, up to `end` included, null for no bound.
+     */
+    private void submit(String prefix, String startAfter, String end, boolean discoverPrefixes) {
+        pendingListers.incrementAndGet();
+        executor.execute(new PrefixLister(prefix, startAfter, end, discoverPrefixes));
+    }
+
+    private boolean hasIdleThreads() {
+        return pendingListers.get() < threads;
+    }
+
+    private class PrefixLister implements Runnable {
+        private final String prefix;
+        private final String startAfter;
+        private String end;
+        private boolean discoverPrefixes;
+
+        PrefixLister(String prefix, String startAfter, String end, boolean discoverPrefixes) {
+            this.prefix = prefix;
+            this.startAfter = startAfter;
+            this.end = end;
+            this.discoverPrefixes = discoverPrefixes;
+        }
+
+        @Override
+        public void run() {
+            try {
+                String priorLastKey = startAfter;
+                do {
+                    if (aborted) {
+                        break;
+                    }
+                    PartialListing listing = store.list(prefix, NativeOssFileSystem.OSS_MAX_LISTING_LENGTH,
+                            priorLastKey, !discoverPrefixes);
+                    FileMetadata[] files = listing.getFiles();
+                    boolean pastEnd = false;
+                    for (FileMetadata file : files) {
+                        String fileKey = file.getKey();
+                        if (end != null && fileKey.compareTo(end) > 0) {
+                            pastEnd = true;
+                            break;
+                        }
+                        if (!fileKey.endsWith(NativeOssFileSystem.PATH_DELIMITER) &&
+                                !fileKey.endsWith(NativeOssFileSystem.FOLDER_SUFFIX)) {
+                            put(file);
+                        }
+                    }
+                    if (pastEnd) {
+                        break;
+                    }
+                    for (String commonPrefix : listing.getCommonPrefixes()) {
+                        submit(commonPrefix, null, null, hasIdleThreads());
+                    }
+                    priorLastKey = listing.getPriorLastKey();
+                    if (priorLastKey != null && files.length > 1 && hasIdleThreads()) {
+                        split(files[0].getKey(), files[files.length - 1].getKey(),
+                                listing.getCommonPrefixes().length);
+                    }
+                } while (priorLastKey != null && !aborted);
+            } catch (IOException e) {
+                fail(e);
+            } catch (InterruptedException e) {
+                fail(new InterruptedIOException("Interrupted while listing '" + prefix + "'"));
+            } catch (RuntimeException e) {
+                fail(new IOException(e));
+            } finally {
+                if (pendingListers.decrementAndGet() == 0 && !aborted) {
+                    try {
+                        put(END);
+                    } catch (InterruptedException e) {
+                        aborted = true;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Hands the keys after `last` but the first range over to other listers.
+         */
+        private void split(String first, String last, int commonPrefixes) {
+            if (discoverPrefixes && commonPrefixes > 0) {
+                // a flat listing from `last` would list again the prefixes of the page
+                return;
+            }
+            String keyPrefix = prefix.length() == 0 || prefix.endsWith(NativeOssFileSystem.PATH_DELIMITER) ?
+                    prefix : prefix + NativeOssFileSystem.PATH_DELIMITER;
+            List<String> bounds = splitKeys(keyPrefix, first, last, end, threads - pendingListers.get());
+            if (bounds.isEmpty()) {
+                return;
+            }
+            // the rest of the keys, those of the sub-directories included, is listed flat
+            discoverPrefixes = false;
+            splitRanges.addAndGet(bounds.size());
+            for (int i = 0; i < bounds.size(); i++) {
+                submit(prefix, bounds.get(i), i + 1 < bounds.size() ? bounds.get(i + 1) : end, false);
+            }
+            end = bounds.get(0);
+        }
+    }
+
+    /**
+     * @return up to `count` increasing keys of `prefix` after `last` and before `end` if any, each
+     *         {@link #PAGES_PER_RANGE} times further from the previous one than `last` is from
+     *         `first`, truncated to their first character which differs from the previous one.
+     *         The distances are measured on the characters where the keys differ, as digits in
+     *         the range of the characters seen there, e.g. in base 10 for numbered keys.
+     */
+    static List<String> splitKeys(String prefix, String first, String last, String end, int count) {
+        List<String> bounds = new ArrayList<String>();
+        int common = 0;
+        while (common < first.length() && common < last.length() && first.charAt(common) == last.charAt(common)) {
+            common++;
+        }
+        char min = Character.MAX_VALUE;
+        char max = Character.MIN_VALUE;
+        for (String key : new String[] {first, last}) {
+            for (int i = common; i < key.length(); i++) {
+                min = (char) Math.min(min, key.charAt(i));
+                max = (char) Math.max(max, key.charAt(i));
+            }
+        }
+        if (min >= max) {
+            return bounds;
+        }
+        // the digits left of the first difference take the carries, as long as they are in range
+        int from = common;
+        while (from > prefix.length() && last.charAt(from - 1) >= min && last.charAt(from - 1) <= max) {
+            from--;
+        }
+        int length = Math.max(first.length(), last.length()) - from;
+        BigInteger base = BigInteger.valueOf(max - min + 1);
+        BigInteger limit = base.pow(length);
+        BigInteger value = toNumber(last, from, length, min, base);
+        BigInteger step = value.subtract(toNumber(first, from, length, min, base))
+                .multiply(BigInteger.valueOf(PAGES_PER_RANGE));
+        String previous = last;
+        while (bounds.size() < count) {
+            value = value.add(step);
+            if (value.compareTo(limit) >= 0) {
+                break;
+            }
+            String bound = truncate(last.substring(0, from) + toDigits(value, length, min, base), previous);
+            if (bound == null || (end != null && bound.compareTo(end) >= 0)) {
+                break;
+            }
+            bounds.add(bound);
+            previous = bound;
+        }
+        return bounds;
+    }
+
+    private static BigInteger toNumber(String key, int from, int length, char min, BigInteger base) {
+        BigInteger value = BigInteger.ZERO;
+        for (int i = from; i < from + length; i++) {
+            int digit = i < key.length() ? key.charAt(i) - min : 0;
+            value = value.multiply(base).add(BigInteger.valueOf(digit));
+        }
+        return value;
+    }
+
+    private static String toDigits(BigInteger value, int length, char min, BigInteger base) {
+        char[] chars = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            BigInteger[] quotientAndRemainder = value.divideAndRemainder(base);
+            chars[i] = (char) (min + quotientAndRemainder[1].intValue());
+            value = quotientAndRemainder[0];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return the shortest prefix of `key` greater than `previous`, or null if there is none or
+     *         it ends with a control character.
+     */
+    private static String truncate(String key, String previous) {
+        int i = 0;
+        while (i < previous.length() && i < key.length() && key.charAt(i) == previous.charAt(i)) {
+            i++;
+        }
+        if (i >= key.length() || key.charAt(i) < ' ' || key.compareTo(previous) <= 0) {
+            return null;
+        }
+        return key.substring(0, i + 1);
+    }
+
+    private void put(Object item) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ABANDON_TIMEOUT_SECONDS);
+        while (!aborted) {
+            if (queue.offer(item, 1, TimeUnit.SECONDS)) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                LOG.warn("Nobody consumes the listing of '" + key + "', giving up");
+                aborted = true;
+            }
+        }
+    }
+
+    private synchronized void fail(IOException e) {
+        if (!aborted) {
+            error = e;
+            aborted = true;
+            // make room for the end marker, the listing is over anyway
+            queue.clear();
+            queue.offer(END);
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        if (next != null) {
+            return true;
+        }
+        if (done) {
+            return false;
+        }
+        Object item;
+        try {
+            item = queue.take();
+        } catch (InterruptedException e) {
+            close();
+            throw new InterruptedIOException("Interrupted while listing '" + key + "'");
+        }
+        if (item == END) {
+            done = true;
+            if (error != null) {
+                throw error;
+            }
+            return false;
+        }
+        next = (FileMetadata) item;
+        return true;
+    }
+
+    @Override
+    public FileMetadata next() throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more files under '" + key + "'");
+        }
+        FileMetadata file = next;
+        next = null;
+        return file;
+    }
+
+    /**
+     * Stops the listings, the listers exit after the page they are on.
+     */
+    @Override
+    public void close() {
+        aborted = true;
+        done = true;
+        next = null;
+        queue.clear();
+    }
+
+    /**
+     * @return the number of prefixes still listed or waiting to be.
+     */
+    int getPendingListers() {
+        return pendingListers.get();
+    }
+
+    /**
+     * @return the number of key ranges split off flat listings.
+     */
+    int getSplitRanges() {
+        return splitRanges.get();
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.nat;
+
+import com.aliyun.fs.oss.common.FileMetadata;
+import com.aliyun.fs.oss.common.NativeFileSystemStore;
+import com.aliyun.fs.oss.common.PartialListing;
+import com.aliyun.fs.oss.utils.TransferScheduler;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Moves all the keys under a directory as a pipeline: the listing pages are handed to at most
+ * `fs.oss.rename.thread.number` copies at a time (default 16), and every source is deleted, by
+ * batches, as soon as its copy is done. The sizes come from the listing, the copies do not look
+ * the objects up again before choosing between a simple and a multipart copy.
+ *
+ * A source is only deleted once copied, a failed rename leaves every file in the source or in
+ * the destination directory.
+ */
+public class ParallelRenamer {
+    public static final Log LOG = LogFactory.getLog(ParallelRenamer.class);
+
+    public static final String RENAME_THREADS = "fs.oss.rename.thread.number";
+    // copies listed but not done yet, beyond that the listing waits
+    private static final int MAX_PENDING_COPIES = 2 * NativeOssFileSystem.OSS_MAX_LISTING_LENGTH;
+
+    private final NativeFileSystemStore store;
+    private final Configuration conf;
+    private final Executor executor;
+    private final Set<CopyTask> pending = new HashSet<CopyTask>();
+    private final BlockingQueue<CopyTask> copied = new LinkedBlockingQueue<CopyTask>();
+
+    public ParallelRenamer(NativeFileSystemStore store, Configuration conf) {
+        this.store = store;
+        this.conf = conf;
+        // the copies run in the stream pool, the multipart ones wait for their parts in the transfer pool
+        this.executor = TransferScheduler.get(conf).newLimitedExecutor(conf.getInt(RENAME_THREADS, 16), true);
+    }
+
+    private class CopyTask extends FutureTask<Void> {
+        private final String srcKey;
+
+        CopyTask(final FileMetadata src, final String dstKey) {
+            super(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    store.copy(src, dstKey);
+                    return null;
+                }
+            });
+            this.srcKey = src.getKey();
+        }
+
+        @Override
+        protected void done() {
+            copied.add(this);
+        }
+    }
+
+    /**
+     * Moves the keys under the directory `srcKey` to `dstKey`, then deletes the marker of `srcKey`.
+     * @return the number of keys moved.
+     */
+    public int rename(String srcKey, String dstKey) throws IOException {
+        BatchDeleter deleter = new BatchDeleter(store, conf);
+        int moved = 0;
+        try {
+            String priorLastKey = null;
+            do {
+                PartialListing listing = store.list(srcKey, NativeOssFileSystem.OSS_MAX_LISTING_LENGTH,
+                        priorLastKey, true);
+                for (FileMetadata file : listing.getFiles()) {
+                    while (pending.size() >= MAX_PENDING_COPIES) {
+                        deleteSource(takeCopied(), deleter);
+                    }
+                    CopyTask task = new CopyTask(file, dstKey + file.getKey().substring(srcKey.length()));
+                    pending.add(task);
+                    executor.execute(task);
+                    moved++;
+                }
+                // what is already copied is deleted while the next page is listed
+                CopyTask task;
+                while ((task = copied.poll()) != null) {
+                    deleteSource(task, deleter);
+                }
+                priorLastKey = listing.getPriorLastKey();
+            } while (priorLastKey != null);
+
+            while (!pending.isEmpty()) {
+                deleteSource(takeCopied(), deleter);
+            }
+            deleter.delete(srcKey + NativeOssFileSystem.FOLDER_SUFFIX);
+            deleter.finish();
+        } finally {
+            for (CopyTask task : pending) {
+                task.cancel(false);
+            }
+        }
+        LOG.debug("Moved " + moved + " keys from '" + srcKey + "' to '" + dstKey + "'");
+        return moved;
+    }
+
+    private CopyTask takeCopied() throws IOException {
+        try {
+            return copied.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while renaming in OSS");
+        }
+    }
+
+    private void deleteSource(CopyTask task, BatchDeleter deleter) throws IOException {
+        pending.remove(task);
+        try {
+            BatchDeleter.getResult(task);
+        } catch (FileNotFoundException e) {
+            LOG.debug("'" + task.srcKey + "' disappeared before it could be renamed");
+            return;
+        }
+        deleter.delete(task.srcKey);
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.nat;
+
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A multipart upload whose parts are all uploaded, but which is not completed yet: the object
+ * appears once {@link NativeOssFileSystem#completeUpload(PendingUpload)} is called.
+ */
+public class PendingUpload implements Writable {
+    private String key;
+    private String uploadId;
+    private List<String> partETags;
+
+    public PendingUpload() {
+        this(null, null, new ArrayList<String>());
+    }
+
+    public PendingUpload(String key, String uploadId, List<String> partETags) {
+        this.key = key;
+        this.uploadId = uploadId;
+        this.partETags = partETags;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public List<String> getPartETags() {
+        return partETags;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeUTF(key);
+        out.writeUTF(uploadId);
+        out.writeInt(partETags.size());
+        for (String partETag : partETags) {
+            out.writeUTF(partETag);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        key = in.readUTF();
+        uploadId = in.readUTF();
+        int parts = in.readInt();
+        partETags = new ArrayList<String>(parts);
+        for (int i = 0; i < parts; i++) {
+            partETags.add(in.readUTF());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "upload " + uploadId + " of '" + key + "' in " + partETags.size() + " parts";
+    }
+}
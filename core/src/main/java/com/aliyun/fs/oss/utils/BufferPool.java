@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.utils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * JVM-wide pool of the direct buffers holding the read-ahead of the input streams, so that
+ * streams and seeks reuse the same slabs instead of allocating large arrays on the heap.
+ *
+ * Slabs are sized by powers of 2, and all of them, in use or free, take at most
+ * `fs.oss.reader.buffer.pool.size` bytes (default 1GB). When a slab of the requested size would
+ * exceed it, the free slabs of other sizes are dropped to make room, then smaller slabs are
+ * tried: the stream gets a smaller read-ahead. Below the minimum size requested, the stream gets
+ * a heap buffer out of the pool. A dropped slab is only freed once garbage collected, so the
+ * direct memory of the JVM may briefly exceed the bound of the pool.
+ *
+ * A slab acquired for an owner, e.g. a stream, goes back to the pool once the owner is garbage
+ * collected, should the owner never release it.
+ */
+public class BufferPool {
+    public static final Log LOG = LogFactory.getLog(BufferPool.class);
+
+    public static final String POOL_SIZE = "fs.oss.reader.buffer.pool.size";
+
+    private static BufferPool instance;
+
+    private final long maxSize;
+    private final TreeMap<Integer, ArrayDeque<ByteBuffer>> free = new TreeMap<Integer, ArrayDeque<ByteBuffer>>();
+    private long allocated = 0;
+    private long inUse = 0;
+    private long heapFallbacks = 0;
+    // slabs acquired for an owner, to reclaim the ones of the owners collected without releasing
+    private final IdentityHashMap<ByteBuffer, Lease> leases = new IdentityHashMap<ByteBuffer, Lease>();
+    private final ReferenceQueue<Object> abandoned = new ReferenceQueue<Object>();
+    private long reclaimed = 0;
+
+    private static class Lease extends WeakReference<Object> {
+        final ByteBuffer slab;
+
+        Lease(Object owner, ByteBuffer slab, ReferenceQueue<Object> queue) {
+            super(owner, queue);
+            this.slab = slab;
+        }
+    }
+
+    public BufferPool(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the pool of the JVM, created with `conf` on the first call.
+     */
+    public static synchronized BufferPool get(Configuration conf) {
+        if (instance == null) {
+            instance = new BufferPool(Math.max(conf.getLong(POOL_SIZE, 1024L * 1024 * 1024), 0L));
+        }
+        return instance;
+    }
+
+    /**
+     * @return a cleared buffer of `size` bytes if possible, otherwise of the largest power of 2
+     * available, but at least of `minSize` bytes. Its capacity may be larger than requested, its
+     * limit is not. It must be given back by {@link #release(ByteBuffer)}.
+     */
+    public ByteBuffer acquire(int size, int minSize) {
+        return acquire(size, minSize, null);
+    }
+
+    /**
+     * Like {@link #acquire(int, int)}, but the buffer goes back to the pool by itself once `owner`
+     * is garbage collected, if not given back before. Only `owner` may then refer to the buffer.
+     */
+    public synchronized ByteBuffer acquire(int size, int minSize, Object owner) {
+        reclaimAbandoned();
+        minSize = Math.min(minSize, size);
+        for (int slabSize = slabSize(size); slabSize >= minSize; slabSize /= 2) {
+            ByteBuffer slab = take(slabSize);
+            if (slab != null) {
+                inUse += slab.capacity();
+                slab.clear();
+                slab.limit(Math.min(size, slabSize));
+                if (owner != null) {
+                    leases.put(slab, new Lease(owner, slab, abandoned));
+                }
+                return slab;
+            }
+            if (slabSize == 1) {
+                break;
+            }
+        }
+        heapFallbacks++;
+        if (heapFallbacks == 1 || heapFallbacks % 1000 == 0) {
+            LOG.warn("OSS read buffer pool exhausted, " + inUse + " of " + maxSize + " bytes in use, " +
+                    heapFallbacks + " heap buffers so far");
+        }
+        return ByteBuffer.allocate(minSize);
+    }
+
+    private ByteBuffer take(int slabSize) {
+        ArrayDeque<ByteBuffer> slabs = free.get(slabSize);
+        if (slabs != null && !slabs.isEmpty()) {
+            return slabs.poll();
+        }
+        if (allocated + slabSize > maxSize) {
+            // drop the idle slabs of other sizes, their memory is freed once they are collected
+            Iterator<Map.Entry<Integer, ArrayDeque<ByteBuffer>>> it = free.entrySet().iterator();
+            while (allocated + slabSize > maxSize && it.hasNext()) {
+                ArrayDeque<ByteBuffer> idle = it.next().getValue();
+                while (allocated + slabSize > maxSize && !idle.isEmpty()) {
+                    allocated -= idle.poll().capacity();
+                }
+            }
+            if (allocated + slabSize > maxSize) {
+                return null;
+            }
+        }
+        try {
+            ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+            allocated += slabSize;
+            return slab;
+        } catch (OutOfMemoryError e) {
+            LOG.warn("Cannot allocate a direct buffer of " + slabSize + " bytes", e);
+            return null;
+        }
+    }
+
+    /**
+     * Gives back a buffer of {@link #acquire(int, int)}, which must not be used anymore.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        Lease lease = leases.remove(buffer);
+        if (lease != null) {
+            lease.clear();
+        }
+        recycle(buffer);
+        reclaimAbandoned();
+    }
+
+    private void recycle(ByteBuffer buffer) {
+        inUse -= buffer.capacity();
+        ArrayDeque<ByteBuffer> slabs = free.get(buffer.capacity());
+        if (slabs == null) {
+            slabs = new ArrayDeque<ByteBuffer>();
+            free.put(buffer.capacity(), slabs);
+        }
+        slabs.push(buffer);
+    }
+
+    /**
+     * Takes back the slabs of the owners collected without releasing them.
+     */
+    private void reclaimAbandoned() {
+        Lease lease;
+        while ((lease = (Lease) abandoned.poll()) != null) {
+            if (leases.get(lease.slab) == lease) {
+                leases.remove(lease.slab);
+                recycle(lease.slab);
+                reclaimed++;
+                if (reclaimed == 1 || reclaimed % 1000 == 0) {
+                    LOG.warn("Reclaimed a read buffer of " + lease.slab.capacity() + " bytes of a stream " +
+                            "not closed, " + reclaimed + " so far");
+                }
+            }
+        }
+    }
+
+    private static int slabSize(int size) {
+        int slabSize = Integer.highestOneBit(Math.max(size, 1));
+        return slabSize < size ? slabSize * 2 : slabSize;
+    }
+
+    /**
+     * @return the bytes of all the direct slabs, in use or free.
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocated;
+    }
+
+    public synchronized long getInUseBytes() {
+        reclaimAbandoned();
+        return inUse;
+    }
+
+    /**
+     * @return the number of buffers taken back from owners collected without releasing them.
+     */
+    public synchronized long getReclaimed() {
+        reclaimAbandoned();
+        return reclaimed;
+    }
+
+    /**
+     * @return the number of buffers allocated on the heap because the pool was exhausted.
+     */
+    public synchronized long getHeapFallbacks() {
+        return heapFallbacks;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BufferPool[allocated=" + allocated + ", inUse=" + inUse + ", max=" + maxSize +
+                ", heapFallbacks=" + heapFallbacks + ", reclaimed=" + reclaimed + "]";
+    }
+}
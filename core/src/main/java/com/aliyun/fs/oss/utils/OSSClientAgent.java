@@ -21,7 +21,6 @@ import com.aliyun.oss.ClientConfiguration;
 import com.aliyun.oss.ClientException;
 import com.aliyun.oss.ServiceException;
 import com.aliyun.oss.model.*;
-import com.google.gson.*;
 import org.apache.commons.lang.SystemUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,23 +30,25 @@ import java.io.*;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Type;
-import java.math.BigDecimal;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class OSSClientAgent {
     private static final Log LOG = LogFactory.getLog(OSSClientAgent.class);
     private URLClassLoader urlClassLoader;
     private Object ossClient;
     private Class ossClientClz;
-    private Gson gson = new Gson();
+    private OSSModelConverter converter = new OSSModelConverter();
     private Configuration conf;
 
+    // resolved once for the OSS URLClassLoader of this agent
+    private final ConcurrentHashMap<String, Class> classes = new ConcurrentHashMap<String, Class>();
+    private final ConcurrentHashMap<MemberKey, Method> methods = new ConcurrentHashMap<MemberKey, Method>();
+    private final ConcurrentHashMap<MemberKey, Constructor> constructors =
+            new ConcurrentHashMap<MemberKey, Constructor>();
+
     @SuppressWarnings("unchecked")
     private URLClassLoader getUrlClassLoader(Configuration conf){
         if(urlClassLoader == null){
@@ -65,35 +66,111 @@ public class OSSClientAgent {
         return urlClassLoader;
     }
 
+    private static class MemberKey {
+        private final Class clz;
+        private final String name;
+        private final Class[] parameterTypes;
+
+        MemberKey(Class clz, String name, Class[] parameterTypes) {
+            this.clz = clz;
+            this.name = name;
+            this.parameterTypes = parameterTypes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MemberKey)) {
+                return false;
+            }
+            MemberKey other = (MemberKey) o;
+            return clz == other.clz && name.equals(other.name) && Arrays.equals(parameterTypes, other.parameterTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return (clz.hashCode() * 31 + name.hashCode()) * 31 + Arrays.hashCode(parameterTypes);
+        }
+    }
+
+    private Class loadClass(String name) throws ClassNotFoundException {
+        Class clz = classes.get(name);
+        if (clz == null) {
+            clz = getUrlClassLoader(conf).loadClass(name);
+            classes.putIfAbsent(name, clz);
+        }
+        return clz;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Method method(Class clz, String name, Class... parameterTypes) throws NoSuchMethodException {
+        MemberKey memberKey = new MemberKey(clz, name, parameterTypes);
+        Method method = methods.get(memberKey);
+        if (method == null) {
+            method = clz.getMethod(name, parameterTypes);
+            method.setAccessible(true);
+            methods.putIfAbsent(memberKey, method);
+        }
+        return method;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Constructor constructor(Class clz, Class... parameterTypes) throws NoSuchMethodException {
+        MemberKey memberKey = new MemberKey(clz, "<init>", parameterTypes);
+        Constructor constructor = constructors.get(memberKey);
+        if (constructor == null) {
+            constructor = clz.getConstructor(parameterTypes);
+            constructors.putIfAbsent(memberKey, constructor);
+        }
+        return constructor;
+    }
+
     @SuppressWarnings("unchecked")
     public OSSClientAgent(String endpoint, String accessKeyId, String accessKeySecret, Configuration conf)
             throws Exception {
-        this.ossClientClz = getUrlClassLoader(conf).loadClass("com.aliyun.oss.OSSClient");
-        Class ClientConfigurationClz = getUrlClassLoader(conf).loadClass("com.aliyun.oss.ClientConfiguration");
+        this.conf = conf;
+        this.ossClientClz = loadClass("com.aliyun.oss.OSSClient");
+        Class ClientConfigurationClz = loadClass("com.aliyun.oss.ClientConfiguration");
         Object clientConfiguration = initializeOSSClientConfig(conf, ClientConfigurationClz);
-        Constructor cons = this.ossClientClz.getConstructor(String.class, String.class, String.class, ClientConfigurationClz);
+        Constructor cons = constructor(ossClientClz, String.class, String.class, String.class, ClientConfigurationClz);
         this.ossClient = cons.newInstance(endpoint, accessKeyId, accessKeySecret, clientConfiguration);
-        this.conf = conf;
     }
 
     @SuppressWarnings("unchecked")
     public OSSClientAgent(String endpoint, String accessKeyId, String accessKeySecret, String securityToken,
                           Configuration conf) throws Exception {
-        this.ossClientClz = getUrlClassLoader(conf).loadClass("com.aliyun.oss.OSSClient");
-        Class ClientConfigurationClz = getUrlClassLoader(conf).loadClass("com.aliyun.oss.ClientConfiguration");
+        this.conf = conf;
+        this.ossClientClz = loadClass("com.aliyun.oss.OSSClient");
+        Class ClientConfigurationClz = loadClass("com.aliyun.oss.ClientConfiguration");
         Object clientConfiguration = initializeOSSClientConfig(conf, ClientConfigurationClz);
-        Constructor cons = ossClientClz.getConstructor(String.class, String.class, String.class, String.class, ClientConfigurationClz);
+        Constructor cons = constructor(ossClientClz, String.class, String.class, String.class, String.class, ClientConfigurationClz);
         this.ossClient = cons.newInstance(endpoint, accessKeyId, accessKeySecret, securityToken, clientConfiguration);
-        this.conf = conf;
     }
 
     @SuppressWarnings("unchecked")
     public PutObjectResult putObject(String bucket, String key, File file) throws IOException, ServiceException,
             ClientException {
         try {
-            Method method = this.ossClientClz.getMethod("putObject", String.class, String.class, File.class);
+            Method method = method(ossClientClz, "putObject", String.class, String.class, File.class);
             Object ret = method.invoke(this.ossClient, bucket, key, file);
-            return gson.fromJson(gson.toJson(ret), PutObjectResult.class);
+            return converter.convert(ret, PutObjectResult.class);
+        } catch (Exception e) {
+            handleException(e);
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public PutObjectResult putObject(String bucket, String key, InputStream input, long length)
+            throws IOException, ServiceException, ClientException {
+        try {
+            Class ObjectMetadataClz = loadClass("com.aliyun.oss.model.ObjectMetadata");
+            Object objectMetadata = constructor(ObjectMetadataClz).newInstance();
+            Method method0 = method(ObjectMetadataClz, "setContentLength", Long.TYPE);
+            method0.invoke(objectMetadata, length);
+            Method method = method(ossClientClz, "putObject", String.class, String.class, InputStream.class,
+                    ObjectMetadataClz);
+            Object ret = method.invoke(this.ossClient, bucket, key, input, objectMetadata);
+            return converter.convert(ret, PutObjectResult.class);
         } catch (Exception e) {
             handleException(e);
             return null;
@@ -104,14 +181,14 @@ public class OSSClientAgent {
     public AppendObjectResult appendObject(String bucketName, String key, File file, Long position, Configuration conf)
             throws IOException, ServiceException, ClientException {
         try {
-            Class AppendObjectRequestClz = getUrlClassLoader(conf).loadClass("com.aliyun.oss.model.AppendObjectRequest");
-            Constructor cons = AppendObjectRequestClz.getConstructor(String.class, String.class, File.class);
+            Class AppendObjectRequestClz = loadClass("com.aliyun.oss.model.AppendObjectRequest");
+            Constructor cons = constructor(AppendObjectRequestClz, String.class, String.class, File.class);
             Object appendObjectRequest = cons.newInstance(bucketName, key, file);
-            Method method0 = AppendObjectRequestClz.getMethod("setPosition", Long.TYPE);
+            Method method0 = method(AppendObjectRequestClz, "setPosition", Long.TYPE);
             method0.invoke(appendObjectRequest, position);
-            Method method = this.ossClientClz.getMethod("appendObject", AppendObjectRequestClz);
+            Method method = method(ossClientClz, "appendObject", AppendObjectRequestClz);
             Object ret = method.invoke(this.ossClient, appendObjectRequest);
-            return gson.fromJson(gson.toJson(ret), AppendObjectResult.class);
+            return converter.convert(ret, AppendObjectResult.class);
         } catch (Exception e) {
             handleException(e);
             return null;
@@ -122,13 +199,9 @@ public class OSSClientAgent {
     public ObjectMetadata getObjectMetadata(String bucket, String key) throws IOException, ServiceException,
             ClientException {
         try {
-            GsonBuilder builder = new GsonBuilder();
-            builder.registerTypeAdapter(ObjectMetadata.class, new ObjectMetadataDeserializer());
-            Gson gson = builder.create();
-
-            Method method = this.ossClientClz.getMethod("getObjectMetadata", String.class, String.class);
+            Method method = method(ossClientClz, "getObjectMetadata", String.class, String.class);
             Object ret = method.invoke(this.ossClient, bucket, key);
-            return gson.fromJson(gson.toJson(ret), ObjectMetadata.class);
+            return converter.convert(ret, ObjectMetadata.class);
         } catch (NoSuchMethodException e) {
             LOG.error(e.getMessage());
             return null;
@@ -138,30 +211,44 @@ public class OSSClientAgent {
         }
     }
 
-    @SuppressWarnings("unchecked")
     public OSSObject getObject(String bucket, String key, long start, long end, Configuration conf) throws IOException,
             ServiceException, ClientException {
+        return getObject(bucket, key, start, end, null, conf);
+    }
+
+    /**
+     * @param end inclusive end of the range, -1 to read up to the end of the object.
+     * @param eTag if not null, the GET fails with `PreconditionFailed` when the object does not
+     *             match it anymore.
+     */
+    @SuppressWarnings("unchecked")
+    public OSSObject getObject(String bucket, String key, long start, long end, String eTag, Configuration conf)
+            throws IOException, ServiceException, ClientException {
         InputStream inputStream;
         try {
-            Class GetObjectRequestClz = getUrlClassLoader(conf).loadClass("com.aliyun.oss.model.GetObjectRequest");
-            Constructor cons0 = GetObjectRequestClz.getConstructor(String.class, String.class);
+            Class GetObjectRequestClz = loadClass("com.aliyun.oss.model.GetObjectRequest");
+            Constructor cons0 = constructor(GetObjectRequestClz, String.class, String.class);
             Object getObjRequest = cons0.newInstance(bucket, key);
-            Method method0 = GetObjectRequestClz.getMethod("setRange", Long.TYPE, Long.TYPE);
-            method0.invoke(getObjRequest, start, end);
+            if (start > 0 || end >= 0) {
+                // no range at all for the whole object, which would fail on an empty object
+                Method method0 = method(GetObjectRequestClz, "setRange", Long.TYPE, Long.TYPE);
+                method0.invoke(getObjRequest, start, end);
+            }
+            if (eTag != null) {
+                Method method3 = method(GetObjectRequestClz, "setMatchingETagConstraints", List.class);
+                method3.invoke(getObjRequest, Collections.singletonList(eTag));
+            }
 
-            Method method = this.ossClientClz.getMethod("getObject", GetObjectRequestClz);
+            Method method = method(ossClientClz, "getObject", GetObjectRequestClz);
             Object ret = method.invoke(this.ossClient, getObjRequest);
 
-            Class OSSObjectClz = getUrlClassLoader(conf).loadClass("com.aliyun.oss.model.OSSObject");
-            Method method1 = OSSObjectClz.getMethod("getObjectContent");
+            Class OSSObjectClz = loadClass("com.aliyun.oss.model.OSSObject");
+            Method method1 = method(OSSObjectClz, "getObjectContent");
             inputStream = (InputStream) method1.invoke(ret);
 
-            GsonBuilder builder = new GsonBuilder();
-            builder.registerTypeAdapter(ObjectMetadata.class, new ObjectMetadataDeserializer());
-            Gson gson = builder.create();
-            Method method2 = OSSObjectClz.getMethod("getObjectMetadata");
+            Method method2 = method(OSSObjectClz, "getObjectMetadata");
             Object metadata = method2.invoke(ret);
-            ObjectMetadata objectMetadata = gson.fromJson(gson.toJson(metadata), ObjectMetadata.class);
+            ObjectMetadata objectMetadata = converter.convert(metadata, ObjectMetadata.class);
 
             OSSObject ossObject = new OSSObject();
             ossObject.setBucketName(bucket);
@@ -179,9 +266,9 @@ public class OSSClientAgent {
     public CopyObjectResult copyObject(String srcBucket, String srcKey, String dstBucket, String dstKey)
             throws IOException, ServiceException, ClientException {
         try {
-            Method method = this.ossClientClz.getMethod("copyObject", String.class, String.class, String.class, String.class);
+            Method method = method(ossClientClz, "copyObject", String.class, String.class, String.class, String.class);
             Object ret = method.invoke(this.ossClient, srcBucket, srcKey, dstBucket, dstKey);
-            return gson.fromJson(gson.toJson(ret), CopyObjectResult.class);
+            return converter.convert(ret, CopyObjectResult.class);
         } catch (Exception e) {
             handleException(e);
             return null;
@@ -191,9 +278,9 @@ public class OSSClientAgent {
     @SuppressWarnings("unchecked")
     public ObjectListing listObjects(String bucket) throws IOException {
         try {
-            Method method = this.ossClientClz.getMethod("listObjects", String.class);
+            Method method = method(ossClientClz, "listObjects", String.class);
             Object ret = method.invoke(this.ossClient, bucket);
-            return gson.fromJson(gson.toJson(ret), ObjectListing.class);
+            return converter.convert(ret, ObjectListing.class);
         } catch (Exception e) {
             handleException(e);
             return null;
@@ -203,9 +290,9 @@ public class OSSClientAgent {
     @SuppressWarnings("unchecked")
     public ObjectListing listObjects(String bucket, String prefix) throws IOException {
         try {
-            Method method = this.ossClientClz.getMethod("listObjects", String.class, String.class);
+            Method method = method(ossClientClz, "listObjects", String.class, String.class);
             Object ret = method.invoke(this.ossClient, bucket, prefix);
-            return gson.fromJson(gson.toJson(ret), ObjectListing.class);
+            return converter.convert(ret, ObjectListing.class);
         } catch (Exception e) {
             handleException(e);
             return null;
@@ -217,21 +304,21 @@ public class OSSClientAgent {
                                      String priorLastKey, Configuration conf)
             throws IOException, ServiceException, ClientException {
         try {
-            Class ListObjectsRequestClz = getUrlClassLoader(conf).loadClass("com.aliyun.oss.model.ListObjectsRequest");
-            Constructor cons = ListObjectsRequestClz.getConstructor(String.class);
+            Class ListObjectsRequestClz = loadClass("com.aliyun.oss.model.ListObjectsRequest");
+            Constructor cons = constructor(ListObjectsRequestClz, String.class);
             Object listObjectsRequest = cons.newInstance(bucket);
-            Method method0 = ListObjectsRequestClz.getMethod("setDelimiter", String.class);
+            Method method0 = method(ListObjectsRequestClz, "setDelimiter", String.class);
             method0.invoke(listObjectsRequest, delimiter);
-            Method method1 = ListObjectsRequestClz.getMethod("setMarker", String.class);
+            Method method1 = method(ListObjectsRequestClz, "setMarker", String.class);
             method1.invoke(listObjectsRequest, priorLastKey);
-            Method method2 = ListObjectsRequestClz.getMethod("setMaxKeys", Integer.class);
+            Method method2 = method(ListObjectsRequestClz, "setMaxKeys", Integer.class);
             method2.invoke(listObjectsRequest, maxListingLength);
-            Method method3 = ListObjectsRequestClz.getMethod("setPrefix", String.class);
+            Method method3 = method(ListObjectsRequestClz, "setPrefix", String.class);
             method3.invoke(listObjectsRequest, prefix);
 
-            Method method = this.ossClientClz.getMethod("listObjects", ListObjectsRequestClz);
+            Method method = method(ossClientClz, "listObjects", ListObjectsRequestClz);
             Object ret = method.invoke(this.ossClient, listObjectsRequest);
-            return gson.fromJson(gson.toJson(ret), ObjectListing.class);
+            return converter.convert(ret, ObjectListing.class);
         } catch (Exception e) {
             handleException(e);
             return null;
@@ -241,19 +328,37 @@ public class OSSClientAgent {
     @SuppressWarnings("unchecked")
     public void deleteObject(String bucket, String key) throws IOException, ServiceException, ClientException {
         try {
-            Method method = this.ossClientClz.getMethod("deleteObject", String.class, String.class);
+            Method method = method(ossClientClz, "deleteObject", String.class, String.class);
             method.invoke(this.ossClient, bucket, key);
         } catch (Exception e) {
             handleException(e);
         }
     }
 
+    @SuppressWarnings("unchecked")
+    public void deleteObjects(String bucket, List<String> keys)
+            throws IOException, ServiceException, ClientException {
+        try {
+            Class DeleteObjectsRequestClz = loadClass("com.aliyun.oss.model.DeleteObjectsRequest");
+            Object deleteObjectsRequest = constructor(DeleteObjectsRequestClz, String.class).newInstance(bucket);
+            Method method0 = method(DeleteObjectsRequestClz, "setKeys", List.class);
+            method0.invoke(deleteObjectsRequest, keys);
+            Method method1 = method(DeleteObjectsRequestClz, "setQuiet", Boolean.TYPE);
+            method1.invoke(deleteObjectsRequest, true);
+
+            Method method = method(ossClientClz, "deleteObjects", DeleteObjectsRequestClz);
+            method.invoke(this.ossClient, deleteObjectsRequest);
+        } catch (Exception e) {
+            handleException(e);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public Boolean doesObjectExist(String bucket, String key) throws IOException, ServiceException, ClientException {
         try {
-            Method method = this.ossClientClz.getMethod("doesObjectExist", String.class, String.class);
+            Method method = method(ossClientClz, "doesObjectExist", String.class, String.class);
             Object ret = method.invoke(this.ossClient, bucket, key);
-            return gson.fromJson(gson.toJson(ret), Boolean.class);
+            return (Boolean) ret;
         } catch (Exception e) {
             handleException(e);
             return null;
@@ -265,13 +370,13 @@ public class OSSClientAgent {
             throws IOException, ServiceException, ClientException {
         try {
             Class InitiateMultipartUploadRequestClz =
-                    getUrlClassLoader(conf).loadClass("com.aliyun.oss.model.InitiateMultipartUploadRequest");
-            Constructor cons = InitiateMultipartUploadRequestClz.getConstructor(String.class, String.class);
+                    loadClass("com.aliyun.oss.model.InitiateMultipartUploadRequest");
+            Constructor cons = constructor(InitiateMultipartUploadRequestClz, String.class, String.class);
             Object initiateMultipartUploadRequest = cons.newInstance(bucket, key);
 
-            Method method = this.ossClientClz.getMethod("initiateMultipartUpload", InitiateMultipartUploadRequestClz);
+            Method method = method(ossClientClz, "initiateMultipartUpload", InitiateMultipartUploadRequestClz);
             Object ret = method.invoke(this.ossClient, initiateMultipartUploadRequest);
-            return gson.fromJson(gson.toJson(ret), InitiateMultipartUploadResult.class);
+            return converter.convert(ret, InitiateMultipartUploadResult.class);
         } catch (Exception e) {
             handleException(e);
             return null;
@@ -281,37 +386,61 @@ public class OSSClientAgent {
     public void abortMultipartUpload(String bucket, String key, String uploadId, Configuration conf) throws IOException {
         try {
             Class AbortMultipartUploadRequestClz =
-                    getUrlClassLoader(conf).loadClass("com.aliyun.oss.model.AbortMultipartUploadRequest");
-            Constructor cons = AbortMultipartUploadRequestClz.getConstructor(String.class, String.class, String.class);
+                    loadClass("com.aliyun.oss.model.AbortMultipartUploadRequest");
+            Constructor cons = constructor(AbortMultipartUploadRequestClz, String.class, String.class, String.class);
             Object abortMultipartUploadRequest = cons.newInstance(bucket, key, uploadId);
 
-            Method method = ossClientClz.getMethod("abortMultipartUpload", AbortMultipartUploadRequestClz);
+            Method method = method(ossClientClz, "abortMultipartUpload", AbortMultipartUploadRequestClz);
             method.invoke(this.ossClient, abortMultipartUploadRequest);
         } catch (Exception e) {
             handleException(e);
         }
     }
 
+    @SuppressWarnings("unchecked")
+    public MultipartUploadListing listMultipartUploads(String bucket, String prefix, String keyMarker,
+                                                       String uploadIdMarker, Configuration conf)
+            throws IOException, ServiceException, ClientException {
+        try {
+            Class ListMultipartUploadsRequestClz = loadClass("com.aliyun.oss.model.ListMultipartUploadsRequest");
+            Constructor cons = constructor(ListMultipartUploadsRequestClz, String.class);
+            Object listMultipartUploadsRequest = cons.newInstance(bucket);
+            Method method0 = method(ListMultipartUploadsRequestClz, "setPrefix", String.class);
+            method0.invoke(listMultipartUploadsRequest, prefix);
+            Method method1 = method(ListMultipartUploadsRequestClz, "setKeyMarker", String.class);
+            method1.invoke(listMultipartUploadsRequest, keyMarker);
+            Method method2 = method(ListMultipartUploadsRequestClz, "setUploadIdMarker", String.class);
+            method2.invoke(listMultipartUploadsRequest, uploadIdMarker);
+
+            Method method = method(ossClientClz, "listMultipartUploads", ListMultipartUploadsRequestClz);
+            Object ret = method.invoke(this.ossClient, listMultipartUploadsRequest);
+            return converter.convert(ret, MultipartUploadListing.class);
+        } catch (Exception e) {
+            handleException(e);
+            return null;
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public CompleteMultipartUploadResult completeMultipartUpload(String bucket, String key, String uploadId, List<PartETag> partETags, Configuration conf)
             throws IOException, ServiceException, ClientException {
         try {
-            Class PartETagClz = getUrlClassLoader(conf).loadClass("com.aliyun.oss.model.PartETag");
+            Class PartETagClz = loadClass("com.aliyun.oss.model.PartETag");
             List<Object> tags = new ArrayList<Object>();
             for(PartETag partETag: partETags) {
-                Constructor cons = PartETagClz.getConstructor(Integer.TYPE, String.class);
+                Constructor cons = constructor(PartETagClz, Integer.TYPE, String.class);
                 Object tag = cons.newInstance(partETag.getPartNumber(), partETag.getETag());
                 tags.add(tag);
             }
 
             Class CompleteMultipartUploadRequestClz =
-                    getUrlClassLoader(conf).loadClass("com.aliyun.oss.model.CompleteMultipartUploadRequest");
-            Constructor cons = CompleteMultipartUploadRequestClz.getConstructor(String.class, String.class, String.class, List.class);
+                    loadClass("com.aliyun.oss.model.CompleteMultipartUploadRequest");
+            Constructor cons = constructor(CompleteMultipartUploadRequestClz, String.class, String.class, String.class, List.class);
             Object completeMultipartUploadRequest = cons.newInstance(bucket, key, uploadId, tags);
 
-            Method method = this.ossClientClz.getMethod("completeMultipartUpload", CompleteMultipartUploadRequestClz);
+            Method method = method(ossClientClz, "completeMultipartUpload", CompleteMultipartUploadRequestClz);
             Object ret = method.invoke(this.ossClient, completeMultipartUploadRequest);
-            return gson.fromJson(gson.toJson(ret), CompleteMultipartUploadResult.class);
+            return converter.convert(ret, CompleteMultipartUploadResult.class);
         } catch (Exception e) {
             handleException(e);
             return null;
@@ -331,37 +460,49 @@ public class OSSClientAgent {
         try {
             instream = new FileInputStream(file);
             instream.skip(beginIndex);
+            return uploadPart(uploadId, bucket, key, partSize, partNumber, instream, conf);
+        } finally {
+            if (instream != null) {
+                try {
+                    instream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
 
-            Class UploadPartRequestClz = getUrlClassLoader(conf).loadClass("com.aliyun.oss.model.UploadPartRequest");
-            Constructor cons = UploadPartRequestClz.getConstructor();
+    @SuppressWarnings("unchecked")
+    public UploadPartResult uploadPart(String uploadId,
+                                       String bucket,
+                                       String key,
+                                       Long partSize,
+                                       int partNumber,
+                                       InputStream instream,
+                                       Configuration conf) throws IOException, ServiceException, ClientException {
+        try {
+            Class UploadPartRequestClz = loadClass("com.aliyun.oss.model.UploadPartRequest");
+            Constructor cons = constructor(UploadPartRequestClz);
             Object uploadPartRequest = cons.newInstance();
-            Method method0 = UploadPartRequestClz.getMethod("setBucketName", String.class);
+            Method method0 = method(UploadPartRequestClz, "setBucketName", String.class);
             method0.invoke(uploadPartRequest, bucket);
-            Method method1 = UploadPartRequestClz.getMethod("setKey", String.class);
+            Method method1 = method(UploadPartRequestClz, "setKey", String.class);
             method1.invoke(uploadPartRequest, key);
-            Method method2 = UploadPartRequestClz.getMethod("setUploadId", String.class);
+            Method method2 = method(UploadPartRequestClz, "setUploadId", String.class);
             method2.invoke(uploadPartRequest, uploadId);
-            Method method3 = UploadPartRequestClz.getMethod("setInputStream", InputStream.class);
+            Method method3 = method(UploadPartRequestClz, "setInputStream", InputStream.class);
             method3.invoke(uploadPartRequest, instream);
-            Method method4 = UploadPartRequestClz.getMethod("setPartSize", Long.TYPE);
+            Method method4 = method(UploadPartRequestClz, "setPartSize", Long.TYPE);
             method4.invoke(uploadPartRequest, partSize);
-            Method method5 = UploadPartRequestClz.getMethod("setPartNumber", Integer.TYPE);
+            Method method5 = method(UploadPartRequestClz, "setPartNumber", Integer.TYPE);
             method5.invoke(uploadPartRequest, partNumber);
 
-            Method method = this.ossClientClz.getMethod("uploadPart", UploadPartRequestClz);
+            Method method = method(ossClientClz, "uploadPart", UploadPartRequestClz);
             Object ret = method.invoke(this.ossClient, uploadPartRequest);
-            return gson.fromJson(gson.toJson(ret), UploadPartResult.class);
+            return converter.convert(ret, UploadPartResult.class);
         } catch (Exception e) {
             handleException(e);
             return null;
-        } finally {
-            if (instream != null) {
-                try {
-                    instream.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
         }
     }
 
@@ -377,21 +518,21 @@ public class OSSClientAgent {
                                                Configuration conf)
             throws IOException, ServiceException, ClientException {
         try {
-            Class UploadPartCopyRequestClz = getUrlClassLoader(conf).loadClass("com.aliyun.oss.model.UploadPartCopyRequest");
-            Constructor cons = UploadPartCopyRequestClz.getConstructor(String.class, String.class, String.class, String.class);
+            Class UploadPartCopyRequestClz = loadClass("com.aliyun.oss.model.UploadPartCopyRequest");
+            Constructor cons = constructor(UploadPartCopyRequestClz, String.class, String.class, String.class, String.class);
             Object uploadPartCopyRequest = cons.newInstance(srcBucket, srcKey, dstBucket, dstKey);
-            Method method0 = UploadPartCopyRequestClz.getMethod("setBeginIndex", Long.class);
+            Method method0 = method(UploadPartCopyRequestClz, "setBeginIndex", Long.class);
             method0.invoke(uploadPartCopyRequest, beginIndex);
-            Method method1 = UploadPartCopyRequestClz.getMethod("setUploadId", String.class);
+            Method method1 = method(UploadPartCopyRequestClz, "setUploadId", String.class);
             method1.invoke(uploadPartCopyRequest, uploadId);
-            Method method2 = UploadPartCopyRequestClz.getMethod("setPartSize", Long.class);
+            Method method2 = method(UploadPartCopyRequestClz, "setPartSize", Long.class);
             method2.invoke(uploadPartCopyRequest, partSize);
-            Method method3 = UploadPartCopyRequestClz.getMethod("setPartNumber", Integer.TYPE);
+            Method method3 = method(UploadPartCopyRequestClz, "setPartNumber", Integer.TYPE);
             method3.invoke(uploadPartCopyRequest, partNumber);
 
-            Method method = this.ossClientClz.getMethod("uploadPartCopy", UploadPartCopyRequestClz);
+            Method method = method(ossClientClz, "uploadPartCopy", UploadPartCopyRequestClz);
             Object ret = method.invoke(this.ossClient, uploadPartCopyRequest);
-            return gson.fromJson(gson.toJson(ret), UploadPartCopyResult.class);
+            return converter.convert(ret, UploadPartCopyResult.class);
         } catch (Exception e) {
             handleException(e);
             return null;
@@ -402,15 +543,15 @@ public class OSSClientAgent {
     private Object initializeOSSClientConfig(Configuration conf, Class ClientConfigurationClz)
             throws IOException, ServiceException, ClientException {
         try {
-            Constructor cons = ClientConfigurationClz.getConstructor();
+            Constructor cons = constructor(ClientConfigurationClz);
             Object clientConfiguration = cons.newInstance();
-            Method method0 = ClientConfigurationClz.getMethod("setConnectionTimeout", Integer.TYPE);
+            Method method0 = method(ClientConfigurationClz, "setConnectionTimeout", Integer.TYPE);
             method0.invoke(clientConfiguration, conf.getInt("fs.oss.client.connection.timeout", ClientConfiguration.DEFAULT_CONNECTION_TIMEOUT));
-            Method method1 = ClientConfigurationClz.getMethod("setSocketTimeout", Integer.TYPE);
+            Method method1 = method(ClientConfigurationClz, "setSocketTimeout", Integer.TYPE);
             method1.invoke(clientConfiguration, conf.getInt("fs.oss.client.socket.timeout", ClientConfiguration.DEFAULT_SOCKET_TIMEOUT));
-            Method method2 = ClientConfigurationClz.getMethod("setConnectionTTL", Long.TYPE);
+            Method method2 = method(ClientConfigurationClz, "setConnectionTTL", Long.TYPE);
             method2.invoke(clientConfiguration, conf.getLong("fs.oss.client.connection.ttl", ClientConfiguration.DEFAULT_CONNECTION_TTL));
-            Method method3 = ClientConfigurationClz.getMethod("setMaxConnections", Integer.TYPE);
+            Method method3 = method(ClientConfigurationClz, "setMaxConnections", Integer.TYPE);
             method3.invoke(clientConfiguration, conf.getInt("fs.oss.connection.max", ClientConfiguration.DEFAULT_MAX_CONNECTIONS));
 
             return clientConfiguration;
@@ -424,9 +565,17 @@ public class OSSClientAgent {
         if (e instanceof InvocationTargetException) {
             Throwable t = ((InvocationTargetException) e).getTargetException();
             if (t instanceof ServiceException) {
-                throw new ServiceException(t.getMessage(), t.getCause());
+                throw (ServiceException) t;
             } else if (t instanceof ClientException) {
-                throw new ClientException(t.getMessage(), t.getCause());
+                throw (ClientException) t;
+            } else if (isInstanceOf(t, "com.aliyun.oss.ServiceException")) {
+                // thrown by the isolated OSS SDK, keep the error code so that callers can tell a
+                // missing key or an invalid range from other errors
+                throw new ServiceException((String) invokeGetter(t, "getErrorMessage"),
+                        (String) invokeGetter(t, "getErrorCode"), (String) invokeGetter(t, "getRequestId"),
+                        (String) invokeGetter(t, "getHostId"), t);
+            } else if (isInstanceOf(t, "com.aliyun.oss.ClientException")) {
+                throw new ClientException(t.getMessage(), t);
             } else {
                 throw new IOException(e);
             }
@@ -435,85 +584,20 @@ public class OSSClientAgent {
         }
     }
 
-    private static class NaturalDeserializer implements JsonDeserializer<Object> {
-        public Object deserialize(JsonElement json, Type typeOfT,
-                                  JsonDeserializationContext context) {
-            if(json.isJsonNull()) return null;
-            else if(json.isJsonPrimitive()) return handlePrimitive(json.getAsJsonPrimitive());
-            else if(json.isJsonArray()) return handleArray(json.getAsJsonArray(), context);
-            else return handleObject(json.getAsJsonObject(), context);
-        }
-        private Object handlePrimitive(JsonPrimitive json) {
-            if(json.isBoolean())
-                return json.getAsBoolean();
-            else if(json.isString())
-                return json.getAsString();
-            else {
-                BigDecimal bigDec = json.getAsBigDecimal();
-                // Find out if it is an int type
-                try {
-                    bigDec.toBigIntegerExact();
-                    try {
-                        return bigDec.intValueExact();
-                    } catch(ArithmeticException e) {}
-                    return bigDec.longValue();
-                } catch(ArithmeticException e) {}
-                // Just return it as a double
-                return bigDec.doubleValue();
+    private static boolean isInstanceOf(Throwable t, String className) {
+        for (Class clz = t.getClass(); clz != null; clz = clz.getSuperclass()) {
+            if (clz.getName().equals(className)) {
+                return true;
             }
         }
-        private Object handleArray(JsonArray json, JsonDeserializationContext context) {
-            Object[] array = new Object[json.size()];
-            for(int i = 0; i < array.length; i++)
-                array[i] = context.deserialize(json.get(i), Object.class);
-            return array;
-        }
-        private Object handleObject(JsonObject json, JsonDeserializationContext context) {
-            Map<String, Object> map = new HashMap<String, Object>();
-            for(Map.Entry<String, JsonElement> entry : json.entrySet())
-                map.put(entry.getKey(), context.deserialize(entry.getValue(), Object.class));
-            return map;
-        }
+        return false;
     }
 
-    private static class ObjectMetadataDeserializer implements JsonDeserializer<ObjectMetadata> {
-        private DateFormat df = new SimpleDateFormat("MMM d, yyyy K:mm:ss a", Locale.ENGLISH);
-
-        public ObjectMetadata deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) {
-            ObjectMetadata objectMetadata = new ObjectMetadata();
-            JsonObject obj = json.getAsJsonObject();
-            Iterator<Map.Entry<String, JsonElement>> it = obj.entrySet().iterator();
-            Map.Entry<String, JsonElement> userMetadataEntry = it.next();
-            if (userMetadataEntry == null) {
-                return null;
-            }
-
-            Map<String, String> userMetadata = new HashMap<String, String>();
-            JsonObject json0 = userMetadataEntry.getValue().getAsJsonObject();
-            for(Map.Entry<String, JsonElement> entry0: json0.entrySet()) {
-                userMetadata.put(entry0.getKey(), entry0.getValue().getAsString());
-            }
-            objectMetadata.setUserMetadata(userMetadata);
-            Map.Entry<String, JsonElement> metaDataEntry = it.next();
-            JsonObject json1 = metaDataEntry.getValue().getAsJsonObject();
-            Date date;
-            Long l;
-            for(Map.Entry<String, JsonElement> entry1: json1.entrySet()) {
-                String key = entry1.getKey();
-                String value = entry1.getValue().getAsString();
-                try{
-                    date = df.parse(value);
-                    objectMetadata.setHeader(key, date);
-                } catch (ParseException e0) {
-                    try {
-                        l = Long.parseLong(value);
-                        objectMetadata.setHeader(key, l);
-                    } catch (NumberFormatException e1) {
-                        objectMetadata.setHeader(key, value);
-                    }
-                }
-            }
-            return objectMetadata;
+    private Object invokeGetter(Object target, String getter) {
+        try {
+            return method(target.getClass(), getter).invoke(target);
+        } catch (Exception e) {
+            return null;
         }
     }
 
@@ -0,0 +1,230 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.utils;
+
+import com.google.gson.Gson;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts the OSS SDK model objects loaded by the isolated OSS class loader into their
+ * counterparts of the local class loader, by copying them field by field. The fields to copy
+ * are resolved once per class. Classes without a no-arg constructor fall back to a Gson
+ * round-trip. The two SDKs may differ in version: the fields missing from the local class, or
+ * whose type does not match, are left to the defaults of its constructor.
+ */
+public class OSSModelConverter {
+    private static final Log LOG = LogFactory.getLog(OSSModelConverter.class);
+
+    private final ClassLoader localClassLoader;
+    private final ConcurrentHashMap<Class<?>, Mapping> mappings = new ConcurrentHashMap<Class<?>, Mapping>();
+    private final Gson gson = new Gson();
+
+    public OSSModelConverter() {
+        this(OSSModelConverter.class.getClassLoader());
+    }
+
+    public OSSModelConverter(ClassLoader localClassLoader) {
+        this.localClassLoader = localClassLoader;
+    }
+
+    private static class Mapping {
+        Class<?> target;
+        Constructor<?> constructor;
+        Field[] sourceFields;
+        Field[] targetFields;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T convert(Object value, Class<T> type) throws Exception {
+        return (T) convert(value);
+    }
+
+    private boolean isForeign(Class<?> clz) {
+        ClassLoader loader = clz.getClassLoader();
+        return loader != null && loader != localClassLoader;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object convert(Object value) throws Exception {
+        if (value == null) {
+            return null;
+        }
+        Class<?> clz = value.getClass();
+        if (value instanceof Collection) {
+            return convertCollection((Collection<Object>) value, null);
+        } else if (value instanceof Map) {
+            return convertMap((Map<Object, Object>) value, null);
+        } else if (!isForeign(clz)) {
+            return value;
+        } else if (clz.isEnum()) {
+            return Enum.valueOf((Class) localClassLoader.loadClass(clz.getName()), ((Enum) value).name());
+        } else if (clz.isArray()) {
+            int length = Array.getLength(value);
+            Object array = Array.newInstance(localClassLoader.loadClass(clz.getComponentType().getName()), length);
+            for (int i = 0; i < length; i++) {
+                Array.set(array, i, convert(Array.get(value, i)));
+            }
+            return array;
+        } else if (clz.isAnonymousClass() || clz.isLocalClass()) {
+            // not mappable by name, as Gson does
+            return null;
+        }
+
+        Mapping mapping = getMapping(clz);
+        if (mapping.constructor == null) {
+            return gson.fromJson(gson.toJson(value), mapping.target);
+        }
+        Object target = mapping.constructor.newInstance();
+        for (int i = 0; i < mapping.sourceFields.length; i++) {
+            Object fieldValue = mapping.sourceFields[i].get(value);
+            Field targetField = mapping.targetFields[i];
+            if (fieldValue instanceof Collection || fieldValue instanceof Map) {
+                // keep the collection chosen by the target constructor, e.g. a case insensitive map
+                Object current = targetField.get(target);
+                if (fieldValue instanceof Collection) {
+                    fieldValue = convertCollection((Collection<Object>) fieldValue,
+                            current instanceof Collection ? (Collection<Object>) current : null);
+                } else {
+                    fieldValue = convertMap((Map<Object, Object>) fieldValue,
+                            current instanceof Map ? (Map<Object, Object>) current : null);
+                }
+            } else if (fieldValue != null) {
+                fieldValue = convert(fieldValue);
+                if (fieldValue == null) {
+                    // keep the default of the target constructor
+                    continue;
+                }
+            }
+            targetField.set(target, fieldValue);
+        }
+        return target;
+    }
+
+    private Collection<Object> convertCollection(Collection<Object> source, Collection<Object> target)
+            throws Exception {
+        if (target != null) {
+            try {
+                target.clear();
+            } catch (UnsupportedOperationException e) {
+                target = null;
+            }
+        }
+        if (target == null) {
+            target = source instanceof Set ? new LinkedHashSet<Object>() : new ArrayList<Object>(source.size());
+        }
+        for (Object element : source) {
+            target.add(convert(element));
+        }
+        return target;
+    }
+
+    private Map<Object, Object> convertMap(Map<Object, Object> source, Map<Object, Object> target)
+            throws Exception {
+        if (target != null) {
+            try {
+                target.clear();
+            } catch (UnsupportedOperationException e) {
+                target = null;
+            }
+        }
+        if (target == null) {
+            target = new LinkedHashMap<Object, Object>();
+        }
+        for (Map.Entry<Object, Object> entry : source.entrySet()) {
+            target.put(convert(entry.getKey()), convert(entry.getValue()));
+        }
+        return target;
+    }
+
+    private Mapping getMapping(Class<?> source) throws Exception {
+        Mapping mapping = mappings.get(source);
+        if (mapping != null) {
+            return mapping;
+        }
+
+        mapping = new Mapping();
+        mapping.target = localClassLoader.loadClass(source.getName());
+        try {
+            mapping.constructor = mapping.target.getDeclaredConstructor();
+            mapping.constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            mapping.constructor = null;
+        }
+        List<Field> sourceFields = new ArrayList<Field>();
+        List<Field> targetFields = new ArrayList<Field>();
+        for (Class<?> clz = source; clz != null && clz != Object.class; clz = clz.getSuperclass()) {
+            Class<?> targetClz = localClassLoader.loadClass(clz.getName());
+            for (Field field : clz.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                Field targetField;
+                try {
+                    targetField = targetClz.getDeclaredField(field.getName());
+                } catch (NoSuchFieldException e) {
+                    LOG.debug("Skip field " + field + " missing from the local " + targetClz);
+                    continue;
+                }
+                if (Modifier.isStatic(targetField.getModifiers()) ||
+                        !isAssignable(field.getType(), targetField.getType())) {
+                    LOG.debug("Skip field " + field + " of another type than " + targetField);
+                    continue;
+                }
+                field.setAccessible(true);
+                targetField.setAccessible(true);
+                sourceFields.add(field);
+                targetFields.add(targetField);
+            }
+        }
+        mapping.sourceFields = sourceFields.toArray(new Field[sourceFields.size()]);
+        mapping.targetFields = targetFields.toArray(new Field[targetFields.size()]);
+        mappings.putIfAbsent(source, mapping);
+        return mapping;
+    }
+
+    /**
+     * @return whether the values of a field of `sourceType` can be converted into `targetType`.
+     */
+    private boolean isAssignable(Class<?> sourceType, Class<?> targetType) {
+        if (sourceType == targetType) {
+            return true;
+        } else if (sourceType.isPrimitive() || targetType.isPrimitive()) {
+            return false;
+        }
+        try {
+            return targetType.isAssignableFrom(Class.forName(sourceType.getName(), false, localClassLoader));
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -17,12 +17,25 @@
  */
 package com.aliyun.fs.oss.utils;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import java.io.IOException;
 
+/**
+ * A task of a {@link TaskEngine}. An IOException thrown by execute() is retried as set by
+ * {@link TaskEngine#setRetryPolicy(int, long)}, then fails the task and cancels the tasks of the
+ * engine which have not started yet.
+ */
 public abstract class Task implements Runnable {
+    private static final Log LOG = LogFactory.getLog(Task.class);
 
     private TaskEngine taskEngine;
 
+    private final SettableFuture<Object> future = SettableFuture.create();
+
     protected Object response;
 
     protected String uuid = this.toString();
@@ -39,15 +52,46 @@ public abstract class Task implements Runnable {
         this.uuid = uuid;
     }
 
+    /**
+     * @return the response of the task once it succeeded.
+     */
+    public ListenableFuture<Object> getFuture() {
+        return future;
+    }
+
     @Override
     public void run() {
         try {
-            execute(taskEngine);
-        } catch (IOException e) {
-            e.printStackTrace();
+            for (int attempt = 0; ; attempt++) {
+                if (taskEngine.isFailed()) {
+                    // a sibling failed, no need to go on
+                    future.cancel(false);
+                    break;
+                }
+                try {
+                    execute(taskEngine);
+                    future.set(response);
+                    break;
+                } catch (IOException e) {
+                    if (!taskEngine.shouldRetry(e, attempt)) {
+                        future.setException(e);
+                        taskEngine.fail(e);
+                        break;
+                    }
+                    LOG.warn("Task " + uuid + " failed, retrying (attempt " + (attempt + 1) + "): " + e);
+                }
+            }
+        } catch (RuntimeException e) {
+            future.setException(e);
+            taskEngine.fail(e);
+        } catch (Error e) {
+            future.setException(e);
+            taskEngine.fail(e);
+            throw e;
+        } finally {
+            taskEngine.registerResponse(uuid, response);
+            taskEngine.reportCompleted();
         }
-        taskEngine.registerResponse(uuid, response);
-        taskEngine.reportCompleted();
     }
 
     public abstract void execute(TaskEngine engineRef) throws IOException;
@@ -17,25 +17,124 @@
  */
 package com.aliyun.fs.oss.utils;
 
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
+/**
+ * Runs a list of tasks on the JVM-wide {@link TransferScheduler}, at most `maxSize` at a time,
+ * or all at once on its stream pool for tasks which last as long as a stream.
+ *
+ * Every task is retried on its own as set by {@link #setRetryPolicy(int, long)}. The first task
+ * failing for good fails the engine: the tasks which have not started yet are cancelled, and
+ * {@link #awaitResponses()} throws its exception once the running ones are over.
+ */
 public class TaskEngine {
-    private ExecutorService executorService;
+    private static final long MAX_RETRY_SLEEP_MS = 30000L;
+
+    private Executor executor;
 
     private CountDownLatch unCompletedTask;
 
     private List<Task> taskList;
 
+    private boolean started = false;
+
+    private int maxRetries = 0;
+
+    private long retrySleepMs = 0L;
+
+    private volatile Throwable failure;
+
     private Map<String,Object> resultMap = new HashMap<String,Object>();
 
-    public TaskEngine(List<Task> taskList, int coreSize, int maxSize) {
+    /**
+     * @param conf the configuration of the caller, which sizes the {@link TransferScheduler} if
+     *             it is the first one to use it.
+     */
+    public TaskEngine(List<Task> taskList, int maxSize, Configuration conf) {
+        this(taskList, TransferScheduler.get(conf).newLimitedExecutor(maxSize));
+    }
+
+    /**
+     * @deprecated the tasks run on the threads of the {@link TransferScheduler}, `coreSize` is
+     *             ignored, use {@link #TaskEngine(List, int, Configuration)}.
+     */
+    @Deprecated
+    public TaskEngine(List<Task> taskList, int coreSize, int maxSize, Configuration conf) {
+        this(taskList, maxSize, conf);
+    }
+
+    /**
+     * @param streaming whether the tasks last as long as a stream, e.g. prefetch readers.
+     */
+    public TaskEngine(List<Task> taskList, int maxSize, boolean streaming, Configuration conf) {
+        this(taskList, streaming ? newStreamingExecutor(TransferScheduler.get(conf)) :
+                TransferScheduler.get(conf).newLimitedExecutor(maxSize));
+    }
+
+    private static Executor newStreamingExecutor(final TransferScheduler scheduler) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                scheduler.executeStreaming(task);
+            }
+        };
+    }
+
+    private TaskEngine(List<Task> taskList, Executor executor) {
         this.taskList = taskList;
+        this.executor = executor;
         unCompletedTask = new CountDownLatch(taskList.size());
-        executorService = new ThreadPoolExecutor(coreSize, maxSize, 60L, TimeUnit.SECONDS,
-                    new LinkedBlockingQueue<Runnable>());
+    }
+
+    /**
+     * Retries a failed task up to `maxRetries` times, sleeping `retrySleepMs` before the first
+     * retry and twice as long before each next one.
+     */
+    public void setRetryPolicy(int maxRetries, long retrySleepMs) {
+        this.maxRetries = Math.max(maxRetries, 0);
+        this.retrySleepMs = Math.max(retrySleepMs, 0L);
+    }
+
+    boolean shouldRetry(IOException e, int attempt) {
+        if (attempt >= maxRetries || isFailed() || e instanceof FileNotFoundException ||
+                e instanceof EOFException || e instanceof InterruptedIOException) {
+            return false;
+        }
+        try {
+            Thread.sleep(Math.min(retrySleepMs << Math.min(attempt, 16), MAX_RETRY_SLEEP_MS));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !isFailed();
+    }
+
+    void fail(Throwable t) {
+        synchronized (this) {
+            if (failure != null) {
+                return;
+            }
+            failure = t;
+        }
+        for (Task task : taskList) {
+            task.getFuture().cancel(false);
+        }
+    }
+
+    public boolean isFailed() {
+        return failure != null;
     }
 
     public void reportCompleted() {
@@ -51,18 +150,56 @@ public class TaskEngine {
         return resultMap;
     }
 
+    /**
+     * Waits for all the tasks to complete.
+     * @return the responses of the tasks, in order.
+     * @throws IOException the failure of the first task which failed for good.
+     */
+    public List<Object> awaitResponses() throws IOException {
+        try {
+            unCompletedTask.await();
+        } catch (InterruptedException e) {
+            fail(e);
+            throw new InterruptedIOException("Interrupted while waiting for " + taskList.size() + " tasks");
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
+        List<Object> responses = new ArrayList<Object>(taskList.size());
+        for (Task task : taskList) {
+            try {
+                responses.add(task.getFuture().get());
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for task " + task.getUuid());
+            } catch (ExecutionException e) {
+                // not reached, a failed task fails the engine
+                throw new IOException(e.getCause());
+            }
+        }
+        return responses;
+    }
+
     public void executeTask() {
+        started = true;
         for(Task task : taskList) {
             task.setTaskEngine(this);
-            executorService.execute(task);
+            executor.execute(task);
         }
     }
 
+    /**
+     * Waits for all the tasks to complete.
+     */
     public void shutdown() {
-        this.executorService.shutdown();
-        for(;;) {
-            if(this.executorService.isTerminated())
-                break;
+        if (!started) {
+            return;
+        }
+        try {
+            unCompletedTask.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
-}
\ No newline at end of file
+}
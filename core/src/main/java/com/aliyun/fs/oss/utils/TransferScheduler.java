@@ -0,0 +1,230 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JVM-wide threads for all the OSS transfers: ranged reads, part uploads and part copies run on
+ * a pool of `fs.oss.transfer.threads` threads (default 64). Every operation gets a
+ * {@link #newLimitedExecutor(int) limited executor}, which keeps at most its own share of tasks
+ * queued or running in the pool, so that a large operation does not starve the others.
+ *
+ * The prefetch readers of the input streams live as long as their stream and could block each
+ * other behind a queue, they run on a separate pool without queue, whose idle threads are reused,
+ * of at most `fs.oss.stream.threads` threads (default 1024). Once they are all busy, opening a
+ * stream fails with a {@link RejectedExecutionException} rather than wait for another stream
+ * to be closed, which may never happen. A limited executor of the stream pool which has tasks
+ * running keeps the tasks it gets no thread for until one of them is done.
+ */
+public class TransferScheduler {
+    public static final String TRANSFER_THREADS = "fs.oss.transfer.threads";
+    public static final String STREAM_THREADS = "fs.oss.stream.threads";
+
+    private static TransferScheduler instance;
+
+    private final ThreadPoolExecutor transferPool;
+    private final ThreadPoolExecutor streamPool;
+
+    TransferScheduler(int threads, int streamThreads) {
+        transferPool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oss-transfer-%d").build());
+        transferPool.allowCoreThreadTimeOut(true);
+        streamPool = new ThreadPoolExecutor(0, streamThreads, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oss-stream-%d").build());
+    }
+
+    /**
+     * @return the scheduler of the JVM, created with `conf` on the first call.
+     */
+    public static synchronized TransferScheduler get(Configuration conf) {
+        if (instance == null) {
+            instance = new TransferScheduler(Math.max(conf.getInt(TRANSFER_THREADS, 64), 1),
+                    Math.max(conf.getInt(STREAM_THREADS, 1024), 1));
+        }
+        return instance;
+    }
+
+    public void execute(Runnable task) {
+        transferPool.execute(task);
+    }
+
+    public <T> Future<T> submit(Callable<T> task) {
+        FutureTask<T> future = new FutureTask<T>(task);
+        transferPool.execute(future);
+        return future;
+    }
+
+    /**
+     * Runs a task which lasts as long as a stream, e.g. a prefetch reader.
+     */
+    public void executeStreaming(Runnable task) {
+        executeOn(streamPool, task);
+    }
+
+    /**
+     * Only the stream pool rejects tasks, the transfer pool queues them.
+     */
+    private static void executeOn(Executor pool, Runnable task) {
+        try {
+            pool.execute(task);
+        } catch (RejectedExecutionException e) {
+            throw new RejectedExecutionException("All the stream threads are busy, see '" + STREAM_THREADS + "'", e);
+        }
+    }
+
+    /**
+     * @return an executor running its tasks in the transfer pool, at most `maxConcurrent` at a time.
+     */
+    public Executor newLimitedExecutor(int maxConcurrent) {
+        return newLimitedExecutor(maxConcurrent, false);
+    }
+
+    /**
+     * @param streaming whether the tasks run in the stream pool, which is the case of tasks waiting
+     *                  for other transfers, e.g. copies of objects split into part copies.
+     */
+    public Executor newLimitedExecutor(int maxConcurrent, boolean streaming) {
+        return new LimitedExecutor(streaming ? streamPool : transferPool, Math.max(maxConcurrent, 1));
+    }
+
+    /**
+     * @return the number of transfer tasks waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return transferPool.getQueue().size();
+    }
+
+    public int getActiveTransferThreads() {
+        return transferPool.getActiveCount();
+    }
+
+    public int getActiveStreamThreads() {
+        return streamPool.getActiveCount();
+    }
+
+    /**
+     * @return the number of threads of the stream pool, busy or idle.
+     */
+    public int getStreamThreads() {
+        return streamPool.getPoolSize();
+    }
+
+    public int getMaxStreamThreads() {
+        return streamPool.getMaximumPoolSize();
+    }
+
+    public long getCompletedTransfers() {
+        return transferPool.getCompletedTaskCount();
+    }
+
+    @Override
+    public String toString() {
+        return "TransferScheduler[queued=" + getQueueDepth() + ", activeTransfers=" + getActiveTransferThreads() +
+                ", activeStreams=" + getActiveStreamThreads() + ", streamThreads=" + getStreamThreads() + "/" +
+                getMaxStreamThreads() + ", completedTransfers=" + getCompletedTransfers() + "]";
+    }
+
+    private static class LimitedExecutor implements Executor {
+        private final Executor pool;
+        private final int maxConcurrent;
+        private final Queue<Runnable> pending = new LinkedList<Runnable>();
+        private int running = 0;
+
+        LimitedExecutor(Executor pool, int maxConcurrent) {
+            this.pool = pool;
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            synchronized (this) {
+                if (running >= maxConcurrent) {
+                    pending.add(task);
+                    return;
+                }
+                running++;
+            }
+            try {
+                dispatch(task);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    running--;
+                    if (running > 0) {
+                        // one of the running tasks takes it over once done
+                        pending.add(task);
+                        return;
+                    }
+                }
+                throw e;
+            }
+        }
+
+        private void dispatch(final Runnable task) {
+            executeOn(pool, new Runnable() {
+                @Override
+                public void run() {
+                    Runnable current = task;
+                    while (current != null) {
+                        try {
+                            current.run();
+                        } finally {
+                            current = next();
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Hands the slot of a task over to the next pending one.
+         * @return the next task if it has to run in the current thread, as the pool is full.
+         */
+        private Runnable next() {
+            Runnable next;
+            synchronized (this) {
+                next = pending.poll();
+                if (next == null) {
+                    running--;
+                    return null;
+                }
+            }
+            try {
+                dispatch(next);
+                return null;
+            } catch (RejectedExecutionException e) {
+                return next;
+            }
+        }
+    }
+}
@@ -23,6 +23,8 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 public class Utils {
@@ -59,4 +61,17 @@ public class Utils {
         LOG.debug("choose oss buffer dir: "+diskPath);
         return new File(diskPath, "data/"+loginUser+"/oss");
     }
+
+    /**
+     * @return the directory `name` on every disk of `dfs.datanode.data.dir`.
+     */
+    public static List<File> getLocalDirs(Configuration conf, String name) {
+        List<File> dirs = new ArrayList<File>();
+        for (String dataDir : conf.get("dfs.datanode.data.dir", "file:///tmp/").split(",")) {
+            if (dataDir.trim().length() > 0) {
+                dirs.add(new File(new Path(dataDir.trim()).toUri().getPath(), "data/" + loginUser + "/" + name));
+            }
+        }
+        return dirs;
+    }
 }
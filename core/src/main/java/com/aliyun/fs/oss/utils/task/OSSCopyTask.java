@@ -24,6 +24,8 @@ import com.aliyun.fs.oss.utils.TaskEngine;
 import com.aliyun.oss.model.UploadPartCopyResult;
 import org.apache.hadoop.conf.Configuration;
 
+import java.io.IOException;
+
 public class OSSCopyTask extends Task {
     OSSClientAgent ossClient;
     private String uploadId;
@@ -59,17 +61,19 @@ public class OSSCopyTask extends Task {
     }
 
     @Override
-    public void execute(TaskEngine engineRef) {
+    public void execute(TaskEngine engineRef) throws IOException {
         Result result = new Result();
         try {
             UploadPartCopyResult uploadPartCopyResult = ossClient.uploadPartCopy(uploadId, srcBucket, dstBucket, srcKey,
                     dstKey, partSize, beginIndex, partNumber, conf);
             result.getModels().put("uploadPartCopyResult", uploadPartCopyResult);
-            // TODO: fail?
             result.setSuccess(true);
             this.response = result;
+        } catch (IOException e) {
+            throw e;
         } catch (Exception e) {
-            e.printStackTrace();
+            // retried by the engine
+            throw new IOException("Failed to copy part " + partNumber + " of upload " + uploadId, e);
         }
     }
 }
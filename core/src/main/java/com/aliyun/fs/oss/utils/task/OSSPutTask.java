@@ -58,17 +58,19 @@ public class OSSPutTask extends Task {
     }
 
     @Override
-    public void execute(TaskEngine engineRef) {
+    public void execute(TaskEngine engineRef) throws IOException {
         Result result = new Result();
         try {
             UploadPartResult uploadPartResult = ossClient.uploadPart(uploadId, bucket, key, partSize, beginIndex,
                     partNumber, localFile, conf);
             result.getModels().put("uploadPartResult", uploadPartResult);
-            // TODO: fail?
             result.setSuccess(true);
             this.response = result;
+        } catch (IOException e) {
+            throw e;
         } catch (Exception e) {
-            e.printStackTrace();
+            // retried by the engine
+            throw new IOException("Failed to upload part " + partNumber + " of upload " + uploadId, e);
         }
     }
 }
@@ -24,20 +24,36 @@ import org.apache.hadoop.conf.Configuration;
 import java.io.*;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class InMemoryNativeFileSystemStore implements NativeFileSystemStore {
     private Configuration conf;
 
     private SortedMap<String, FileMetadata> metadataMap =
-            new TreeMap<String, FileMetadata>();
-    private SortedMap<String, byte[]> dataMap = new TreeMap<String, byte[]>();
+            new ConcurrentSkipListMap<String, FileMetadata>();
+    private SortedMap<String, byte[]> dataMap = new ConcurrentSkipListMap<String, byte[]>();
+    private AtomicInteger metadataRequests = new AtomicInteger();
+    private AtomicInteger rangeRequests = new AtomicInteger();
+    private AtomicLong rangeBytes = new AtomicLong();
+    private AtomicInteger listRequests = new AtomicInteger();
+    private AtomicInteger deleteRequests = new AtomicInteger();
+    private ConcurrentMap<String, ConcurrentMap<Integer, byte[]>> multipartUploads =
+            new ConcurrentHashMap<String, ConcurrentMap<Integer, byte[]>>();
+    private AtomicInteger uploadIds = new AtomicInteger();
+    private AtomicInteger uploadedParts = new AtomicInteger();
+    private AtomicInteger abortedUploads = new AtomicInteger();
+    private volatile int failPartNumber = -1;
 
     public void initialize(URI uri, Configuration conf) throws Exception {
         this.conf = conf;
     }
 
     public void storeEmptyFile(String key) throws IOException {
-        metadataMap.put(key, new FileMetadata(key, 0, System.currentTimeMillis()));
+        metadataMap.put(key, new FileMetadata(key, 0, System.currentTimeMillis(), eTag(new byte[0])));
         dataMap.put(key, new byte[0]);
     }
 
@@ -58,14 +74,139 @@ public class InMemoryNativeFileSystemStore implements NativeFileSystemStore {
                 in.close();
             }
         }
+        byte[] data = out.toByteArray();
         metadataMap.put(key,
-                new FileMetadata(key, file.length(), System.currentTimeMillis()));
-        dataMap.put(key, out.toByteArray());
+                new FileMetadata(key, file.length(), System.currentTimeMillis(), eTag(data)));
+        dataMap.put(key, data);
+    }
+
+    public String initiateMultipartUpload(String key) throws IOException {
+        String uploadId = key + "#" + uploadIds.incrementAndGet();
+        multipartUploads.put(uploadId, new ConcurrentHashMap<Integer, byte[]>());
+        return uploadId;
+    }
+
+    public String uploadPart(String key, String uploadId, int partNumber, UploadBuffer buffer) throws IOException {
+        ConcurrentMap<Integer, byte[]> parts = multipartUploads.get(uploadId);
+        if (parts == null) {
+            throw new IOException("No such upload " + uploadId);
+        }
+        if (partNumber == failPartNumber) {
+            throw new IOException("Failed to upload part " + partNumber);
+        }
+        byte[] data = readFully(buffer.openStream());
+        parts.put(partNumber, data);
+        uploadedParts.incrementAndGet();
+        return eTag(data);
+    }
+
+    public List<String> uploadParts(String key, String uploadId, File file) throws IOException {
+        ConcurrentMap<Integer, byte[]> parts = multipartUploads.get(uploadId);
+        if (parts == null) {
+            throw new IOException("No such upload " + uploadId);
+        }
+        if (failPartNumber == 1) {
+            abortMultipartUpload(key, uploadId);
+            throw new IOException("Failed to upload part 1");
+        }
+        byte[] data = readFully(new FileInputStream(file));
+        parts.put(1, data);
+        uploadedParts.incrementAndGet();
+        return Collections.singletonList(eTag(data));
+    }
+
+    public synchronized void completeMultipartUpload(String key, String uploadId, List<String> partETags)
+            throws IOException {
+        ConcurrentMap<Integer, byte[]> parts = multipartUploads.remove(uploadId);
+        if (parts == null) {
+            throw new IOException("No such upload " + uploadId);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < partETags.size(); i++) {
+            byte[] part = parts.get(i + 1);
+            if (part == null || !eTag(part).equals(partETags.get(i))) {
+                throw new IOException("Invalid part " + (i + 1) + " of upload " + uploadId);
+            }
+            out.write(part);
+        }
+        byte[] data = out.toByteArray();
+        metadataMap.put(key, new FileMetadata(key, data.length, System.currentTimeMillis(), eTag(data)));
+        dataMap.put(key, data);
+    }
+
+    public void abortMultipartUpload(String key, String uploadId) throws IOException {
+        if (multipartUploads.remove(uploadId) != null) {
+            abortedUploads.incrementAndGet();
+        }
+    }
+
+    public Map<String, String> listMultipartUploads(String prefix) throws IOException {
+        Map<String, String> uploads = new TreeMap<String, String>();
+        for (String uploadId : multipartUploads.keySet()) {
+            String key = uploadId.substring(0, uploadId.lastIndexOf('#'));
+            if (key.startsWith(prefix)) {
+                uploads.put(uploadId, key);
+            }
+        }
+        return uploads;
+    }
+
+    /**
+     * Makes the upload of all the parts numbered `partNumber` fail, -1 to disable.
+     */
+    public void setFailPartNumber(int partNumber) {
+        this.failPartNumber = partNumber;
+    }
+
+    public int getStartedUploads() {
+        return uploadIds.get();
+    }
+
+    public int getPendingUploads() {
+        return multipartUploads.size();
+    }
+
+    public int getUploadedParts() {
+        return uploadedParts.get();
+    }
+
+    public int getAbortedUploads() {
+        return abortedUploads.get();
+    }
+
+    private static String eTag(byte[] data) {
+        return Integer.toHexString(Arrays.hashCode(data));
+    }
+
+    public void storeFile(String key, UploadBuffer buffer, boolean append) throws IOException {
+        byte[] data = readFully(buffer.openStream());
+        metadataMap.put(key, new FileMetadata(key, data.length, System.currentTimeMillis(), eTag(data)));
+        dataMap.put(key, data);
     }
 
     @Override
     public void storeFiles(String key, List<File> files, boolean append) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (File file : files) {
+            out.write(readFully(new FileInputStream(file)));
+        }
+        byte[] data = out.toByteArray();
+        metadataMap.put(key, new FileMetadata(key, data.length, System.currentTimeMillis(), eTag(data)));
+        dataMap.put(key, data);
+    }
 
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        try {
+            int numRead;
+            while ((numRead = in.read(buf)) >= 0) {
+                out.write(buf, 0, numRead);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
     }
 
     public InputStream retrieve(String key) throws IOException {
@@ -92,7 +233,26 @@ public class InMemoryNativeFileSystemStore implements NativeFileSystemStore {
 
     @Override
     public InputStream retrieve(String key, long byteRangeStart, long length) throws IOException {
-        return null;
+        return retrieve(key, byteRangeStart, length, null);
+    }
+
+    @Override
+    public InputStream retrieve(String key, long byteRangeStart, long length, String eTag) throws IOException {
+        rangeRequests.incrementAndGet();
+        byte[] data = dataMap.get(key);
+        if (data == null) {
+            throw new FileNotFoundException("Key '" + key + "' does not exist");
+        }
+        if (eTag != null && !eTag.equals(metadataMap.get(key).getETag())) {
+            throw new OssFileSystemException("Key '" + key + "' has been modified since it was opened");
+        }
+        if (byteRangeStart >= data.length && length > 0) {
+            throw new EOFException("Requested range is beyond the end of '" + key + "'");
+        }
+        int start = (int) Math.min(byteRangeStart, data.length);
+        int end = (int) Math.min(byteRangeStart + length, data.length);
+        rangeBytes.addAndGet(end - start);
+        return new ByteArrayInputStream(data, start, end - start);
     }
 
     private File createTempFile() throws IOException {
@@ -106,9 +266,30 @@ public class InMemoryNativeFileSystemStore implements NativeFileSystemStore {
     }
 
     public FileMetadata retrieveMetadata(String key) throws IOException {
+        metadataRequests.incrementAndGet();
         return metadataMap.get(key);
     }
 
+    public int getMetadataRequests() {
+        return metadataRequests.get();
+    }
+
+    public int getRangeRequests() {
+        return rangeRequests.get();
+    }
+
+    public long getRangeBytes() {
+        return rangeBytes.get();
+    }
+
+    public int getListRequests() {
+        return listRequests.get();
+    }
+
+    public int getDeleteRequests() {
+        return deleteRequests.get();
+    }
+
     public PartialListing list(String prefix, int maxListingLength)
             throws IOException {
         return list(prefix, maxListingLength, null, false);
@@ -122,6 +303,7 @@ public class InMemoryNativeFileSystemStore implements NativeFileSystemStore {
 
     private PartialListing list(String prefix, String delimiter,
                                 int maxListingLength, String priorLastKey) throws IOException {
+        listRequests.incrementAndGet();
 
         if (prefix.length() > 0 && !prefix.endsWith(NativeOssFileSystem.PATH_DELIMITER)) {
             prefix += NativeOssFileSystem.PATH_DELIMITER;
@@ -129,36 +311,67 @@ public class InMemoryNativeFileSystemStore implements NativeFileSystemStore {
 
         List<FileMetadata> metadata = new ArrayList<FileMetadata>();
         SortedSet<String> commonPrefixes = new TreeSet<String>();
-        for (String key : dataMap.keySet()) {
-            if (key.startsWith(prefix)) {
-                if (delimiter == null) {
-                    metadata.add(retrieveMetadata(key));
-                } else {
-                    int delimIndex = key.indexOf(delimiter, prefix.length());
-                    if (delimIndex == -1) {
-                        metadata.add(retrieveMetadata(key));
-                    } else {
-                        String commonPrefix = key.substring(0, delimIndex);
-                        commonPrefixes.add(commonPrefix);
-                    }
+        String lastEntry = null;
+        SortedMap<String, byte[]> keys = priorLastKey == null ? dataMap : dataMap.tailMap(priorLastKey);
+        for (String key : keys.keySet()) {
+            if (!key.startsWith(prefix)) {
+                continue;
+            }
+            // pages end after the key or the common prefix returned last, as on OSS
+            String entry = key;
+            if (delimiter != null) {
+                int delimIndex = key.indexOf(delimiter, prefix.length());
+                if (delimIndex != -1) {
+                    entry = key.substring(0, delimIndex + delimiter.length());
                 }
             }
+            if ((priorLastKey != null && entry.compareTo(priorLastKey) <= 0) || entry.equals(lastEntry)) {
+                continue;
+            }
             if (metadata.size() + commonPrefixes.size() == maxListingLength) {
-                new PartialListing(key, metadata.toArray(new FileMetadata[0]),
+                return new PartialListing(lastEntry, metadata.toArray(new FileMetadata[0]),
                         commonPrefixes.toArray(new String[0]));
             }
+            if (entry.equals(key)) {
+                metadata.add(metadataMap.get(key));
+            } else {
+                commonPrefixes.add(entry);
+            }
+            lastEntry = entry;
         }
         return new PartialListing(null, metadata.toArray(new FileMetadata[0]),
                 commonPrefixes.toArray(new String[0]));
     }
 
     public void delete(String key) throws IOException {
+        deleteRequests.incrementAndGet();
         metadataMap.remove(key);
         dataMap.remove(key);
     }
 
+    public void delete(List<String> keys) throws IOException {
+        if (keys.size() > MAX_DELETE_BATCH_SIZE) {
+            throw new IOException("Too many keys in one delete request: " + keys.size());
+        }
+        deleteRequests.incrementAndGet();
+        for (String key : keys) {
+            metadataMap.remove(key);
+            dataMap.remove(key);
+        }
+    }
+
     public void copy(String srcKey, String dstKey) throws IOException {
-        metadataMap.put(dstKey, metadataMap.get(srcKey));
+        copy(metadataMap.get(srcKey), dstKey);
+    }
+
+    public void copy(FileMetadata srcMetadata, String dstKey) throws IOException {
+        String srcKey = srcMetadata.getKey();
+        FileMetadata metadata = metadataMap.get(srcKey);
+        if (metadata == null) {
+            throw new FileNotFoundException("Key '" + srcKey + "' does not exist");
+        }
+        metadataMap.put(dstKey, new FileMetadata(dstKey, metadata.getLength(), metadata.getLastModified(),
+                metadata.getETag()));
         dataMap.put(dstKey, dataMap.get(srcKey));
     }
 
@@ -0,0 +1,236 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.common;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.RecordReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+public class TestGzipIndex extends TestCase {
+    private Configuration conf;
+    private FileSystem fs;
+    private File dir;
+    private byte[] text;
+
+    @Override
+    protected void setUp() throws Exception {
+        conf = new Configuration();
+        conf.setInt(OssLineReader.BUFFER_SIZE, 64);
+        conf.setInt(PipelinedInputStream.CHUNK_SIZE, 100);
+        fs = FileSystem.getLocal(conf);
+        dir = File.createTempFile("gzip-index-", "");
+        dir.delete();
+        dir.mkdirs();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("line ").append(i).append('\n');
+        }
+        text = sb.toString().getBytes("UTF-8");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.fullyDelete(dir);
+    }
+
+    private static byte[] gzipMember(byte[] data) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return a member in the format of bgzip, whose extra field gives its size.
+     */
+    private static byte[] bgzipBlock(byte[] data) throws Exception {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        while (!deflater.finished()) {
+            deflated.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        int size = 18 + deflated.size() + 8;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{0x1F, (byte) 0x8B, 8, 4, 0, 0, 0, 0, 0, (byte) 0xFF, 6, 0, 'B', 'C', 2, 0,
+                (byte) (size - 1), (byte) ((size - 1) >> 8)});
+        deflated.writeTo(out);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        writeInt(out, (int) crc.getValue());
+        writeInt(out, data.length);
+        return out.toByteArray();
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        for (int i = 0; i < 4; i++) {
+            out.write(value >>> (8 * i));
+        }
+    }
+
+    /**
+     * Compresses the text in members of `memberSize` uncompressed bytes, which cut lines.
+     *
+     * @return the offsets of the members, then the compressed bytes.
+     */
+    private byte[] compress(int memberSize, boolean bgzip, List<long[]> offsets) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < text.length; i += memberSize) {
+            offsets.add(new long[]{out.size(), i});
+            byte[] data = Arrays.copyOfRange(text, i, Math.min(i + memberSize, text.length));
+            out.write(bgzip ? bgzipBlock(data) : gzipMember(data));
+        }
+        if (bgzip) {
+            // the empty block bgzip ends with
+            offsets.add(new long[]{out.size(), text.length});
+            out.write(bgzipBlock(new byte[0]));
+        }
+        return out.toByteArray();
+    }
+
+    private void checkIndex(boolean bgzip) throws Exception {
+        List<long[]> offsets = new ArrayList<long[]>();
+        byte[] data = compress(300, bgzip, offsets);
+        GzipIndex index = GzipIndex.build(new ByteArrayInputStream(data));
+        assertEquals(offsets.size(), index.getNumMembers());
+        for (int i = 0; i < offsets.size(); i++) {
+            assertEquals(offsets.get(i)[0], index.getCompressedOffset(i));
+            assertEquals(offsets.get(i)[1], index.getUncompressedOffset(i));
+            assertEquals(offsets.get(i)[1], index.toUncompressedOffset(offsets.get(i)[0]));
+        }
+        assertEquals(-1, index.toUncompressedOffset(1));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.write(bytes);
+        assertEquals(8 + 16 * (offsets.size() - 1), bytes.size());
+        GzipIndex read = GzipIndex.read(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(index.getNumMembers(), read.getNumMembers());
+        for (int i = 0; i < offsets.size(); i++) {
+            assertEquals(index.getCompressedOffset(i), read.getCompressedOffset(i));
+            assertEquals(index.getUncompressedOffset(i), read.getUncompressedOffset(i));
+        }
+    }
+
+    public void testBuildIndex() throws Exception {
+        checkIndex(false);
+    }
+
+    public void testBuildBgzipIndex() throws Exception {
+        checkIndex(true);
+    }
+
+    public void testInvalidData() throws Exception {
+        try {
+            GzipIndex.build(new ByteArrayInputStream("not gzip".getBytes("UTF-8")));
+            fail("Indexed bytes which are not gzip");
+        } catch (java.io.IOException e) {
+            // expected
+        }
+        byte[] member = gzipMember(text);
+        try {
+            GzipIndex.build(new ByteArrayInputStream(Arrays.copyOf(member, member.length - 3)));
+            fail("Indexed a truncated member");
+        } catch (java.io.IOException e) {
+            // expected
+        }
+    }
+
+    private List<String> readAll(RecordReader<LongWritable, Text> reader) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        LongWritable key = reader.createKey();
+        Text value = reader.createValue();
+        while (reader.next(key, value)) {
+            lines.add(key.get() + ":" + value.toString());
+        }
+        reader.close();
+        return lines;
+    }
+
+    private void checkIndexedSplits(boolean bgzip) throws Exception {
+        List<long[]> offsets = new ArrayList<long[]>();
+        byte[] data = compress(300, bgzip, offsets);
+        File file = new File(dir, bgzip ? "text.bgz.gz" : "text.gz");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        Path path = new Path(file.toURI());
+        assertNull(GzipIndex.read(fs, path));
+        GzipIndex.build(fs, path);
+        GzipIndex index = GzipIndex.read(fs, path);
+        assertEquals(offsets.size(), index.getNumMembers());
+
+        List<String> expected = readAll(new OssRecordReader(conf,
+                new FileSplit(path, 0, data.length, new String[0]), fs, null));
+        assertEquals(500, expected.size());
+        assertTrue(expected.get(499).endsWith(":line 499"));
+        for (boolean pipelined : new boolean[]{true, false}) {
+            conf.setBoolean(SplitInput.DECOMPRESS_PIPELINED, pipelined);
+            for (int membersPerSplit = 1; membersPerSplit <= 4; membersPerSplit++) {
+                List<String> records = new ArrayList<String>();
+                List<String> lines = new ArrayList<String>();
+                for (int i = 0; i < index.getNumMembers(); i += membersPerSplit) {
+                    long start = index.getCompressedOffset(i);
+                    long end = i + membersPerSplit < index.getNumMembers() ?
+                            index.getCompressedOffset(i + membersPerSplit) : data.length;
+                    FileSplit split = new FileSplit(path, start, end - start, new String[0]);
+                    records.addAll(readAll(new OssRecordReader(conf, split, fs, null)));
+                    lines.addAll(readAll(new OssLineReader(conf, split, fs, null)));
+                }
+                assertEquals(expected, records);
+                assertEquals(expected, lines);
+            }
+        }
+
+        // a split which does not start at a member
+        try {
+            new OssRecordReader(conf, new FileSplit(path, 1, data.length - 1, new String[0]), fs, null);
+            fail("Read a split between members");
+        } catch (java.io.IOException e) {
+            // expected
+        }
+    }
+
+    public void testIndexedSplits() throws Exception {
+        checkIndexedSplits(false);
+    }
+
+    public void testIndexedBgzipSplits() throws Exception {
+        checkIndexedSplits(true);
+    }
+}
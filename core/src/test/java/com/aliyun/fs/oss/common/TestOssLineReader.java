@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.common;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.RecordReader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TestOssLineReader extends TestCase {
+    private Configuration conf;
+    private FileSystem fs;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        conf = new Configuration();
+        // small buffers, for the lines and delimiters to cross their bounds
+        conf.setInt(OssLineReader.BUFFER_SIZE, 16);
+        fs = FileSystem.getLocal(conf);
+        file = File.createTempFile("line-reader-", ".txt");
+        file.deleteOnExit();
+    }
+
+    private void write(byte[] data) throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+    }
+
+    private List<String> readAll(RecordReader<LongWritable, Text> reader) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        LongWritable key = reader.createKey();
+        Text value = reader.createValue();
+        while (reader.next(key, value)) {
+            lines.add(key.get() + ":" + value.toString());
+        }
+        reader.close();
+        return lines;
+    }
+
+    /**
+     * Reads the file cut into splits of `splitSize` with both readers, which must agree.
+     */
+    private List<String> checkSplits(long splitSize, byte[] delimiter) throws Exception {
+        List<String> expected = new ArrayList<String>();
+        List<String> actual = new ArrayList<String>();
+        Path path = new Path(file.toURI());
+        for (long start = 0; start < file.length(); start += splitSize) {
+            FileSplit split = new FileSplit(path, start, Math.min(splitSize, file.length() - start), new String[0]);
+            expected.addAll(readAll(new OssRecordReader(conf, split, fs, delimiter)));
+            actual.addAll(readAll(new OssLineReader(conf, split, fs, delimiter)));
+        }
+        assertEquals(expected, actual);
+        return actual;
+    }
+
+    public void testIndexOf() {
+        byte[] b = new byte[40];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) (0x80 | i);
+        }
+        assertEquals(-1, OssLineReader.indexOf(b, 0, b.length, (byte) '\n'));
+        for (int i = 0; i < b.length; i++) {
+            byte saved = b[i];
+            b[i] = '\n';
+            assertEquals(i, OssLineReader.indexOf(b, 0, b.length, (byte) '\n'));
+            assertEquals(i, OssLineReader.indexOfLineEnd(b, 0, b.length));
+            assertEquals(i < 3 ? -1 : i, OssLineReader.indexOf(b, 3, b.length, (byte) '\n'));
+            b[i] = '\r';
+            assertEquals(i, OssLineReader.indexOfLineEnd(b, 0, b.length));
+            b[i] = saved;
+        }
+        // a byte 0x01 above the match must not hide it
+        b[5] = (byte) 0x0b;
+        b[6] = (byte) 0x0a;
+        assertEquals(6, OssLineReader.indexOf(b, 0, b.length, (byte) 0x0a));
+        assertEquals(5, OssLineReader.indexOf(b, 0, b.length, (byte) 0x0b));
+    }
+
+    public void testLines() throws Exception {
+        write("first line\nsecond\r\nthird\rfourth\n\nsixth, a much longer line than the buffer\r\n\rlast".getBytes("UTF-8"));
+        List<String> lines = checkSplits(file.length(), null);
+        assertEquals(8, lines.size());
+        assertEquals("0:first line", lines.get(0));
+        assertEquals("11:second", lines.get(1));
+        assertEquals("19:third", lines.get(2));
+        assertEquals("25:fourth", lines.get(3));
+        assertEquals("32:", lines.get(4));
+        assertTrue(lines.get(7).endsWith(":last"));
+        for (long splitSize = 1; splitSize < 30; splitSize++) {
+            checkSplits(splitSize, null);
+        }
+    }
+
+    public void testRandomLines() throws Exception {
+        Random random = new Random(7);
+        byte[] data = new byte[5000];
+        for (int i = 0; i < data.length; i++) {
+            int r = random.nextInt(20);
+            data[i] = r == 0 ? (byte) '\n' : (r == 1 ? (byte) '\r' : (byte) ('a' + r));
+        }
+        write(data);
+        for (long splitSize : new long[]{7, 64, 333, 5000}) {
+            checkSplits(splitSize, null);
+        }
+    }
+
+    public void testCustomDelimiter() throws Exception {
+        write("a||b|c||||d|||e||".getBytes("UTF-8"));
+        byte[] delimiter = "||".getBytes("UTF-8");
+        List<String> lines = checkSplits(file.length(), delimiter);
+        assertEquals("[0:a, 3:b|c, 8:, 10:d, 13:|e]", lines.toString());
+        for (long splitSize = 3; splitSize < 10; splitSize++) {
+            checkSplits(splitSize, delimiter);
+        }
+    }
+
+    public void testSlices() throws Exception {
+        write("abc\ndefgh\n".getBytes("UTF-8"));
+        OssLineReader reader = new OssLineReader(conf, new FileSplit(new Path(file.toURI()), 0, file.length(),
+                new String[0]), fs, null);
+        reader.prefetch();
+        assertTrue(reader.nextLine());
+        assertEquals("abc", new String(reader.getLineBuffer(), reader.getLineOffset(), reader.getLineLength(),
+                "UTF-8"));
+        assertTrue(reader.nextLine());
+        assertEquals(4, reader.getLinePos());
+        assertEquals("defgh", new String(reader.getLineBuffer(), reader.getLineOffset(), reader.getLineLength(),
+                "UTF-8"));
+        assertFalse(reader.nextLine());
+        reader.close();
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.common;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestPipelinedInputStream extends TestCase {
+    private Configuration conf;
+
+    @Override
+    protected void setUp() throws Exception {
+        conf = new Configuration();
+        conf.setInt(PipelinedInputStream.CHUNK_SIZE, 1000);
+        conf.setInt(PipelinedInputStream.QUEUE_SIZE, 2);
+    }
+
+    public void testRead() throws Exception {
+        byte[] data = new byte[100 * 1000 + 17];
+        new Random(7).nextBytes(data);
+        InputStream in = new PipelinedInputStream(new ByteArrayInputStream(data), conf);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(data[0] & 0xFF, in.read());
+        out.write(data[0]);
+        byte[] buf = new byte[777];
+        int n;
+        while ((n = in.read(buf, 0, buf.length)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        assertEquals(-1, in.read());
+        in.close();
+        assertTrue(Arrays.equals(data, out.toByteArray()));
+    }
+
+    public void testCloseBeforeEnd() throws Exception {
+        final boolean[] closed = new boolean[1];
+        InputStream source = new ByteArrayInputStream(new byte[1000 * 1000]) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+            }
+        };
+        InputStream in = new PipelinedInputStream(source, conf);
+        assertEquals(0, in.read());
+        // the reading thread is blocked on the full queue
+        Thread.sleep(100);
+        in.close();
+        assertTrue(closed[0]);
+    }
+
+    public void testError() throws Exception {
+        InputStream source = new InputStream() {
+            private int count = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (++count > 2500) {
+                    throw new IOException("broken source");
+                }
+                return 1;
+            }
+        };
+        InputStream in = new PipelinedInputStream(source, conf);
+        byte[] buf = new byte[1000];
+        try {
+            while (in.read(buf, 0, buf.length) >= 0) {
+            }
+            fail("The error of the source was lost");
+        } catch (IOException e) {
+            assertEquals("broken source", e.getMessage());
+        }
+        in.close();
+    }
+}
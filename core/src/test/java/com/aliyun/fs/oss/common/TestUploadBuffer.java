@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.common;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TestUploadBuffer extends TestCase {
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b = in.read();
+        if (b >= 0) {
+            out.write(b);
+        }
+        byte[] buf = new byte[1000];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    public void testBufferTypes() throws Exception {
+        byte[] data = new byte[3 * UploadBuffer.MAX_CHUNK_SIZE + 10];
+        new Random(0).nextBytes(data);
+        for (String type : new String[]{"disk", "heap", "direct"}) {
+            Configuration conf = new Configuration();
+            conf.set("fs.oss.buffer.dir", System.getProperty("java.io.tmpdir") + "/oss-ut");
+            conf.set(UploadBuffer.BUFFER_TYPE, type);
+            UploadBuffer buffer = UploadBuffer.create(conf, data.length);
+            buffer.write(data[0]);
+            buffer.write(data, 1, data.length - 1);
+            buffer.finish();
+            assertEquals(data.length, buffer.size());
+            assertEquals("disk".equals(type), buffer.getFile() != null);
+            // may be read again, e.g. on retries
+            assertTrue(type, Arrays.equals(data, readFully(buffer.openStream())));
+            assertTrue(type, Arrays.equals(data, readFully(buffer.openStream())));
+            buffer.release();
+            buffer.release();
+        }
+        assertEquals(0, UploadBuffer.getUsedMemory());
+
+        Configuration conf = new Configuration();
+        conf.set(UploadBuffer.BUFFER_TYPE, "tape");
+        try {
+            UploadBuffer.create(conf, 1);
+            fail("unknown buffer type should be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testMemoryBudget() throws Exception {
+        final UploadBuffer.MemoryBudget budget = new UploadBuffer.MemoryBudget(2048);
+        UploadBuffer first = new UploadBuffer.MemoryBuffer(budget, 1024, true);
+        first.write(new byte[2048], 0, 2048);
+        // nothing is being uploaded, the limit is exceeded rather than waiting forever
+        UploadBuffer second = new UploadBuffer.MemoryBuffer(budget, 1024, true);
+        second.write(1);
+        assertEquals(3072, budget.getUsed());
+        second.release();
+
+        // once the first buffer is finished, writers wait for its upload
+        first.finish();
+        final UploadBuffer third = new UploadBuffer.MemoryBuffer(budget, 1024, true);
+        final CountDownLatch written = new CountDownLatch(1);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    third.write(new byte[10], 0, 10);
+                } catch (IOException e) {
+                    failed.set(true);
+                }
+                written.countDown();
+            }
+        };
+        writer.start();
+        assertFalse(written.await(200, TimeUnit.MILLISECONDS));
+        first.release();
+        assertTrue(written.await(10, TimeUnit.SECONDS));
+        assertFalse(failed.get());
+        assertEquals(1024, budget.getUsed());
+        // the chunks of the first buffer were pooled, one of them is reused
+        assertEquals(1024, budget.getPooled());
+        third.release();
+        assertEquals(0, budget.getUsed());
+        assertEquals(2048, budget.getPooled());
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.nat;
+
+import com.aliyun.fs.oss.common.InMemoryNativeFileSystemStore;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Random;
+
+/**
+ * Compare the throughput of reader algorithm versions against an in-memory store which
+ * sleeps `latency` ms before serving each GET, and limits every GET to `bandwidth` MB/s.
+ *
+ * Usage: BufferReaderBenchmark [sizeInMB] [latencyMs] [bandwidthMBps] [rounds]
+ */
+public class BufferReaderBenchmark {
+    private static final String KEY = "benchmark/buffer-reader.data";
+
+    private static class LatencyInjectingStore extends InMemoryNativeFileSystemStore {
+        private final long latency;
+        private final long bandwidth;
+
+        LatencyInjectingStore(long latency, long bandwidth) {
+            this.latency = latency;
+            this.bandwidth = bandwidth;
+        }
+
+        private void sleep(long length) {
+            try {
+                Thread.sleep(latency + length * 1000 / (bandwidth * 1024 * 1024));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public InputStream retrieve(String key, long byteRangeStart) throws IOException {
+            sleep(retrieveMetadata(key).getLength() - byteRangeStart);
+            return super.retrieve(key, byteRangeStart);
+        }
+
+        @Override
+        public InputStream retrieve(String key, long byteRangeStart, long length) throws IOException {
+            sleep(Math.min(length, retrieveMetadata(key).getLength() - byteRangeStart));
+            return super.retrieve(key, byteRangeStart, length);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sizeInMB = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        long latency = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        long bandwidth = args.length > 2 ? Long.parseLong(args[2]) : 50;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        Configuration conf = new Configuration();
+        conf.set("fs.oss.buffer.dir", System.getProperty("java.io.tmpdir") + "/oss-benchmark");
+        LatencyInjectingStore store = new LatencyInjectingStore(latency, bandwidth);
+        store.initialize(URI.create("oss://bucket/"), conf);
+
+        byte[] data = new byte[sizeInMB * 1024 * 1024];
+        new Random().nextBytes(data);
+        File file = File.createTempFile("benchmark-", ".data");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        store.storeFile(KEY, file, false);
+
+        System.out.println("object size: " + sizeInMB + "MB, latency per GET: " + latency + "ms, bandwidth per GET: " +
+                bandwidth + "MB/s");
+        for (int version = 1; version <= 3; version++) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                BufferReader reader = new BufferReader(store, KEY, conf, version);
+                byte[] buf = new byte[64 * 1024];
+                long total = 0;
+                int n;
+                while ((n = reader.read(buf, 0, buf.length)) != -1) {
+                    total += n;
+                }
+                reader.close();
+                if (total != data.length) {
+                    throw new IOException("algorithm version " + version + " read " + total + " bytes, expected " +
+                            data.length);
+                }
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.println(String.format("algorithm version %d: %d ms, %.1f MB/s", version, best / 1000000,
+                    sizeInMB * 1e9 / best));
+        }
+    }
+}
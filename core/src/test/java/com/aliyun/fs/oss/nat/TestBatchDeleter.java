@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.nat;
+
+import com.aliyun.fs.oss.common.InMemoryNativeFileSystemStore;
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+
+public class TestBatchDeleter extends TestCase {
+    private Configuration conf;
+    private InMemoryNativeFileSystemStore store;
+    private NativeOssFileSystem fs;
+
+    @Override
+    protected void setUp() throws Exception {
+        conf = new Configuration();
+        conf.set("fs.oss.buffer.dir", System.getProperty("java.io.tmpdir") + "/oss-ut");
+        store = new InMemoryNativeFileSystemStore();
+        fs = new NativeOssFileSystem(store);
+        fs.initialize(URI.create("oss://bucket/"), conf);
+    }
+
+    private void createFiles(String dir, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            store.storeEmptyFile(dir + "/sub" + (i % 7) + "/file" + i);
+        }
+    }
+
+    public void testDeleteDirectory() throws Exception {
+        createFiles("dir", 2500);
+        store.storeEmptyFile("dir2/file");
+
+        assertTrue(fs.delete(new Path("/dir"), true));
+        // 2500 files and the marker in 3 batches
+        assertEquals(3, store.getDeleteRequests());
+        assertFalse(fs.exists(new Path("/dir")));
+        assertFalse(store.list("dir", 1000).getFiles().length > 0);
+        assertTrue(fs.exists(new Path("/dir2/file")));
+    }
+
+    public void testRenameDirectory() throws Exception {
+        createFiles("src", 1200);
+
+        assertTrue(fs.rename(new Path("/src"), new Path("/dst")));
+        assertEquals(2, store.getDeleteRequests());
+        assertFalse(fs.exists(new Path("/src")));
+        assertTrue(fs.exists(new Path("/dst/sub2/file1199")));
+        assertEquals(7, fs.listStatus(new Path("/dst")).length);
+    }
+
+    public void testFailedBatch() throws Exception {
+        final InMemoryNativeFileSystemStore failingStore = new InMemoryNativeFileSystemStore() {
+            @Override
+            public void delete(List<String> keys) throws IOException {
+                if (keys.contains("dir/file1500")) {
+                    throw new IOException("injected failure");
+                }
+                super.delete(keys);
+            }
+        };
+        for (int i = 0; i < 3000; i++) {
+            failingStore.storeEmptyFile("dir/file" + i);
+        }
+
+        BatchDeleter deleter = new BatchDeleter(failingStore, conf);
+        try {
+            for (int i = 0; i < 3000; i++) {
+                deleter.delete("dir/file" + i);
+            }
+            deleter.finish();
+            fail("the failure of a batch must be reported");
+        } catch (IOException e) {
+            assertEquals("injected failure", e.getMessage());
+        }
+        assertNotNull(failingStore.retrieveMetadata("dir/file1500"));
+        assertNull(failingStore.retrieveMetadata("dir/file10"));
+    }
+}
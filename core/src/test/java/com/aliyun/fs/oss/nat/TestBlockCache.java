@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.nat;
+
+import com.aliyun.fs.oss.common.InMemoryNativeFileSystemStore;
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+public class TestBlockCache extends TestCase {
+    private static final String KEY = "uttest/block-cache.data";
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private Configuration conf;
+    private InMemoryNativeFileSystemStore store;
+    private File cacheDir;
+    private byte[] data;
+
+    @Override
+    protected void setUp() throws Exception {
+        conf = new Configuration();
+        conf.set("fs.oss.buffer.dir", System.getProperty("java.io.tmpdir") + "/oss-ut");
+        conf.setInt("fs.oss.reader.concurrent.number", 4);
+        store = new InMemoryNativeFileSystemStore();
+        store.initialize(URI.create("oss://bucket/"), conf);
+        cacheDir = new File(System.getProperty("java.io.tmpdir"), "oss-ut-cache");
+
+        data = new byte[BLOCK_SIZE * 10 + 123];
+        new Random(23).nextBytes(data);
+        storeData(data);
+    }
+
+    private void storeData(byte[] content) throws IOException {
+        File file = File.createTempFile("block-cache-", ".data");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        store.storeFile(KEY, file, false);
+    }
+
+    private byte[] readAll(BlockCache cache) throws IOException {
+        BufferReader reader = new BufferReader(store, KEY, conf, 3, 1024 * 1024,
+                store.retrieveMetadata(KEY), cache);
+        try {
+            byte[] result = new byte[data.length];
+            int total = 0;
+            int n;
+            while ((n = reader.read(result, total, Math.min(7000, result.length - total))) > 0) {
+                total += n;
+            }
+            assertEquals(data.length, total);
+            return result;
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testReadThroughCache() throws Exception {
+        BlockCache cache = new BlockCache(Collections.singletonList(cacheDir), BLOCK_SIZE, 100L * BLOCK_SIZE,
+                "bucket");
+        assertTrue(Arrays.equals(data, readAll(cache)));
+        int rangeRequests = store.getRangeRequests();
+        assertEquals(data.length, cache.getUsedBytes());
+
+        // all the blocks are served from the local files
+        assertTrue(Arrays.equals(data, readAll(cache)));
+        assertEquals(rangeRequests, store.getRangeRequests());
+        assertTrue(cache.getHits() >= 11);
+
+        BufferReader reader = new BufferReader(store, KEY, conf, 3, 1024 * 1024, store.retrieveMetadata(KEY), cache);
+        byte[] buf = new byte[BLOCK_SIZE + 10];
+        assertEquals(buf.length, reader.read(BLOCK_SIZE - 5, buf, 0, buf.length));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, BLOCK_SIZE - 5, 2 * BLOCK_SIZE + 5), buf));
+        reader.close();
+        assertEquals(rangeRequests, store.getRangeRequests());
+
+        // a new version of the object has a new ETag, its blocks are fetched again
+        data = data.clone();
+        data[0]++;
+        storeData(data);
+        assertTrue(Arrays.equals(data, readAll(cache)));
+        assertTrue(store.getRangeRequests() > rangeRequests);
+    }
+
+    public void testEviction() throws Exception {
+        BlockCache cache = new BlockCache(Collections.singletonList(cacheDir), BLOCK_SIZE, 3L * BLOCK_SIZE,
+                "bucket");
+        byte[] block = new byte[BLOCK_SIZE];
+        for (int i = 0; i < 3; i++) {
+            block[0] = (byte) i;
+            cache.putBlock("key", "etag", i, block, block.length);
+        }
+        // block 0 becomes the most recently used one
+        ByteBuffer first = cache.getBlock("key", "etag", 0);
+        assertEquals(0, first.get(0));
+        assertTrue(first.isReadOnly());
+
+        cache.putBlock("key", "etag", 3, block, block.length);
+        assertEquals(3L * BLOCK_SIZE, cache.getUsedBytes());
+        assertNull(cache.getBlock("key", "etag", 1));
+        assertNotNull(cache.getBlock("key", "etag", 0));
+        assertEquals(2, cache.getBlock("key", "etag", 2).get(0));
+        assertNull(cache.getBlock("key", "other-etag", 2));
+        // a mapping stays valid after the eviction of its block
+        cache.putBlock("key", "etag", 4, block, block.length);
+        cache.putBlock("key", "etag", 5, block, block.length);
+        assertEquals(0, first.get(0));
+    }
+}
@@ -0,0 +1,420 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.nat;
+
+import com.aliyun.fs.oss.common.FileMetadata;
+import com.aliyun.fs.oss.common.FileRange;
+import com.aliyun.fs.oss.common.InMemoryNativeFileSystemStore;
+import com.aliyun.fs.oss.common.OssFileSystemException;
+import com.aliyun.fs.oss.utils.BufferPool;
+import com.aliyun.fs.oss.utils.TransferScheduler;
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+public class TestBufferReader extends TestCase {
+    private static final String KEY = "uttest/buffer-reader.data";
+
+    private Configuration conf;
+    private InMemoryNativeFileSystemStore store;
+    private byte[] data;
+
+    @Override
+    protected void setUp() throws Exception {
+        conf = new Configuration();
+        conf.set("fs.oss.buffer.dir", System.getProperty("java.io.tmpdir") + "/oss-ut");
+        conf.setInt("fs.oss.reader.concurrent.number", 4);
+        conf.setInt("fs.oss.reader.prefetch.slots", 16);
+        store = new InMemoryNativeFileSystemStore();
+        store.initialize(URI.create("oss://bucket/"), conf);
+
+        data = new byte[3 * 1024 * 1024 + 123];
+        new Random(17).nextBytes(data);
+        File file = File.createTempFile("buffer-reader-", ".data");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        store.storeFile(KEY, file, false);
+    }
+
+    private byte[] readFully(BufferReader reader, int len, int bufferSize) throws IOException {
+        byte[] result = new byte[len];
+        byte[] buf = new byte[bufferSize];
+        int total = 0;
+        while (total < len) {
+            int n = reader.read(buf, 0, Math.min(buf.length, len - total));
+            if (n == -1) {
+                break;
+            }
+            System.arraycopy(buf, 0, result, total, n);
+            total += n;
+        }
+        assertEquals(len, total);
+        return result;
+    }
+
+    public void testReadWithAllAlgorithmVersions() throws IOException {
+        for (int version = 1; version <= 3; version++) {
+            BufferReader reader = new BufferReader(store, KEY, conf, version);
+            try {
+                assertTrue("algorithm version " + version,
+                        Arrays.equals(data, readFully(reader, data.length, 7 * 1024)));
+                assertEquals(-1, reader.read(new byte[16], 0, 16));
+                assertEquals(data.length, reader.getPos());
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    public void testSingleByteRead() throws IOException {
+        for (int version = 1; version <= 3; version++) {
+            BufferReader reader = new BufferReader(store, KEY, conf, version);
+            try {
+                // cross the first half of version 1 and several slots of version 3
+                for (int i = 0; i < 700 * 1024; i++) {
+                    assertEquals(data[i] & 0xFF, reader.read());
+                }
+                assertEquals(700 * 1024, reader.getPos());
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    public void testSeek() throws IOException {
+        BufferReader reader = new BufferReader(store, KEY, conf, 3);
+        try {
+            readFully(reader, 100, 100);
+            reader.seek(2 * 1024 * 1024 + 17);
+            byte[] expected = Arrays.copyOfRange(data, 2 * 1024 * 1024 + 17, data.length);
+            assertTrue(Arrays.equals(expected, readFully(reader, expected.length, 64 * 1024)));
+            assertEquals(-1, reader.read());
+
+            reader.seek(5);
+            assertEquals(data[5] & 0xFF, reader.read());
+            assertEquals(6, reader.getPos());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testSeekWithinReadAhead() throws Exception {
+        BufferReader reader = new BufferReader(store, KEY, conf, 3);
+        try {
+            readFully(reader, 10, 10);
+            // let the slot readers claim the whole ring
+            Thread.sleep(200);
+            reader.seek(300 * 1024 + 7);
+            byte[] expected = Arrays.copyOfRange(data, 300 * 1024 + 7, 300 * 1024 + 7 + 4096);
+            assertTrue(Arrays.equals(expected, readFully(reader, expected.length, 1024)));
+            assertEquals(0, reader.getReadAheadMisses());
+            assertFalse(reader.isRandomMode());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testSwitchBetweenRandomAndSequentialMode() throws IOException {
+        BufferReader reader = new BufferReader(store, KEY, conf, 3);
+        try {
+            // the ring is not started before the first read, so this is not a miss
+            reader.seek(2 * 1024 * 1024 + 512 * 1024);
+            readFully(reader, 100, 100);
+            reader.seek(100);
+            readFully(reader, 100, 100);
+            reader.seek(2 * 1024 * 1024 + 10);
+            assertEquals(2, reader.getReadAheadMisses());
+            assertTrue(reader.isRandomMode());
+
+            byte[] expected = Arrays.copyOfRange(data, 2 * 1024 * 1024 + 10, 2 * 1024 * 1024 + 110);
+            assertTrue(Arrays.equals(expected, readFully(reader, expected.length, 100)));
+            reader.seek(17);
+            assertEquals(data[17] & 0xFF, reader.read());
+
+            // contiguous ranged GETs bring the reader back to sequential mode
+            expected = Arrays.copyOfRange(data, 18, data.length);
+            assertTrue(Arrays.equals(expected, readFully(reader, expected.length, 4096)));
+            assertFalse(reader.isRandomMode());
+            assertEquals(-1, reader.read());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testPositionedRead() throws IOException {
+        conf.setInt("fs.oss.reader.pread.split.size", 256 * 1024);
+        for (int version = 1; version <= 3; version++) {
+            BufferReader reader = new BufferReader(store, KEY, conf, version);
+            try {
+                readFully(reader, 100, 100);
+                byte[] buf = new byte[100];
+                assertEquals(100, reader.read(1024 * 1024 + 3, buf, 0, 100));
+                assertTrue(Arrays.equals(Arrays.copyOfRange(data, 1024 * 1024 + 3, 1024 * 1024 + 103), buf));
+
+                // split into parallel ranged GETs, and truncated at the end of the object
+                buf = new byte[data.length];
+                assertEquals(data.length - 17, reader.read(17, buf, 0, data.length));
+                assertTrue(Arrays.equals(Arrays.copyOfRange(data, 17, data.length),
+                        Arrays.copyOfRange(buf, 0, data.length - 17)));
+                assertEquals(-1, reader.read(data.length, buf, 0, 1));
+
+                // the sequential stream is not disturbed
+                assertEquals(100, reader.getPos());
+                assertEquals(data[100] & 0xFF, reader.read());
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    public void testConcurrentPositionedRead() throws Exception {
+        conf.setInt("fs.oss.reader.pread.split.size", 128 * 1024);
+        final BufferReader reader = new BufferReader(store, KEY, conf, 3);
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            final long position = i * 300 * 1024L;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        byte[] buf = new byte[500 * 1024];
+                        int n = reader.read(position, buf, 0, buf.length);
+                        assertEquals(buf.length, n);
+                        assertTrue(Arrays.equals(Arrays.copyOfRange(data, (int) position, (int) position + n),
+                                buf));
+                    } catch (Throwable t) {
+                        synchronized (errors) {
+                            errors.add(t);
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertTrue(errors.toString(), errors.isEmpty());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void assertRange(FileRange range) throws Exception {
+        ByteBuffer buffer = range.getData().get();
+        byte[] actual = new byte[buffer.remaining()];
+        buffer.get(actual);
+        assertTrue(range.toString(), Arrays.equals(Arrays.copyOfRange(data, (int) range.getOffset(),
+                (int) range.getOffset() + range.getLength()), actual));
+    }
+
+    public void testVectoredRead() throws Exception {
+        conf.setInt("fs.oss.reader.vectored.merge.gap", 4096);
+        conf.setInt("fs.oss.reader.vectored.merge.max", 1024 * 1024);
+        BufferReader reader = new BufferReader(store, KEY, conf, 3);
+        try {
+            List<FileRange> ranges = new ArrayList<FileRange>();
+            // unsorted, merged ones, far apart ones, empty ones and one up to the end of the object
+            ranges.add(new FileRange(2 * 1024 * 1024, 100 * 1024));
+            ranges.add(new FileRange(10, 100));
+            ranges.add(new FileRange(1000, 0));
+            ranges.add(new FileRange(2000, 3000));
+            ranges.add(new FileRange(600 * 1024, 900 * 1024));
+            ranges.add(new FileRange(1500 * 1024 + 10, 200 * 1024));
+            ranges.add(new FileRange(data.length - 50, 50));
+            reader.readVectored(ranges);
+            for (FileRange range : ranges) {
+                assertRange(range);
+            }
+            assertEquals(0, reader.getPos());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testVectoredReadThroughOpen() throws Exception {
+        NativeOssFileSystem fs = new NativeOssFileSystem(store);
+        fs.initialize(URI.create("oss://bucket/"), conf);
+        FSDataInputStream in = fs.open(new Path("oss://bucket/" + KEY));
+        try {
+            assertTrue(in instanceof NativeOssFileSystem.OssDataInputStream);
+            in.seek(10);
+            List<FileRange> ranges = new ArrayList<FileRange>();
+            ranges.add(new FileRange(100, 1000));
+            ranges.add(new FileRange(2 * 1024 * 1024, 100 * 1024));
+            ((NativeOssFileSystem.OssDataInputStream) in).readVectored(ranges);
+            for (FileRange range : ranges) {
+                assertRange(range);
+            }
+            assertEquals(10, in.getPos());
+            assertEquals(data[10], (byte) in.read());
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testVectoredReadErrors() throws Exception {
+        BufferReader reader = new BufferReader(store, KEY, conf, 3);
+        try {
+            List<FileRange> ranges = new ArrayList<FileRange>();
+            ranges.add(new FileRange(0, 100));
+            ranges.add(new FileRange(50, 100));
+            try {
+                reader.readVectored(ranges);
+                fail("overlapping ranges should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+
+            ranges.clear();
+            ranges.add(new FileRange(0, 100));
+            ranges.add(new FileRange(data.length - 10, 100));
+            reader.readVectored(ranges);
+            assertRange(ranges.get(0));
+            try {
+                ranges.get(1).getData().get();
+                fail("range beyond the end of the object should fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof EOFException);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testRangedRead() throws IOException {
+        int start = 1024 * 1024 + 5;
+        int end = start + 300 * 1024;
+        for (int version = 1; version <= 3; version++) {
+            long fetched = store.getRangeBytes();
+            BufferReader reader = new BufferReader(store, KEY, conf, version, 64 * 1024 * 1024, null, null,
+                    start, end);
+            try {
+                assertEquals(start, reader.getPos());
+                assertTrue("algorithm version " + version, Arrays.equals(Arrays.copyOfRange(data, start, end),
+                        readFully(reader, end - start, 7 * 1024)));
+            } finally {
+                reader.close();
+            }
+            if (version != 2) {
+                // neither the bytes before the range nor the ones after it are fetched
+                assertEquals("algorithm version " + version, end - start, store.getRangeBytes() - fetched);
+            }
+
+            // reads go on past the range
+            reader = new BufferReader(store, KEY, conf, version, 64 * 1024 * 1024, null, null, start, end);
+            try {
+                assertTrue("algorithm version " + version, Arrays.equals(Arrays.copyOfRange(data, start, data.length),
+                        readFully(reader, data.length - start, 7 * 1024)));
+                assertEquals(-1, reader.read());
+                reader.seek(10);
+                assertEquals(data[10] & 0xFF, reader.read());
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    public void testReadWithMetadataFromOpen() throws IOException {
+        FileMetadata metadata = store.retrieveMetadata(KEY);
+        for (int version = 1; version <= 3; version++) {
+            int metadataRequests = store.getMetadataRequests();
+            BufferReader reader = new BufferReader(store, KEY, conf, version, 64 * 1024 * 1024, metadata);
+            try {
+                assertTrue(Arrays.equals(data, readFully(reader, data.length, 64 * 1024)));
+                byte[] buf = new byte[10];
+                assertEquals(10, reader.read(100, buf, 0, 10));
+            } finally {
+                reader.close();
+            }
+            assertEquals("algorithm version " + version, metadataRequests, store.getMetadataRequests());
+        }
+    }
+
+    private void openWithoutClosing(int version) throws IOException {
+        BufferReader reader = new BufferReader(store, KEY, conf, version);
+        // the readers are left waiting for the read-ahead to be consumed
+        readFully(reader, 100, 100);
+    }
+
+    public void testReclaimReaderNeverClosed() throws Exception {
+        BufferPool pool = BufferPool.get(conf);
+        TransferScheduler scheduler = TransferScheduler.get(conf);
+        for (int version : new int[]{1, 3}) {
+            long reclaimed = pool.getReclaimed();
+            int streamThreads = scheduler.getActiveStreamThreads();
+            openWithoutClosing(version);
+            for (int i = 0; i < 100 && (pool.getReclaimed() == reclaimed ||
+                    scheduler.getActiveStreamThreads() > streamThreads); i++) {
+                System.gc();
+                Thread.sleep(100);
+            }
+            assertEquals("algorithm version " + version, reclaimed + 1, pool.getReclaimed());
+            assertTrue("algorithm version " + version, scheduler.getActiveStreamThreads() <= streamThreads);
+        }
+    }
+
+    public void testReadModifiedObject() throws IOException {
+        FileMetadata stale = new FileMetadata(KEY, data.length, 0L, "stale-etag");
+        BufferReader reader = new BufferReader(store, KEY, conf, 3, 64 * 1024 * 1024, stale);
+        try {
+            reader.read(0, new byte[10], 0, 10);
+            fail("reading a modified object should fail");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof OssFileSystemException);
+            assertTrue(e.getCause().getMessage().contains("modified"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testReadMissingObject() throws IOException {
+        FileMetadata missing = new FileMetadata("uttest/missing.data", 100, 0L, null);
+        BufferReader reader = new BufferReader(store, missing.getKey(), conf, 3, 64 * 1024 * 1024, missing);
+        try {
+            reader.read(0, new byte[10], 0, 10);
+            fail("reading a missing object should fail");
+        } catch (FileNotFoundException e) {
+            // expected
+        } finally {
+            reader.close();
+        }
+    }
+}
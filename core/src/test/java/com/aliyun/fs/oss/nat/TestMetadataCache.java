@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.nat;
+
+import com.aliyun.fs.oss.common.FileMetadata;
+import com.aliyun.fs.oss.common.InMemoryNativeFileSystemStore;
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+
+public class TestMetadataCache extends TestCase {
+    private Configuration conf;
+    private InMemoryNativeFileSystemStore store;
+    private NativeOssFileSystem fs;
+
+    @Override
+    protected void setUp() throws Exception {
+        conf = new Configuration();
+        conf.set("fs.oss.buffer.dir", System.getProperty("java.io.tmpdir") + "/oss-ut");
+        conf.setInt(MetadataCache.CACHE_SIZE, 10000);
+        conf.setLong(MetadataCache.CACHE_NEGATIVE_TTL, 5000L);
+        store = new InMemoryNativeFileSystemStore();
+        fs = new NativeOssFileSystem(store);
+        fs.initialize(URI.create("oss://bucket/"), conf);
+    }
+
+    private void createFile(String path, int size) throws IOException {
+        FSDataOutputStream out = fs.create(new Path(path));
+        out.write(new byte[size]);
+        out.close();
+    }
+
+    public void testLruAndTtl() throws Exception {
+        MetadataCache cache = new MetadataCache(2, 60000L, 1L);
+        cache.putFile(new FileMetadata("a", 1, 0L));
+        cache.putDirectory("b");
+        assertNotNull(cache.get("a"));
+        // "b" is the least recently used one
+        cache.putFile(new FileMetadata("c", 1, 0L));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.get("c").getFile().getLength());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.putAbsent("d");
+        Thread.sleep(10);
+        assertNull(cache.get("d"));
+    }
+
+    public void testInvalidation() throws Exception {
+        MetadataCache cache = new MetadataCache(100, 60000L, 60000L);
+        cache.putDirectory("a");
+        cache.putAbsent("a/b");
+        cache.putFile(new FileMetadata("a/b/c", 1, 0L));
+        cache.putFile(new FileMetadata("a/bc", 1, 0L));
+        cache.invalidate("a/b/c");
+        assertNull(cache.get("a"));
+        assertNull(cache.get("a/b"));
+        assertNull(cache.get("a/b/c"));
+        assertNotNull(cache.get("a/bc"));
+
+        cache.putFile(new FileMetadata("a/b/c", 1, 0L));
+        cache.invalidateTree("a/b");
+        assertNull(cache.get("a/b/c"));
+        assertNotNull(cache.get("a/bc"));
+
+        assertFalse(new MetadataCache(0, 60000L, 60000L).isEnabled());
+    }
+
+    public void testDefaults() throws Exception {
+        assertFalse(new MetadataCache(new Configuration()).isEnabled());
+
+        Configuration conf = new Configuration();
+        conf.setInt(MetadataCache.CACHE_SIZE, 100);
+        MetadataCache cache = new MetadataCache(conf);
+        assertTrue(cache.isEnabled());
+        cache.putFile(new FileMetadata("a", 1, 0L));
+        cache.putAbsent("b");
+        assertNotNull(cache.get("a"));
+        // not cached by default, as it would hide the keys created by other clients
+        assertNull(cache.get("b"));
+    }
+
+    public void testGetFileStatusServedFromCache() throws Exception {
+        createFile("/dir/file", 10);
+        int requests = store.getMetadataRequests() + store.getListRequests();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(10, fs.getFileStatus(new Path("/dir/file")).getLen());
+            assertTrue(fs.getFileStatus(new Path("/dir")).isDir());
+            assertFalse(fs.exists(new Path("/dir/missing")));
+        }
+        // file: 1 HEAD, directory: 2 HEADs and 1 listing, missing: 2 HEADs and 1 listing
+        assertEquals(requests + 7, store.getMetadataRequests() + store.getListRequests());
+        assertTrue(fs.getMetadataCache().getHits() >= 12);
+    }
+
+    public void testListStatusPopulatesCache() throws Exception {
+        createFile("/list/file1", 1);
+        createFile("/list/file2", 2);
+        createFile("/list/sub/file3", 3);
+        FileStatus[] statuses = fs.listStatus(new Path("/list"));
+        assertEquals(3, statuses.length);
+
+        int requests = store.getMetadataRequests() + store.getListRequests();
+        assertEquals(2, fs.getFileStatus(new Path("/list/file2")).getLen());
+        assertTrue(fs.getFileStatus(new Path("/list/sub")).isDir());
+        fs.open(new Path("/list/file1")).close();
+        assertEquals(requests, store.getMetadataRequests() + store.getListRequests());
+    }
+
+    public void testWritesInvalidateCache() throws Exception {
+        assertFalse(fs.exists(new Path("/w/file")));
+        createFile("/w/file", 5);
+        assertEquals(5, fs.getFileStatus(new Path("/w/file")).getLen());
+
+        createFile("/w/file", 7);
+        assertEquals(7, fs.getFileStatus(new Path("/w/file")).getLen());
+
+        assertTrue(fs.rename(new Path("/w/file"), new Path("/w/renamed")));
+        assertFalse(fs.exists(new Path("/w/file")));
+        assertEquals(7, fs.getFileStatus(new Path("/w/renamed")).getLen());
+
+        assertTrue(fs.delete(new Path("/w/renamed"), false));
+        try {
+            fs.getFileStatus(new Path("/w/renamed"));
+            fail("deleted file should not be found");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+
+        assertFalse(fs.exists(new Path("/w/d1/d2")));
+        assertTrue(fs.mkdirs(new Path("/w/d1/d2")));
+        assertTrue(fs.getFileStatus(new Path("/w/d1/d2")).isDir());
+        assertTrue(fs.delete(new Path("/w/d1"), true));
+        assertFalse(fs.exists(new Path("/w/d1/d2")));
+    }
+}
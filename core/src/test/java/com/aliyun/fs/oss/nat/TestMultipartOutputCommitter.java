@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.nat;
+
+import com.aliyun.fs.oss.common.InMemoryNativeFileSystemStore;
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.JobStatus;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.task.JobContextImpl;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+
+public class TestMultipartOutputCommitter extends TestCase {
+    public static class InMemoryOssFileSystem extends NativeOssFileSystem {
+        static InMemoryNativeFileSystemStore store;
+
+        public InMemoryOssFileSystem() {
+            super(store);
+        }
+    }
+
+    private Configuration conf;
+    private InMemoryNativeFileSystemStore store;
+    private JobID jobId = new JobID("test", 1);
+
+    @Override
+    protected void setUp() throws Exception {
+        store = new InMemoryNativeFileSystemStore();
+        InMemoryOssFileSystem.store = store;
+        conf = new Configuration();
+        conf.set("fs.oss.impl", InMemoryOssFileSystem.class.getName());
+        conf.setBoolean("fs.oss.impl.disable.cache", true);
+        conf.set("fs.oss.buffer.dir", System.getProperty("java.io.tmpdir") + "/oss-ut");
+        conf.set(FileOutputFormat.OUTDIR, "oss://bucket/out");
+    }
+
+    private void runTask(int task, String line) throws Exception {
+        TaskAttemptContext context = new TaskAttemptContextImpl(conf,
+                new TaskAttemptID(new TaskID(jobId, TaskType.REDUCE, task), 0));
+        MultipartTextOutputFormat<Text, Text> format = new MultipartTextOutputFormat<Text, Text>();
+        OutputCommitter committer = format.getOutputCommitter(context);
+        committer.setupTask(context);
+        RecordWriter<Text, Text> writer = format.getRecordWriter(context);
+        writer.write(new Text(line), new Text("" + task));
+        writer.close(context);
+        assertTrue(committer.needsTaskCommit(context));
+        committer.commitTask(context);
+    }
+
+    public void testCommitJob() throws Exception {
+        JobContext job = new JobContextImpl(conf, jobId);
+        MultipartOutputCommitter committer = new MultipartOutputCommitter(new Path("oss://bucket/out"), job);
+        committer.setupJob(job);
+        runTask(0, "a");
+        runTask(1, "b");
+
+        // nothing is visible before the job commit
+        assertNull(store.retrieveMetadata("out/part-r-00000"));
+        assertEquals(2, store.getPendingUploads());
+
+        committer.commitJob(job);
+        assertEquals(0, store.getPendingUploads());
+        FileSystem fs = new Path("oss://bucket/out").getFileSystem(conf);
+        FSDataInputStream in = fs.open(new Path("oss://bucket/out/part-r-00001"));
+        assertEquals("b\t1", in.readLine());
+        in.close();
+        assertEquals(4, fs.getFileStatus(new Path("oss://bucket/out/part-r-00000")).getLen());
+        assertTrue(fs.exists(new Path("oss://bucket/out/_SUCCESS")));
+        assertFalse(fs.exists(new Path("oss://bucket/out/" + MultipartOutputCommitter.PENDING_UPLOADS_DIR)));
+        // only the output files are left
+        assertEquals(3, fs.listStatus(new Path("oss://bucket/out")).length);
+    }
+
+    public void testAbortJob() throws Exception {
+        JobContext job = new JobContextImpl(conf, jobId);
+        MultipartOutputCommitter committer = new MultipartOutputCommitter(new Path("oss://bucket/out"), job);
+        committer.setupJob(job);
+        runTask(0, "a");
+        runTask(1, "b");
+        // a task attempt which died before writing its manifest, and an upload of another directory
+        store.initiateMultipartUpload("out/part-r-00002");
+        store.initiateMultipartUpload("out2/part-r-00000");
+
+        committer.abortJob(job, JobStatus.State.FAILED);
+        assertEquals(1, store.getPendingUploads());
+        assertEquals(3, store.getAbortedUploads());
+        assertEquals(1, store.listMultipartUploads("out2/").size());
+        assertNull(store.retrieveMetadata("out/part-r-00000"));
+        assertNull(store.retrieveMetadata("out/_SUCCESS"));
+        FileSystem fs = new Path("oss://bucket/out").getFileSystem(conf);
+        assertFalse(fs.exists(new Path("oss://bucket/out/" + MultipartOutputCommitter.PENDING_UPLOADS_DIR)));
+    }
+
+    public void testFailedTaskCommit() throws Exception {
+        store.setFailPartNumber(1);
+        try {
+            runTask(0, "a");
+            fail("the failure of the upload must be reported");
+        } catch (Exception e) {
+            // expected
+        }
+        assertEquals(0, store.getPendingUploads());
+        assertNull(store.retrieveMetadata("out/part-r-00000"));
+    }
+}
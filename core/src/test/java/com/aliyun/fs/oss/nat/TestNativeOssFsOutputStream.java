@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.nat;
+
+import com.aliyun.fs.oss.common.InMemoryNativeFileSystemStore;
+import com.aliyun.fs.oss.common.UploadBuffer;
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestNativeOssFsOutputStream extends TestCase {
+    private static final int PART_SIZE = (int) NativeOssFileSystem.MIN_PART_SIZE;
+
+    private InMemoryNativeFileSystemStore store;
+    private NativeOssFileSystem fs;
+
+    @Override
+    protected void setUp() throws Exception {
+        setUp("disk");
+    }
+
+    private void setUp(String bufferType) throws Exception {
+        Configuration conf = new Configuration();
+        conf.set(UploadBuffer.BUFFER_TYPE, bufferType);
+        conf.set("fs.oss.buffer.dir", System.getProperty("java.io.tmpdir") + "/oss-ut");
+        conf.setLong("fs.oss.multipart.upload.part.size", PART_SIZE);
+        conf.setInt("fs.oss.uploadPart.thread.number", 2);
+        store = new InMemoryNativeFileSystemStore();
+        fs = new NativeOssFileSystem(store);
+        fs.initialize(URI.create("oss://bucket/"), conf);
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private byte[] readFile(Path path, int size) throws IOException {
+        byte[] data = new byte[size];
+        FSDataInputStream in = fs.open(path);
+        try {
+            in.readFully(0, data);
+            assertEquals(-1, in.read(size, new byte[1], 0, 1));
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    public void testSmallFileStoredOnClose() throws Exception {
+        byte[] data = randomBytes(PART_SIZE / 2);
+        FSDataOutputStream out = fs.create(new Path("/small"));
+        out.write(data);
+        out.close();
+
+        assertEquals(0, store.getStartedUploads());
+        assertTrue(Arrays.equals(data, readFile(new Path("/small"), data.length)));
+    }
+
+    public void testPartsUploadedWhileWriting() throws Exception {
+        byte[] data = randomBytes(PART_SIZE * 3 + PART_SIZE / 2);
+        Path path = new Path("/large");
+        FSDataOutputStream out = fs.create(path);
+        // single bytes and writes spanning several parts
+        out.write(data, 0, 10);
+        for (int i = 10; i < 20; i++) {
+            out.write(data[i]);
+        }
+        out.write(data, 20, PART_SIZE * 2);
+        assertEquals(1, store.getStartedUploads());
+        assertFalse(fs.exists(path));
+        out.write(data, PART_SIZE * 2 + 20, data.length - PART_SIZE * 2 - 20);
+        out.close();
+
+        assertEquals(4, store.getUploadedParts());
+        assertEquals(0, store.getPendingUploads());
+        assertTrue(Arrays.equals(data, readFile(path, data.length)));
+    }
+
+    public void testNoEmptyTailPart() throws Exception {
+        byte[] data = randomBytes(PART_SIZE * 2);
+        FSDataOutputStream out = fs.create(new Path("/exact"));
+        out.write(data);
+        out.close();
+
+        assertEquals(2, store.getUploadedParts());
+        assertTrue(Arrays.equals(data, readFile(new Path("/exact"), data.length)));
+    }
+
+    public void testMemoryBuffers() throws Exception {
+        for (String type : new String[]{"heap", "direct"}) {
+            setUp(type);
+            byte[] small = randomBytes(100);
+            FSDataOutputStream out = fs.create(new Path("/small"));
+            out.write(small);
+            out.close();
+            assertTrue(type, Arrays.equals(small, readFile(new Path("/small"), small.length)));
+
+            byte[] data = randomBytes(PART_SIZE * 4 + 1);
+            out = fs.create(new Path("/large"));
+            out.write(data);
+            out.close();
+            assertEquals(type, 5, store.getUploadedParts());
+            assertTrue(type, Arrays.equals(data, readFile(new Path("/large"), data.length)));
+        }
+        assertEquals(0, UploadBuffer.getUsedMemory());
+    }
+
+    public void testFailedPartAbortsUpload() throws Exception {
+        store.setFailPartNumber(2);
+        FSDataOutputStream out = fs.create(new Path("/failed"));
+        try {
+            for (int i = 0; i < 5; i++) {
+                out.write(randomBytes(PART_SIZE));
+            }
+            out.close();
+            fail("upload should have failed");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            // already reported
+        }
+        assertEquals(1, store.getAbortedUploads());
+        assertEquals(0, store.getPendingUploads());
+        assertFalse(fs.exists(new Path("/failed")));
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.nat;
+
+import com.aliyun.fs.oss.common.InMemoryNativeFileSystemStore;
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class TestParallelLister extends TestCase {
+    private InMemoryNativeFileSystemStore store;
+    private NativeOssFileSystem fs;
+
+    @Override
+    protected void setUp() throws Exception {
+        Configuration conf = new Configuration();
+        conf.set("fs.oss.buffer.dir", System.getProperty("java.io.tmpdir") + "/oss-ut");
+        conf.setInt("fs.oss.list.thread.number", 4);
+        store = new InMemoryNativeFileSystemStore();
+        fs = new NativeOssFileSystem(store);
+        fs.initialize(URI.create("oss://bucket/"), conf);
+    }
+
+    private void createFile(String path, int size) throws IOException {
+        FSDataOutputStream out = fs.create(new Path(path));
+        out.write(new byte[size]);
+        out.close();
+    }
+
+    private Map<String, Long> listFiles(String path) throws IOException {
+        Map<String, Long> files = new HashMap<String, Long>();
+        RemoteIterator<LocatedFileStatus> it = fs.listFiles(new Path(path), true);
+        while (it.hasNext()) {
+            LocatedFileStatus status = it.next();
+            assertFalse(status.isDir());
+            assertNull(files.put(status.getPath().toUri().getPath(), status.getLen()));
+        }
+        return files;
+    }
+
+    public void testRecursiveListing() throws Exception {
+        createFile("/data/a", 1);
+        createFile("/data/x/b", 2);
+        createFile("/data/x/y/c", 3);
+        createFile("/data/z/d", 4);
+        assertTrue(fs.mkdirs(new Path("/data/empty/dir")));
+        createFile("/other/e", 5);
+
+        Map<String, Long> files = listFiles("/data");
+        assertEquals(4, files.size());
+        assertEquals(Long.valueOf(1), files.get("/data/a"));
+        assertEquals(Long.valueOf(2), files.get("/data/x/b"));
+        assertEquals(Long.valueOf(3), files.get("/data/x/y/c"));
+        assertEquals(Long.valueOf(4), files.get("/data/z/d"));
+
+        assertEquals(5, listFiles("/").size());
+        assertTrue(listFiles("/data/empty").isEmpty());
+    }
+
+    public void testManyPages() throws Exception {
+        int count = NativeOssFileSystem.OSS_MAX_LISTING_LENGTH * 2 + 10;
+        for (int i = 0; i < count; i++) {
+            createFile("/pages/" + (i % 3) + "/" + i, 0);
+        }
+        assertEquals(count, listFiles("/pages").size());
+    }
+
+    public void testFlatPrefix() throws Exception {
+        int count = NativeOssFileSystem.OSS_MAX_LISTING_LENGTH * 5 + 3;
+        for (int i = 0; i < count; i++) {
+            store.storeEmptyFile("flatdir/" + String.format("part-%05d", i));
+        }
+        store.storeEmptyFile("flatdir/a/first");
+        store.storeEmptyFile("flatdir/sub/last");
+
+        ParallelLister lister = new ParallelLister(store, "flatdir", 4, new Configuration());
+        Set<String> keys = new HashSet<String>();
+        while (lister.hasNext()) {
+            assertTrue(keys.add(lister.next().getKey()));
+        }
+        assertEquals(count + 2, keys.size());
+        assertTrue(keys.contains("flatdir/a/first"));
+        assertTrue(keys.contains("flatdir/sub/last"));
+        // the files after the first pages are listed by key ranges
+        assertTrue(lister.getSplitRanges() > 0);
+    }
+
+    public void testSplitKeys() throws Exception {
+        assertEquals(Arrays.asList("flat/part-04", "flat/part-08", "flat/part-1"),
+                ParallelLister.splitKeys("flat/", "flat/part-00000", "flat/part-00999", null, 3));
+        assertEquals(Arrays.asList("flat/part-04", "flat/part-08"),
+                ParallelLister.splitKeys("flat/", "flat/part-00000", "flat/part-00999", "flat/part-1", 3));
+        // a range of hexadecimal names
+        List<String> bounds = ParallelLister.splitKeys("h/", "h/00a1", "h/0f37", null, 4);
+        assertEquals(4, bounds.size());
+        String previous = "h/0f37";
+        for (String bound : bounds) {
+            assertTrue(bound, bound.startsWith("h/") && bound.compareTo(previous) > 0);
+            previous = bound;
+        }
+        assertTrue(ParallelLister.splitKeys("h/", "h/a", "h/a", null, 4).isEmpty());
+        // no room left for another range
+        assertTrue(ParallelLister.splitKeys("n/", "n/000", "n/999", null, 4).isEmpty());
+    }
+
+    public void testCloseBeforeTheEnd() throws Exception {
+        int count = NativeOssFileSystem.OSS_MAX_LISTING_LENGTH * 2 + 10;
+        for (int i = 0; i < count; i++) {
+            createFile("/closed/" + (i % 20) + "/" + i, 0);
+        }
+        ParallelLister lister = new ParallelLister(store, "closed", 2, new Configuration());
+        assertTrue(lister.hasNext());
+        lister.next();
+        lister.close();
+        assertFalse(lister.hasNext());
+        for (int i = 0; i < 100 && lister.getPendingListers() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, lister.getPendingListers());
+
+        RemoteIterator<LocatedFileStatus> it = fs.listFiles(new Path("/closed"), true);
+        assertTrue(it.hasNext());
+        assertTrue(it instanceof Closeable);
+        ((Closeable) it).close();
+        assertFalse(it.hasNext());
+    }
+
+    public void testSingleFileAndMissingPath() throws Exception {
+        createFile("/single", 6);
+        Map<String, Long> files = listFiles("/single");
+        assertEquals(1, files.size());
+        assertEquals(Long.valueOf(6), files.get("/single"));
+
+        try {
+            fs.listFiles(new Path("/missing"), true);
+            fail("missing path should not be listed");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+
+    public void testNonRecursiveListing() throws Exception {
+        createFile("/flat/a", 1);
+        createFile("/flat/sub/b", 2);
+        RemoteIterator<LocatedFileStatus> it = fs.listFiles(new Path("/flat"), false);
+        assertTrue(it.hasNext());
+        assertEquals("/flat/a", it.next().getPath().toUri().getPath());
+        assertFalse(it.hasNext());
+
+        FileStatus[] statuses = fs.listStatus(new Path("/flat"));
+        assertEquals(2, statuses.length);
+    }
+}
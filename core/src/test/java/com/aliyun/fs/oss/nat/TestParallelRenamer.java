@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.nat;
+
+import com.aliyun.fs.oss.common.FileMetadata;
+import com.aliyun.fs.oss.common.InMemoryNativeFileSystemStore;
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.net.URI;
+
+public class TestParallelRenamer extends TestCase {
+    private Configuration conf;
+
+    @Override
+    protected void setUp() throws Exception {
+        conf = new Configuration();
+        conf.set("fs.oss.buffer.dir", System.getProperty("java.io.tmpdir") + "/oss-ut");
+    }
+
+    public void testRenameDirectory() throws Exception {
+        InMemoryNativeFileSystemStore store = new InMemoryNativeFileSystemStore();
+        NativeOssFileSystem fs = new NativeOssFileSystem(store);
+        fs.initialize(URI.create("oss://bucket/"), conf);
+        for (int i = 0; i < 2500; i++) {
+            store.storeEmptyFile("src/sub" + (i % 5) + "/file" + i);
+        }
+        FSDataOutputStream out = fs.create(new Path("/src/data"));
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+
+        int metadataRequests = store.getMetadataRequests();
+        assertTrue(fs.rename(new Path("/src"), new Path("/dst")));
+        // the sizes of the files come from the listing
+        assertTrue(store.getMetadataRequests() - metadataRequests < 10);
+
+        assertFalse(fs.exists(new Path("/src")));
+        assertTrue(fs.exists(new Path("/dst/sub4/file2499")));
+        assertEquals(3, fs.getFileStatus(new Path("/dst/data")).getLen());
+        // and the "dst/" marker
+        assertEquals(2502, store.list("dst", 5000, null, true).getFiles().length);
+    }
+
+    public void testFailedCopy() throws Exception {
+        InMemoryNativeFileSystemStore store = new InMemoryNativeFileSystemStore() {
+            @Override
+            public void copy(FileMetadata srcMetadata, String dstKey) throws IOException {
+                if (srcMetadata.getKey().equals("src/file1234")) {
+                    throw new IOException("injected failure");
+                }
+                super.copy(srcMetadata, dstKey);
+            }
+        };
+        for (int i = 0; i < 3000; i++) {
+            store.storeEmptyFile("src/file" + i);
+        }
+
+        try {
+            new ParallelRenamer(store, conf).rename("src", "dst");
+            fail("the failure of a copy must be reported");
+        } catch (IOException e) {
+            assertEquals("injected failure", e.getMessage());
+        }
+        assertNotNull(store.retrieveMetadata("src/file1234"));
+        assertNull(store.retrieveMetadata("dst/file1234"));
+        // nothing is lost, every file is in one of the directories
+        for (int i = 0; i < 3000; i++) {
+            assertTrue(store.retrieveMetadata("src/file" + i) != null ||
+                    store.retrieveMetadata("dst/file" + i) != null);
+        }
+    }
+
+    public void testVanishedSource() throws Exception {
+        final InMemoryNativeFileSystemStore store = new InMemoryNativeFileSystemStore() {
+            @Override
+            public void copy(FileMetadata srcMetadata, String dstKey) throws IOException {
+                if (srcMetadata.getKey().equals("src/file1")) {
+                    delete(srcMetadata.getKey());
+                }
+                super.copy(srcMetadata, dstKey);
+            }
+        };
+        for (int i = 0; i < 3; i++) {
+            store.storeEmptyFile("src/file" + i);
+        }
+
+        assertEquals(3, new ParallelRenamer(store, conf).rename("src", "dst"));
+        assertNull(store.retrieveMetadata("dst/file1"));
+        assertNotNull(store.retrieveMetadata("dst/file2"));
+        assertEquals(0, store.list("src", 1000, null, true).getFiles().length);
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.utils;
+
+import com.aliyun.oss.model.ObjectListing;
+import com.aliyun.oss.model.PutObjectResult;
+import com.google.gson.Gson;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Date;
+
+/**
+ * Measure the per-call overhead of OSSClientAgent outside of the network: binding a method of
+ * the isolated OSS SDK and converting its result, with `getMethod` plus a Gson round-trip as
+ * before, and with cached methods plus {@link OSSModelConverter}.
+ *
+ * Usage: OSSClientAgentBenchmark [listingSize] [iterations]
+ */
+public class OSSClientAgentBenchmark {
+    private interface Call {
+        Object run() throws Exception;
+    }
+
+    private static void measure(String name, int iterations, Call call) throws Exception {
+        // warm up
+        for (int i = 0; i < iterations; i++) {
+            call.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            call.run();
+        }
+        System.out.println(String.format("%-40s %10.2f us/call", name, (System.nanoTime() - start) / 1e3 / iterations));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int listingSize = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        URL sdk = ObjectListing.class.getProtectionDomain().getCodeSource().getLocation();
+        URLClassLoader ossClassLoader = new URLClassLoader(new URL[]{sdk}, null);
+        final Object listing = TestOSSModelConverter.newListing(ossClassLoader, listingSize, new Date());
+        final Object putResult = TestOSSModelConverter.newModel(ossClassLoader, "PutObjectResult");
+        TestOSSModelConverter.set(putResult, "setETag", String.class, "etag");
+        final Class<?> resultClz = putResult.getClass();
+        final Gson gson = new Gson();
+        final OSSModelConverter converter = new OSSModelConverter();
+        final Method cached = resultClz.getMethod("getETag");
+
+        System.out.println("listing size: " + listingSize);
+        measure("small result, getMethod + Gson", iterations * 50, new Call() {
+            public Object run() throws Exception {
+                resultClz.getMethod("getETag").invoke(putResult);
+                return gson.fromJson(gson.toJson(putResult), PutObjectResult.class);
+            }
+        });
+        measure("small result, cached method + converter", iterations * 50, new Call() {
+            public Object run() throws Exception {
+                cached.invoke(putResult);
+                return converter.convert(putResult, PutObjectResult.class);
+            }
+        });
+        measure("listing, Gson round-trip", iterations, new Call() {
+            public Object run() throws Exception {
+                return gson.fromJson(gson.toJson(listing), ObjectListing.class);
+            }
+        });
+        measure("listing, converter", iterations, new Call() {
+            public Object run() throws Exception {
+                return converter.convert(listing, ObjectListing.class);
+            }
+        });
+        ossClassLoader.close();
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.utils;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+
+public class TestBufferPool extends TestCase {
+    private static final int MB = 1024 * 1024;
+
+    public void testReuse() {
+        BufferPool pool = new BufferPool(16 * MB);
+        ByteBuffer buffer = pool.acquire(3 * MB, MB);
+        assertTrue(buffer.isDirect());
+        assertEquals(4 * MB, buffer.capacity());
+        assertEquals(3 * MB, buffer.limit());
+        assertEquals(4 * MB, pool.getInUseBytes());
+        buffer.position(100);
+        pool.release(buffer);
+        assertEquals(0, pool.getInUseBytes());
+
+        ByteBuffer again = pool.acquire(4 * MB, MB);
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(4 * MB, again.limit());
+        assertEquals(4 * MB, pool.getAllocatedBytes());
+    }
+
+    public void testSmallerBuffersWhenExhausted() {
+        BufferPool pool = new BufferPool(12 * MB);
+        ByteBuffer first = pool.acquire(8 * MB, MB);
+        assertEquals(8 * MB, first.limit());
+        // 4MB left in the pool
+        ByteBuffer second = pool.acquire(8 * MB, MB);
+        assertTrue(second.isDirect());
+        assertEquals(4 * MB, second.limit());
+        ByteBuffer third = pool.acquire(8 * MB, MB);
+        assertFalse(third.isDirect());
+        assertEquals(MB, third.limit());
+        assertEquals(1, pool.getHeapFallbacks());
+
+        pool.release(third);
+        assertEquals(12 * MB, pool.getInUseBytes());
+        pool.release(second);
+        pool.release(first);
+        assertEquals(0, pool.getInUseBytes());
+        assertEquals(12 * MB, pool.getAllocatedBytes());
+    }
+
+    public void testDropIdleSlabsOfOtherSizes() {
+        BufferPool pool = new BufferPool(8 * MB);
+        ByteBuffer small1 = pool.acquire(2 * MB, MB);
+        ByteBuffer small2 = pool.acquire(2 * MB, MB);
+        ByteBuffer small3 = pool.acquire(2 * MB, MB);
+        pool.release(small1);
+        pool.release(small2);
+        // an idle 2MB slab makes room for a 4MB one
+        ByteBuffer large = pool.acquire(4 * MB, MB);
+        assertTrue(large.isDirect());
+        assertEquals(4 * MB, large.limit());
+        assertEquals(8 * MB, pool.getAllocatedBytes());
+        assertSame(small1, pool.acquire(2 * MB, MB));
+        pool.release(small1);
+        pool.release(small3);
+        pool.release(large);
+        assertEquals(0, pool.getInUseBytes());
+    }
+
+    public void testReclaimSlabsOfCollectedOwners() throws Exception {
+        BufferPool pool = new BufferPool(8 * MB);
+        Object released = new Object();
+        ByteBuffer kept = pool.acquire(2 * MB, MB, released);
+        pool.acquire(4 * MB, MB, new Object());
+        assertEquals(6 * MB, pool.getInUseBytes());
+        for (int i = 0; i < 100 && pool.getInUseBytes() > 2 * MB; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        // the slab of the collected owner is back in the pool, not the other one
+        assertEquals(2 * MB, pool.getInUseBytes());
+        assertEquals(1, pool.getReclaimed());
+        assertEquals(6 * MB, pool.getAllocatedBytes());
+        assertTrue(pool.acquire(4 * MB, MB).isDirect());
+        assertEquals(6 * MB, pool.getAllocatedBytes());
+
+        pool.release(kept);
+        assertEquals(4 * MB, pool.getInUseBytes());
+        // released, it is not reclaimed again once its owner is collected
+        released = null;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(4 * MB, pool.getInUseBytes());
+        assertEquals(1, pool.getReclaimed());
+    }
+}
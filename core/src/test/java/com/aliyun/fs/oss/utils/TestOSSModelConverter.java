@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.utils;
+
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.InitiateMultipartUploadResult;
+import junit.framework.TestCase;
+import org.apache.hadoop.fs.FileUtil;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Date;
+import java.util.List;
+
+public class TestOSSModelConverter extends TestCase {
+    private URLClassLoader ossClassLoader;
+    private OSSModelConverter converter;
+
+    @Override
+    protected void setUp() throws Exception {
+        // the OSS SDK loaded in isolation, as OSSClientAgent does
+        URL sdk = ObjectListing.class.getProtectionDomain().getCodeSource().getLocation();
+        ossClassLoader = new URLClassLoader(new URL[]{sdk}, null);
+        converter = new OSSModelConverter();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ossClassLoader.close();
+    }
+
+    static Object newModel(ClassLoader loader, String name) throws Exception {
+        return loader.loadClass("com.aliyun.oss.model." + name).newInstance();
+    }
+
+    static void set(Object target, String setter, Class<?> type, Object value) throws Exception {
+        target.getClass().getMethod(setter, type).invoke(target, value);
+    }
+
+    static Object newListing(ClassLoader loader, int size, Date lastModified) throws Exception {
+        Object listing = newModel(loader, "ObjectListing");
+        set(listing, "setBucketName", String.class, "bucket");
+        set(listing, "setNextMarker", String.class, "dir/key-" + (size - 1));
+        set(listing, "setTruncated", Boolean.TYPE, true);
+        set(listing, "setMaxKeys", Integer.TYPE, size);
+        set(listing, "addCommonPrefix", String.class, "dir/sub/");
+        Class<?> summaryClz = loader.loadClass("com.aliyun.oss.model.OSSObjectSummary");
+        for (int i = 0; i < size; i++) {
+            Object summary = newModel(loader, "OSSObjectSummary");
+            set(summary, "setBucketName", String.class, "bucket");
+            set(summary, "setKey", String.class, "dir/key-" + i);
+            set(summary, "setSize", Long.TYPE, (long) i);
+            set(summary, "setETag", String.class, "etag-" + i);
+            set(summary, "setLastModified", Date.class, lastModified);
+            Object owner = newModel(loader, "Owner");
+            set(owner, "setId", String.class, "owner");
+            set(summary, "setOwner", loader.loadClass("com.aliyun.oss.model.Owner"), owner);
+            set(listing, "addObjectSummary", summaryClz, summary);
+        }
+        return listing;
+    }
+
+    public void testConvertObjectListing() throws Exception {
+        Date lastModified = new Date(1400000000000L);
+        Object foreign = newListing(ossClassLoader, 10, lastModified);
+        assertNotSame(ObjectListing.class, foreign.getClass());
+
+        ObjectListing listing = converter.convert(foreign, ObjectListing.class);
+        assertEquals("bucket", listing.getBucketName());
+        assertEquals("dir/key-9", listing.getNextMarker());
+        assertTrue(listing.isTruncated());
+        assertEquals(10, listing.getMaxKeys());
+        assertEquals(1, listing.getCommonPrefixes().size());
+        assertEquals("dir/sub/", listing.getCommonPrefixes().get(0));
+        List<OSSObjectSummary> summaries = listing.getObjectSummaries();
+        assertEquals(10, summaries.size());
+        for (int i = 0; i < summaries.size(); i++) {
+            OSSObjectSummary summary = summaries.get(i);
+            assertEquals("dir/key-" + i, summary.getKey());
+            assertEquals(i, summary.getSize());
+            assertEquals("etag-" + i, summary.getETag());
+            assertEquals(lastModified, summary.getLastModified());
+            assertEquals("owner", summary.getOwner().getId());
+        }
+    }
+
+    public void testConvertObjectMetadata() throws Exception {
+        Date lastModified = new Date(1400000000000L);
+        Object foreign = newModel(ossClassLoader, "ObjectMetadata");
+        set(foreign, "setContentLength", Long.TYPE, 1234L);
+        set(foreign, "setLastModified", Date.class, lastModified);
+        foreign.getClass().getMethod("addUserMetadata", String.class, String.class).invoke(foreign, "k", "v");
+
+        ObjectMetadata metadata = converter.convert(foreign, ObjectMetadata.class);
+        assertEquals(1234L, metadata.getContentLength());
+        assertEquals(lastModified, metadata.getLastModified());
+        assertEquals("v", metadata.getUserMetadata().get("k"));
+    }
+
+    public void testKeepDefaultsOfUnmappableFields() throws Exception {
+        Object foreign = newModel(ossClassLoader, "InitiateMultipartUploadResult");
+        set(foreign, "setUploadId", String.class, "upload-id");
+
+        InitiateMultipartUploadResult result = converter.convert(foreign, InitiateMultipartUploadResult.class);
+        assertEquals("upload-id", result.getUploadId());
+        // the foreign progress listener is an anonymous class
+        assertNotNull(result.getProgressListener());
+    }
+
+    /**
+     * Compiles `source` as the class `Model` and loads it in isolation.
+     */
+    private static URLClassLoader compileModel(File dir, String source) throws Exception {
+        dir.mkdirs();
+        File file = new File(dir, "Model.java");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(source.getBytes("UTF-8"));
+        out.close();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, file.getPath()));
+        return new URLClassLoader(new URL[]{dir.toURI().toURL()}, null);
+    }
+
+    public void testSkipMismatchedFields() throws Exception {
+        File dir = File.createTempFile("model-", "");
+        dir.delete();
+        try {
+            // the SDK of the OSS class loader is newer than the local one
+            URLClassLoader foreignLoader = compileModel(new File(dir, "foreign"), "public class Model {" +
+                    " String name = \"name\"; long size = 10; String added = \"added\"; }");
+            URLClassLoader localLoader = compileModel(new File(dir, "local"), "public class Model {" +
+                    " String name; int size = 1; }");
+            Object foreign = foreignLoader.loadClass("Model").newInstance();
+
+            Object local = new OSSModelConverter(localLoader).convert(foreign, Object.class);
+            assertSame(localLoader.loadClass("Model"), local.getClass());
+            assertEquals("name", get(local, "name"));
+            // the size changed of type, it keeps its default
+            assertEquals(1, get(local, "size"));
+            foreignLoader.close();
+            localLoader.close();
+        } finally {
+            FileUtil.fullyDelete(dir);
+        }
+    }
+
+    private static Object get(Object target, String field) throws Exception {
+        Field f = target.getClass().getDeclaredField(field);
+        f.setAccessible(true);
+        return f.get(target);
+    }
+
+    public void testConvertNull() throws Exception {
+        assertNull(converter.convert(null, ObjectListing.class));
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aliyun.fs.oss.utils;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestTransferScheduler extends TestCase {
+    private final Configuration conf = new Configuration();
+
+    public void testLimitedExecutor() throws Exception {
+        TransferScheduler scheduler = TransferScheduler.get(conf);
+        Executor executor = scheduler.newLimitedExecutor(3);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int now = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(maxRunning.get() <= 3);
+        assertTrue(maxRunning.get() >= 1);
+        assertTrue(scheduler.getCompletedTransfers() >= 1);
+    }
+
+    public void testTaskEngine() throws Exception {
+        List<Task> tasks = new ArrayList<Task>();
+        for (int i = 0; i < 10; i++) {
+            final int id = i;
+            Task task = new Task() {
+                @Override
+                public void execute(TaskEngine engineRef) throws IOException {
+                    if (id == 3) {
+                        throw new RuntimeException("failed task");
+                    }
+                    response = id;
+                }
+            };
+            task.setUuid(i + "");
+            tasks.add(task);
+        }
+        TaskEngine taskEngine = new TaskEngine(tasks, 2, conf);
+        taskEngine.executeTask();
+        // a task failing with an unexpected exception does not block the engine, and fails it
+        Map<String, Object> results = taskEngine.getResultMap();
+        taskEngine.shutdown();
+        assertEquals(10, results.size());
+        assertNull(results.get("3"));
+        assertEquals(0, results.get("0"));
+        assertTrue(taskEngine.isFailed());
+        try {
+            taskEngine.awaitResponses();
+            fail("the engine should have failed");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof RuntimeException);
+        }
+    }
+
+    public void testPerTaskRetry() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicInteger executions = new AtomicInteger();
+        List<Task> tasks = new ArrayList<Task>();
+        for (int i = 0; i < 5; i++) {
+            final int id = i;
+            Task task = new Task() {
+                @Override
+                public void execute(TaskEngine engineRef) throws IOException {
+                    executions.incrementAndGet();
+                    if (id == 2 && attempts.incrementAndGet() < 3) {
+                        throw new IOException("transient failure");
+                    }
+                    response = id;
+                }
+            };
+            task.setUuid(i + "");
+            tasks.add(task);
+        }
+        TaskEngine taskEngine = new TaskEngine(tasks, 2, conf);
+        taskEngine.setRetryPolicy(3, 1L);
+        taskEngine.executeTask();
+        List<Object> responses = taskEngine.awaitResponses();
+        assertEquals(5, responses.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, responses.get(i));
+        }
+        // only the failed task was redone
+        assertEquals(3, attempts.get());
+        assertEquals(7, executions.get());
+    }
+
+    public void testFailureCancelsSiblings() throws Exception {
+        final AtomicInteger executions = new AtomicInteger();
+        List<Task> tasks = new ArrayList<Task>();
+        for (int i = 0; i < 10; i++) {
+            final int id = i;
+            Task task = new Task() {
+                @Override
+                public void execute(TaskEngine engineRef) throws IOException {
+                    executions.incrementAndGet();
+                    if (id == 0) {
+                        throw new FileNotFoundException("not retried");
+                    }
+                    response = id;
+                }
+            };
+            task.setUuid(i + "");
+            tasks.add(task);
+        }
+        TaskEngine taskEngine = new TaskEngine(tasks, 1, conf);
+        taskEngine.setRetryPolicy(3, 1L);
+        taskEngine.executeTask();
+        try {
+            taskEngine.awaitResponses();
+            fail("the engine should have failed");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        assertTrue(taskEngine.isFailed());
+        assertEquals(1, executions.get());
+        assertTrue(tasks.get(5).getFuture().isCancelled());
+    }
+
+    public void testStreamingTasksRunTogether() throws Exception {
+        final CountDownLatch allStarted = new CountDownLatch(4);
+        final AtomicInteger completed = new AtomicInteger();
+        List<Task> tasks = new ArrayList<Task>();
+        for (int i = 0; i < 4; i++) {
+            Task task = new Task() {
+                @Override
+                public void execute(TaskEngine engineRef) throws IOException {
+                    allStarted.countDown();
+                    try {
+                        // every task waits for the others, as prefetch readers may
+                        if (allStarted.await(10, TimeUnit.SECONDS)) {
+                            completed.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+            };
+            task.setUuid(i + "");
+            tasks.add(task);
+        }
+        TaskEngine taskEngine = new TaskEngine(tasks, 4, true, conf);
+        taskEngine.executeTask();
+        taskEngine.shutdown();
+        assertEquals(4, completed.get());
+    }
+
+    public void testStreamPoolLimit() throws Exception {
+        TransferScheduler scheduler = new TransferScheduler(1, 2);
+        assertEquals(2, scheduler.getMaxStreamThreads());
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        };
+        scheduler.executeStreaming(blocked);
+
+        // the tasks a limited executor cannot get a thread for run in the threads it already has
+        Executor executor = scheduler.newLimitedExecutor(4, true);
+        final CountDownLatch submitted = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        submitted.await();
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        submitted.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, scheduler.getStreamThreads());
+        assertTrue(scheduler.toString(), scheduler.toString().contains("streamThreads=2/2"));
+
+        // the thread of the executor may not be idle yet
+        for (int i = 0; ; i++) {
+            try {
+                scheduler.executeStreaming(blocked);
+                break;
+            } catch (RejectedExecutionException e) {
+                assertTrue(i < 100);
+                Thread.sleep(10);
+            }
+        }
+        try {
+            scheduler.executeStreaming(blocked);
+            fail("a stream pool with all its threads busy should reject the next stream");
+        } catch (RejectedExecutionException e) {
+            assertTrue(e.getMessage().contains(TransferScheduler.STREAM_THREADS));
+        }
+        release.countDown();
+    }
+}
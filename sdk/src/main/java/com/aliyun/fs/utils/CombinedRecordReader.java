@@ -0,0 +1,239 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.fs.utils;
+
+import com.aliyun.fs.oss.common.OssLineReader;
+import com.aliyun.fs.oss.utils.TransferScheduler;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.lib.CombineFileSplit;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Reads the lines of all the objects of a {@link CombineFileSplit}, one after another, with
+ * {@link OssLineReader}. While the lines of an object are read, the next objects are opened and
+ * their first bytes read in the background, which starts their read-ahead. The keys are the
+ * positions in the current object.
+ *
+ * At most `fs.oss.input.prefetch.objects` objects (default 4) are prefetched, as long as they
+ * take at most `fs.oss.input.prefetch.bytes` bytes in all (default 128MB): each one is charged
+ * the larger of its first read-ahead window, at most `fs.oss.readBuffer.size` bytes, and the
+ * buffer of its line reader, so that many small objects count for the memory they hold rather
+ * than for their size. The object right after the current one is always prefetched.
+ */
+public class CombinedRecordReader implements RecordReader<LongWritable, Text> {
+    public static final Log LOG = LogFactory.getLog(CombinedRecordReader.class);
+
+    public static final String PREFETCH_BYTES = "fs.oss.input.prefetch.bytes";
+    public static final String PREFETCH_OBJECTS = "fs.oss.input.prefetch.objects";
+
+    private final Configuration conf;
+    private final CombineFileSplit split;
+    private final FileSystem fs;
+    private final byte[] recordDelimiter;
+    private final Executor executor;
+    private final long maxPrefetchBytes;
+    private final int maxPrefetchObjects;
+    private final long readAheadBytes;
+
+    private int index = 0;
+    private OssLineReader current;
+    // objects opened ahead, from `index` on
+    private final LinkedList<Future<OssLineReader>> prefetched = new LinkedList<Future<OssLineReader>>();
+    private int nextToOpen = 0;
+    private long prefetchedBytes = 0;
+    private long completedBytes = 0;
+
+    public CombinedRecordReader(Configuration conf, CombineFileSplit split, FileSystem fs,
+                                byte[] recordDelimiter) throws IOException {
+        this.conf = conf;
+        this.split = split;
+        this.fs = fs;
+        this.recordDelimiter = recordDelimiter;
+        this.maxPrefetchBytes = conf.getLong(PREFETCH_BYTES, 128L * 1024 * 1024);
+        this.maxPrefetchObjects = Math.max(conf.getInt(PREFETCH_OBJECTS, 4), 1);
+        this.readAheadBytes = conf.getInt("fs.oss.readBuffer.size", 64 * 1024 * 1024);
+        // opening an object waits for its first bytes
+        this.executor = TransferScheduler.get(conf).newLimitedExecutor(
+                Math.max(conf.getInt("fs.oss.reader.concurrent.number", 4), 1), true);
+        prefetch();
+    }
+
+    /**
+     * @return the bytes the reader of the object `i` holds once prefetched: the first read-ahead,
+     * or the buffer of the line reader if larger.
+     */
+    private long getWindow(int i) {
+        long length = split.getLength(i);
+        return Math.max(Math.min(length, readAheadBytes), OssLineReader.getBufferSize(conf, length));
+    }
+
+    private void prefetch() {
+        while (nextToOpen < split.getNumPaths() && (prefetched.isEmpty() ||
+                (prefetched.size() < maxPrefetchObjects &&
+                        prefetchedBytes + getWindow(nextToOpen) <= maxPrefetchBytes))) {
+            prefetchedBytes += getWindow(nextToOpen);
+            prefetched.add(open(nextToOpen++));
+        }
+    }
+
+    private Future<OssLineReader> open(int i) {
+        final FileSplit fileSplit = new FileSplit(split.getPath(i), split.getOffset(i), split.getLength(i),
+                new String[0]);
+        FutureTask<OssLineReader> future = new FutureTask<OssLineReader>(new Callable<OssLineReader>() {
+            @Override
+            public OssLineReader call() throws Exception {
+                OssLineReader reader = new OssLineReader(conf, fileSplit, fs, recordDelimiter);
+                try {
+                    reader.prefetch();
+                    return reader;
+                } catch (IOException e) {
+                    reader.close();
+                    throw e;
+                }
+            }
+        });
+        executor.execute(future);
+        return future;
+    }
+
+    private static OssLineReader getResult(Future<OssLineReader> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while opening the next object");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Moves to the next line, see {@link OssLineReader#nextLine()}.
+     *
+     * @return false once all the objects are read.
+     */
+    public boolean nextLine() throws IOException {
+        while (true) {
+            if (current == null) {
+                if (prefetched.isEmpty()) {
+                    return false;
+                }
+                Future<OssLineReader> next = prefetched.poll();
+                prefetchedBytes -= getWindow(index++);
+                prefetch();
+                current = getResult(next);
+            }
+            if (current.nextLine()) {
+                return true;
+            }
+            current.close();
+            current = null;
+            completedBytes += split.getLength(index - 1);
+        }
+    }
+
+    /**
+     * @return the buffer of the current line, which is only valid until the next line.
+     */
+    public byte[] getLineBuffer() {
+        return current.getLineBuffer();
+    }
+
+    public int getLineOffset() {
+        return current.getLineOffset();
+    }
+
+    public int getLineLength() {
+        return current.getLineLength();
+    }
+
+    @Override
+    public boolean next(LongWritable key, Text value) throws IOException {
+        if (!nextLine()) {
+            return false;
+        }
+        key.set(current.getLinePos());
+        value.set(current.getLineBuffer(), current.getLineOffset(), current.getLineLength());
+        return true;
+    }
+
+    @Override
+    public LongWritable createKey() {
+        return new LongWritable();
+    }
+
+    @Override
+    public Text createValue() {
+        return new Text();
+    }
+
+    @Override
+    public long getPos() throws IOException {
+        return current == null ? 0 : current.getPos();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        } finally {
+            // the next objects may be opening, wait for them to close them
+            while (!prefetched.isEmpty()) {
+                try {
+                    getResult(prefetched.poll()).close();
+                } catch (IOException e) {
+                    LOG.debug("Failed to open " + split.getPath(index), e);
+                }
+                index++;
+            }
+            prefetchedBytes = 0;
+        }
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+        long length = split.getLength();
+        if (length == 0) {
+            return 0.0f;
+        }
+        long currentBytes = current == null ? 0 :
+                (long) (current.getProgress() * split.getLength(index - 1));
+        return Math.min(1.0f, (completedBytes + currentBytes) / (float) length);
+    }
+}
@@ -18,6 +18,7 @@
 
 package com.aliyun.fs.utils;
 
+import com.aliyun.fs.oss.common.GzipIndex;
 import com.aliyun.fs.oss.common.OssRecordReader;
 import com.google.common.base.Charsets;
 import org.apache.commons.logging.Log;
@@ -25,14 +26,26 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
 import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.lib.CombineFileSplit;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class OssInputUtils {
     private Configuration conf;
@@ -40,6 +53,9 @@ public class OssInputUtils {
 
     private static final double SPLIT_SLOP = 1.1;   // 10% slop
 
+    public static final String COMBINE_SIZE = "fs.oss.input.combine.size";
+    public static final String GZIP_INDEX_BUILD = "fs.oss.input.gzip.index.build";
+
     public static final Log LOG =
             LogFactory.getLog(OssInputUtils.class);
 
@@ -47,12 +63,19 @@ public class OssInputUtils {
         this.conf = conf;
     }
 
+    /**
+     * Splits the objects under `file` into splits of about `numSplits`-th of their total size.
+     * The objects of a codec which cannot split are not split, but for the gzip objects with a
+     * {@link GzipIndex}, which are split between their members. With
+     * `fs.oss.input.gzip.index.build` set, the gzip objects larger than a split get their index
+     * built first, at the cost of reading them once.
+     */
     public FileSplit[] getSplits(String file, int numSplits) throws IOException {
         Path path = new Path(file);
         this.fs = FileSystem.get(path.toUri(), conf);
         fs.initialize(path.toUri(), conf);
 
-        FileStatus[] files = fs.listStatus(path);
+        List<FileStatus> files = withoutIndexes(listFiles(path));
         long totalSize = 0;
         for(FileStatus file1: files) {
             if (file1.isDirectory()) {
@@ -65,21 +88,28 @@ public class OssInputUtils {
         long minSize = Math.max(conf.getLong(org.apache.hadoop.mapreduce.lib.input.
                 FileInputFormat.SPLIT_MINSIZE, 1), 1);
 
+        CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
         ArrayList<FileSplit> splits = new ArrayList<FileSplit>(numSplits);
         for (FileStatus file2: files) {
             Path fp = file2.getPath();
             long length = file2.getLen();
             if (length !=0) {
                 long splitSize = Math.max(minSize, goalSize);
-                long bytesRemaining = length;
-                while (((double) bytesRemaining)/splitSize > SPLIT_SLOP) {
-                    FileSplit split = new FileSplit(fp, length - bytesRemaining, splitSize, new String[0]);
-                    splits.add(split);
-                    bytesRemaining -= splitSize;
-                }
-                if (bytesRemaining != 0) {
-                    FileSplit split = new FileSplit(fp, length - bytesRemaining, bytesRemaining, new String[0]);
-                    splits.add(split);
+                CompressionCodec codec = codecs.getCodec(fp);
+                if (codec == null || codec instanceof SplittableCompressionCodec) {
+                    addSplits(splits, fp, length, splitSize);
+                } else if (codec instanceof GzipCodec && ((double) length) / splitSize > SPLIT_SLOP) {
+                    GzipIndex index = GzipIndex.read(fs, fp);
+                    if (index == null && conf.getBoolean(GZIP_INDEX_BUILD, false)) {
+                        index = GzipIndex.build(fs, fp);
+                    }
+                    if (index == null) {
+                        splits.add(new FileSplit(fp, 0, length, new String[0]));
+                    } else {
+                        addIndexedSplits(splits, fp, length, splitSize, index);
+                    }
+                } else {
+                    splits.add(new FileSplit(fp, 0, length, new String[0]));
                 }
             }
         }
@@ -87,19 +117,160 @@ public class OssInputUtils {
         return splits.toArray(new FileSplit[splits.size()]);
     }
 
+    private static void addSplits(List<FileSplit> splits, Path fp, long length, long splitSize) {
+        long bytesRemaining = length;
+        while (((double) bytesRemaining)/splitSize > SPLIT_SLOP) {
+            FileSplit split = new FileSplit(fp, length - bytesRemaining, splitSize, new String[0]);
+            splits.add(split);
+            bytesRemaining -= splitSize;
+        }
+        if (bytesRemaining != 0) {
+            FileSplit split = new FileSplit(fp, length - bytesRemaining, bytesRemaining, new String[0]);
+            splits.add(split);
+        }
+    }
+
+    /**
+     * Splits a gzip object at the first members past every `splitSize` bytes.
+     */
+    private static void addIndexedSplits(List<FileSplit> splits, Path fp, long length, long splitSize,
+                                         GzipIndex index) {
+        long start = 0;
+        for (int i = 1; i < index.getNumMembers(); i++) {
+            long member = index.getCompressedOffset(i);
+            if (member - start >= splitSize && ((double) (length - start)) / splitSize > SPLIT_SLOP) {
+                splits.add(new FileSplit(fp, start, member - start, new String[0]));
+                start = member;
+            }
+        }
+        splits.add(new FileSplit(fp, start, length - start, new String[0]));
+    }
+
+    /**
+     * @return the files but the indexes of the gzip objects listed with them.
+     */
+    private static List<FileStatus> withoutIndexes(FileStatus[] files) {
+        Set<Path> paths = new HashSet<Path>();
+        for (FileStatus file : files) {
+            paths.add(file.getPath());
+        }
+        List<FileStatus> result = new ArrayList<FileStatus>(files.length);
+        for (FileStatus file : files) {
+            Path p = file.getPath();
+            String name = p.getName();
+            if (name.endsWith(GzipIndex.SUFFIX) && paths.contains(new Path(p.getParent(),
+                    name.substring(0, name.length() - GzipIndex.SUFFIX.length())))) {
+                continue;
+            }
+            result.add(file);
+        }
+        return result;
+    }
+
+    /**
+     * Splits like {@link #getSplits(String, int)}, then packs the splits smaller than
+     * `fs.oss.input.combine.size` bytes (default 128MB) into combined splits of up to that size,
+     * so that a directory of many small objects is not read by as many tiny tasks. The size
+     * target is lowered to the goal size of `numSplits` splits if smaller. A size of 0 disables
+     * the packing: every split is then combined alone.
+     */
+    public CombineFileSplit[] getCombinedSplits(String file, int numSplits) throws IOException {
+        FileSplit[] fileSplits = getSplits(file, numSplits);
+        long totalSize = 0;
+        for (FileSplit fileSplit : fileSplits) {
+            totalSize += fileSplit.getLength();
+        }
+        long goalSize = totalSize / (numSplits == 0 ? 1 : numSplits);
+        long minSize = Math.max(conf.getLong(org.apache.hadoop.mapreduce.lib.input.
+                FileInputFormat.SPLIT_MINSIZE, 1), 1);
+        long targetSize = Math.min(conf.getLong(COMBINE_SIZE, 128L * 1024 * 1024), Math.max(goalSize, minSize));
+
+        JobConf job = new JobConf(conf);
+        List<CombineFileSplit> splits = new ArrayList<CombineFileSplit>();
+        List<FileSplit> pending = new ArrayList<FileSplit>();
+        long pendingSize = 0;
+        for (FileSplit fileSplit : fileSplits) {
+            if (!pending.isEmpty() && pendingSize + fileSplit.getLength() > targetSize) {
+                splits.add(combine(job, pending));
+                pending.clear();
+                pendingSize = 0;
+            }
+            pending.add(fileSplit);
+            pendingSize += fileSplit.getLength();
+        }
+        if (!pending.isEmpty()) {
+            splits.add(combine(job, pending));
+        }
+        LOG.info("Total # of combined splits: " + splits.size() + ", of " + fileSplits.length + " splits");
+        return splits.toArray(new CombineFileSplit[splits.size()]);
+    }
+
+    private static CombineFileSplit combine(JobConf job, List<FileSplit> fileSplits) {
+        Path[] paths = new Path[fileSplits.size()];
+        long[] starts = new long[fileSplits.size()];
+        long[] lengths = new long[fileSplits.size()];
+        for (int i = 0; i < fileSplits.size(); i++) {
+            paths[i] = fileSplits.get(i).getPath();
+            starts[i] = fileSplits.get(i).getStart();
+            lengths[i] = fileSplits.get(i).getLength();
+        }
+        return new CombineFileSplit(job, paths, starts, lengths, new String[0]);
+    }
+
+    /**
+     * With `mapreduce.input.fileinputformat.input.dir.recursive` set, all the files under the path
+     * are listed at once, instead of failing on sub-directories.
+     */
+    private FileStatus[] listFiles(Path path) throws IOException {
+        if (!conf.getBoolean(org.apache.hadoop.mapreduce.lib.input.FileInputFormat.INPUT_DIR_RECURSIVE, false)) {
+            return fs.listStatus(path);
+        }
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        RemoteIterator<LocatedFileStatus> it = fs.listFiles(path, true);
+        try {
+            while (it.hasNext()) {
+                files.add(it.next());
+            }
+        } finally {
+            // stops the listing on failure
+            if (it instanceof Closeable) {
+                ((Closeable) it).close();
+            }
+        }
+        return files.toArray(new FileStatus[files.size()]);
+    }
+
     public RecordReader<LongWritable, Text> getOssRecordReader(FileSplit fileSplit, Configuration conf) throws IOException {
+        initFileSystem(fileSplit.getPath(), conf);
+        return new OssRecordReader(conf, fileSplit, fs, getRecordDelimiter(conf));
+    }
+
+    /**
+     * @return a reader of the lines of all the objects of `split`, which opens the next object
+     * while the current one is read.
+     */
+    public CombinedRecordReader getOssRecordReader(CombineFileSplit split, Configuration conf)
+            throws IOException {
+        if (split.getNumPaths() > 0) {
+            initFileSystem(split.getPath(0), conf);
+        }
+        return new CombinedRecordReader(conf, split, fs, getRecordDelimiter(conf));
+    }
+
+    private static byte[] getRecordDelimiter(Configuration conf) {
         String delimiter = conf.get("textinputformat.record.delimiter");
         byte[] recordDelimiterBytes = null;
         if (null != delimiter) {
             recordDelimiterBytes = delimiter.getBytes(Charsets.UTF_8);
         }
+        return recordDelimiterBytes;
+    }
 
+    private void initFileSystem(Path path, Configuration conf) throws IOException {
         if (fs == null) {
-            this.fs = FileSystem.get(fileSplit.getPath().toUri(), conf);
-            fs.initialize(fileSplit.getPath().toUri(), conf);
+            this.fs = FileSystem.get(path.toUri(), conf);
+            fs.initialize(path.toUri(), conf);
         }
-
-        return new OssRecordReader(conf, fileSplit, fs, recordDelimiterBytes);
     }
 
 }
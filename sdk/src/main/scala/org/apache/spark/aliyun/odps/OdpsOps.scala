@@ -282,10 +282,15 @@ class OdpsOps(@transient sc: SparkContext, accessKeyId: String, accessKeySecret:
    * }}}
    * @param project The name of ODPS project.
    * @param table The name of table, which job is reading.
-   * @param partition The name of partition, when job is reading a `Partitioned Table`, like pt='xxx'.
+   * @param partition The name of partition, when job is reading a `Partitioned Table`, like pt='xxx',
+   *                  or `all` to read all the partitions.
    * @param transfer A function for transferring ODPS table to [[org.apache.spark.rdd.RDD]].
    *                 We apply the function to all [[com.aliyun.odps.data.Record]] of table.
    * @param numPartition The number of RDD partition, implying the concurrency to read ODPS table.
+   *                     With `all`, it is the number of RDD partitions per ODPS partition, as
+   *                     when each partition was read on its own: the table is read by
+   *                     `numPartition` times the number of ODPS partitions RDD partitions, over
+   *                     which the records of all the ODPS partitions are spread evenly.
    * @return A RDD which contains all records of ODPS table.
    */
   @unchecked
@@ -300,10 +305,10 @@ class OdpsOps(@transient sc: SparkContext, accessKeyId: String, accessKeySecret:
       new OdpsRDD[T](sc, accessKeyId, accessKeySecret, odpsUrl, tunnelUrl,
         project, table, partition, numPartition, func)
     } else {
-      odpsUtils.getAllPartitionSpecs(table, project).map(ptSpec => {
-        new OdpsRDD[T](sc, accessKeyId, accessKeySecret, odpsUrl, tunnelUrl,
-          project, table, ptSpec.toString, numPartition, func)
-      }).map(_.asInstanceOf[RDD[T]]).reduce((r1, r2) => r1.union(r2))
+      val parts = odpsUtils.getAllPartitionSpecs(table, project).map(_.toString).toArray
+      val numPartitions = math.min(numPartition.toLong * math.max(parts.length, 1), Int.MaxValue).toInt
+      new OdpsRDD[T](sc, accessKeyId, accessKeySecret, odpsUrl, tunnelUrl,
+        project, table, parts, numPartitions, func)
     }
   }
 
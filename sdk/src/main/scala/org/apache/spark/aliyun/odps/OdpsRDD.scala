@@ -17,46 +17,89 @@
  */
 package org.apache.spark.aliyun.odps
 
-import java.io.EOFException
+import java.io.{EOFException, IOException}
+import java.util.concurrent.{Callable, ConcurrentHashMap, ExecutionException}
 
 import com.aliyun.odps.account.AliyunAccount
-import com.aliyun.odps.data.Record
+import com.aliyun.odps.data.{Record, RecordReader}
 import com.aliyun.odps.tunnel.io.TunnelRecordReader
-import com.aliyun.odps.tunnel.{DataTunnel, DownloadSession}
+import com.aliyun.odps.tunnel.{DataTunnel, DownloadSession, TunnelException}
 import com.aliyun.odps.{Odps, PartitionSpec, TableSchema}
 import org.apache.spark._
 import org.apache.spark.executor.DataReadMethod
 import org.apache.spark.rdd.RDD
-import org.apache.spark.util.NextIterator
+import org.apache.spark.util.{NextIterator, ThreadUtils}
 
 import scala.collection.mutable.ArrayBuffer
 import scala.reflect.ClassTag
 
+/**
+ * The records [start, start + count) of the ODPS partition `part`, of the download session
+ * `sessionId` opened by the driver if any.
+ */
+case class OdpsSlice(part: String, start: Long, count: Long, sessionId: String = null)
+
 class OdpsPartition(rddId: Int,
     idx: Int,
-    val start: Long,
-    val count: Long,
+    val slices: Array[OdpsSlice],
     accessKeyId: String,
     accessKeySecret: String,
     odpsUrl: String,
     tunnelUrl: String,
     project: String,
-    table: String,
-    part: String)
+    table: String)
   extends Partition {
 
+  def this(rddId: Int,
+      idx: Int,
+      start: Long,
+      count: Long,
+      accessKeyId: String,
+      accessKeySecret: String,
+      odpsUrl: String,
+      tunnelUrl: String,
+      project: String,
+      table: String,
+      part: String) {
+    this(rddId, idx, Array(OdpsSlice(part, start, count)), accessKeyId, accessKeySecret, odpsUrl,
+      tunnelUrl, project, table)
+  }
+
+  val start: Long = slices.headOption.map(_.start).getOrElse(0L)
+
+  val count: Long = slices.map(_.count).sum
+
   override def hashCode(): Int = 41 * (41 + rddId) + idx
 
   override val index: Int = idx
 }
 
+/**
+ * Reads the records of several partitions of an ODPS table, `Non-Partitioned` for a table without
+ * partition, as a single RDD. The download sessions of the partitions are opened on the driver by
+ * `spark.odps.planning.threads` threads (default 16), then their records are cut into
+ * `numPartition` RDD partitions of about the same number of records, a RDD partition reading
+ * slices of several small ODPS partitions one after another.
+ *
+ * The tasks do not open download sessions of their own: they attach to the ones of the driver,
+ * and share the clients and sessions of their executor, see [[OdpsRDD.getTunnel]].
+ */
 class OdpsRDD[T: ClassTag](@transient sc: SparkContext,
     accessKeyId: String, accessKeySecret: String, odpsUrl: String, tunnelUrl: String,
-    project: String, table: String, part: String,
+    project: String, table: String, parts: Array[String],
     numPartition: Int,
     transfer: (Record, TableSchema) => T)
   extends RDD[T](sc, Nil) with Logging {
 
+  def this(sc: SparkContext, accessKeyId: String, accessKeySecret: String,
+    odpsUrl: String, tunnelUrl: String,
+    project: String, table: String, part: String,
+    numPartition: Int,
+    transfer: (Record, TableSchema) => T) {
+
+    this(sc, accessKeyId, accessKeySecret, odpsUrl, tunnelUrl, project, table, Array(part), numPartition, transfer)
+  }
+
   def this(sc: SparkContext, accessKeyId: String, accessKeySecret: String,
     odpsUrl: String, tunnelUrl: String,
     project: String, table: String,
@@ -66,56 +109,110 @@ class OdpsRDD[T: ClassTag](@transient sc: SparkContext,
     this(sc, accessKeyId, accessKeySecret, odpsUrl, tunnelUrl, project, table, "Non-Partitioned", numPartition, transfer)
   }
 
+  private def getTunnel: DataTunnel = OdpsRDD.getTunnel(accessKeyId, accessKeySecret, odpsUrl, tunnelUrl)
+
+  private def createDownloadSession(tunnel: DataTunnel, part: String): DownloadSession = {
+    if (part.equals("Non-Partitioned")) {
+      tunnel.createDownloadSession(project, table)
+    } else {
+      tunnel.createDownloadSession(project, table, new PartitionSpec(part))
+    }
+  }
+
+  /**
+   * @return the download session of the driver for `slice`. The records of the slice were
+   *         planned on the snapshot of that session, so the task fails if it cannot be attached
+   *         to any more, e.g. once expired, rather than read the ranges of another snapshot.
+   */
+  private def getDownloadSession(tunnel: DataTunnel, slice: OdpsSlice): DownloadSession = {
+    if (slice.sessionId == null) {
+      return createDownloadSession(tunnel, slice.part)
+    }
+    OdpsRDD.getCachedSession(slice.sessionId).getOrElse {
+      val session = try {
+        if (slice.part.equals("Non-Partitioned")) {
+          tunnel.getDownloadSession(project, table, slice.sessionId)
+        } else {
+          tunnel.getDownloadSession(project, table, new PartitionSpec(slice.part), slice.sessionId)
+        }
+      } catch {
+        case e: TunnelException =>
+          throw new IOException("Failed to attach to download session " + slice.sessionId + " of " +
+            table + " " + slice.part + ", which may have expired: the table has to be read again", e)
+      }
+      OdpsRDD.cacheSession(slice.sessionId, session)
+      session
+    }
+  }
+
   /** Implemented by subclasses to compute a given partition. */
   override def compute(theSplit: Partition, context: TaskContext): Iterator[T] = {
     val iter = new NextIterator[T] {
       val split = theSplit.asInstanceOf[OdpsPartition]
 
-      val account = new AliyunAccount(accessKeyId, accessKeySecret)
-      val odps = new Odps(account)
-      odps.setDefaultProject(project)
-      odps.setEndpoint(odpsUrl)
-      val tunnel = new DataTunnel(odps)
-      tunnel.setEndpoint(tunnelUrl)
-      var downloadSession: DownloadSession = null
-      if(part.equals("Non-Partitioned"))
-        downloadSession = tunnel.createDownloadSession(project, table)
-      else {
-        val partitionSpec = new PartitionSpec(part)
-        downloadSession = tunnel.createDownloadSession(project, table, partitionSpec)
-      }
-      val reader = downloadSession.openRecordReader(split.start, split.count)
+      val tunnel = getTunnel
       val inputMetrics = context.taskMetrics.getInputMetricsForReadMethod(DataReadMethod.Hadoop)
+      var sliceIdx = 0
+      var downloadSession: DownloadSession = null
+      var reader: RecordReader = null
 
       context.addOnCompleteCallback {
         () => closeIfNeeded()
       }
 
+      /** Opens the next slice, returns false once all are read. */
+      private def nextSlice(): Boolean = {
+        closeReader()
+        if (sliceIdx >= split.slices.length) {
+          false
+        } else {
+          val slice = split.slices(sliceIdx)
+          sliceIdx += 1
+          downloadSession = getDownloadSession(tunnel, slice)
+          reader = downloadSession.openRecordReader(slice.start, slice.count)
+          true
+        }
+      }
+
+      private def closeReader() {
+        if (reader != null) {
+          try {
+            val totalBytes = reader.asInstanceOf[TunnelRecordReader].getTotalBytes
+            inputMetrics.incBytesRead(totalBytes)
+            reader.close()
+          } catch {
+            case e: Exception => logWarning("Exception in RecordReader.close()", e)
+          }
+          reader = null
+        }
+      }
+
       override def getNext() = {
         var ret = null.asInstanceOf[T]
-        try {
-          val r = reader.read()
-          if (r != null) {
-            ret = transfer(r, downloadSession.getSchema)
-            inputMetrics.incRecordsRead(1L)
-          } else {
+        var found = false
+        while (!found && !finished) {
+          if (reader == null && !nextSlice()) {
             finished = true
+          } else {
+            val r = try {
+              reader.read()
+            } catch {
+              case eof: EOFException => null
+            }
+            if (r != null) {
+              ret = transfer(r, downloadSession.getSchema)
+              inputMetrics.incRecordsRead(1L)
+              found = true
+            } else {
+              closeReader()
+            }
           }
-        } catch {
-          case eof: EOFException =>
-            finished = true
         }
         ret
       }
 
       override def close() {
-        try {
-          val totalBytes = reader.asInstanceOf[TunnelRecordReader].getTotalBytes
-          inputMetrics.incBytesRead(totalBytes)
-          reader.close()
-        } catch {
-          case e: Exception => logWarning("Exception in RecordReader.close()", e)
-        }
+        closeReader()
       }
     }
 
@@ -127,51 +224,55 @@ class OdpsRDD[T: ClassTag](@transient sc: SparkContext,
    * be called once, so it is safe to implement a time-consuming computation in it.
    */
   override def getPartitions: Array[Partition] = {
-    var ret = null.asInstanceOf[Array[Partition]]
-
-    val account = new AliyunAccount(accessKeyId, accessKeySecret)
-    val odps = new Odps(account)
-    odps.setDefaultProject(project)
-    odps.setEndpoint(odpsUrl)
-    val tunnel = new DataTunnel(odps)
-    tunnel.setEndpoint(tunnelUrl)
-    var downloadSession: DownloadSession = null
-    if(part.equals("Non-Partitioned"))
-      downloadSession = tunnel.createDownloadSession(project, table)
-    else {
-      val partitionSpec = new PartitionSpec(part)
-      downloadSession = tunnel.createDownloadSession(project, table, partitionSpec)
+    val sessions = openDownloadSessions
+    val counts = sessions.map(_.getRecordCount)
+    val sessionIds = parts.zip(sessions.map(_.getId)).toMap
+    val slices = OdpsRDD.planSlices(parts.zip(counts), numPartition)
+      .map(_.map(slice => slice.copy(sessionId = sessionIds(slice.part))))
+    logDebug("Odps project " + project + " table " + table + " with " + parts.length +
+      " partitions contain " + counts.sum + " line data, read by " + slices.length + " partitions.")
+    slices.zipWithIndex.map { case (partSlices, idx) =>
+      new OdpsPartition(
+        this.id,
+        idx,
+        partSlices,
+        accessKeyId,
+        accessKeySecret,
+        odpsUrl,
+        tunnelUrl,
+        project,
+        table
+      ).asInstanceOf[Partition]
     }
-    val downloadCount = downloadSession.getRecordCount
-    logDebug("Odps project " + project + " table " + table + " with partition "
-      + part + " contain " + downloadCount + " line data.")
-    var numPartition_ = math.min(math.max(1, numPartition),
-      (if (downloadCount > Int.MaxValue) Int.MaxValue else downloadCount.toInt))
-    if(numPartition_ == 0) {
-      numPartition_ = 1
-      logDebug("OdpsRdd has one partition at least.")
+  }
+
+  /**
+   * @return the download sessions of the partitions, opened concurrently.
+   */
+  private def openDownloadSessions: Array[DownloadSession] = {
+    val tunnel = getTunnel
+    if (parts.length == 1) {
+      return Array(createDownloadSession(tunnel, parts(0)))
+    }
+    val pool = ThreadUtils.newDaemonFixedThreadPool(
+      math.max(1, math.min(sparkContext.getConf.getInt("spark.odps.planning.threads", 16), parts.length)),
+      "odps-planning")
+    try {
+      val futures = parts.map { part =>
+        pool.submit(new Callable[DownloadSession] {
+          override def call(): DownloadSession = createDownloadSession(tunnel, part)
+        })
+      }
+      futures.map { future =>
+        try {
+          future.get()
+        } catch {
+          case e: ExecutionException => throw e.getCause
+        }
+      }
+    } finally {
+      pool.shutdownNow()
     }
-    val range = getRanges(downloadCount, 0, numPartition_)
-    ret = Array.tabulate(numPartition_) {
-      idx =>
-        val (start, end) = range(idx)
-        val count = (end - start + 1).toInt
-        new OdpsPartition(
-          this.id,
-          idx,
-          start,
-          count,
-          accessKeyId,
-          accessKeySecret,
-          odpsUrl,
-          tunnelUrl,
-          project,
-          table,
-          part
-        )
-    }.filter(p => p.count > 0) //remove the last count==0 to prevent exceptions from reading odps table.
-      .map(_.asInstanceOf[Partition])
-    ret
   }
 
   def getRanges(max: Long, min: Long, numRanges: Int): Array[(Long, Long)] = {
@@ -198,4 +299,78 @@ class OdpsRDD[T: ClassTag](@transient sc: SparkContext,
   override def checkpoint() {
     // Do nothing. ODPS RDD should not be checkpointed.
   }
-}
\ No newline at end of file
+}
+
+object OdpsRDD {
+  private val MAX_CACHED_SESSIONS = 1024
+
+  // clients and attached download sessions of the JVM, shared by the tasks of an executor
+  private val tunnels = new ConcurrentHashMap[(String, String, String, String), DataTunnel]()
+  private val sessions = new java.util.LinkedHashMap[String, DownloadSession](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: java.util.Map.Entry[String, DownloadSession]): Boolean =
+      size() > MAX_CACHED_SESSIONS
+  }
+
+  /**
+   * @return the tunnel client of the JVM for these credentials and endpoints.
+   */
+  def getTunnel(accessKeyId: String, accessKeySecret: String, odpsUrl: String,
+      tunnelUrl: String): DataTunnel = {
+    val key = (accessKeyId, accessKeySecret, odpsUrl, tunnelUrl)
+    val tunnel = tunnels.get(key)
+    if (tunnel != null) {
+      tunnel
+    } else {
+      val odps = new Odps(new AliyunAccount(accessKeyId, accessKeySecret))
+      odps.setEndpoint(odpsUrl)
+      val newTunnel = new DataTunnel(odps)
+      newTunnel.setEndpoint(tunnelUrl)
+      val previous = tunnels.putIfAbsent(key, newTunnel)
+      if (previous != null) previous else newTunnel
+    }
+  }
+
+  private def getCachedSession(id: String): Option[DownloadSession] = sessions.synchronized {
+    Option(sessions.get(id))
+  }
+
+  private def cacheSession(id: String, session: DownloadSession): Unit = sessions.synchronized {
+    sessions.put(id, session)
+  }
+
+  /**
+   * Cuts the records of the partitions, taken in order, into at most `numPartition` groups of
+   * slices which differ by one record at most. A table without record gets no group.
+   *
+   * @param parts the partitions with their number of records.
+   */
+  def planSlices(parts: Seq[(String, Long)], numPartition: Int): Array[Array[OdpsSlice]] = {
+    val total = parts.map(_._2).sum
+    if (total == 0) {
+      return Array.empty
+    }
+    val numGroups = math.min(math.max(1, numPartition).toLong, total).toInt
+    val groups = ArrayBuffer.empty[Array[OdpsSlice]]
+    val remaining = parts.filter(_._2 > 0).iterator
+    var (part, count) = remaining.next()
+    var offset = 0L
+    for (i <- 0 until numGroups) {
+      var needed = total / numGroups + (if (i < total % numGroups) 1 else 0)
+      val group = ArrayBuffer.empty[OdpsSlice]
+      while (needed > 0) {
+        if (offset == count) {
+          val next = remaining.next()
+          part = next._1
+          count = next._2
+          offset = 0L
+        }
+        val size = math.min(needed, count - offset)
+        group += OdpsSlice(part, offset, size)
+        offset += size
+        needed -= size
+      }
+      groups += group.toArray
+    }
+    groups.toArray
+  }
+}
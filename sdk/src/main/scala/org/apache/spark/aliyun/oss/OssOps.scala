@@ -71,6 +71,22 @@ class OssOps(
     new JavaRDD(readOssFile(path, minPartitions))
   }
 
+  /**
+   * Read the lines of OSS objects as bytes, without decoding them.
+   * {{{
+   *   OssOps ossOps = ...
+   *   JavaRDD[byte[]] javaRdd = ossOps.readOssFileAsBytesWithJava("oss://[accessKeyId:accessKeySecret@]bucket[.endpoint]/path", 2)
+   * }}}
+   * @param path An OSS file path which job is reading.
+   * @param minPartitions The minimum partitions of RDD.
+   * @return A JavaRDD[Array[Byte]] that contains all lines of OSS object, without their delimiter.
+   */
+  def readOssFileAsBytesWithJava(
+      path: String,
+      minPartitions: Int): JavaRDD[Array[Byte]] = {
+    new JavaRDD(readOssFileAsBytes(path, minPartitions))
+  }
+
   /**
    * Write RDD to OSS
    * {{{
@@ -107,6 +123,22 @@ class OssOps(
     new OssRDD(sc, path, minPartitions, endpoint, accessKeyId, accessKeySecret, securityToken)
   }
 
+  /**
+   * Read the lines of OSS objects as bytes, without decoding them.
+   * {{{
+   *   val ossOps: OssOps = ...
+   *   val rdd: RDD[Array[Byte]] = ossOps.readOssFileAsBytes("oss://[accessKeyId:accessKeySecret@]bucket[.endpoint]/path", 2)
+   * }}}
+   * @param path An OSS file path which job is reading.
+   * @param minPartitions The minimum partitions of RDD.
+   * @return A RDD[Array[Byte]] that contains all lines of OSS object, without their delimiter.
+   */
+  def readOssFileAsBytes(
+      path: String,
+      minPartitions: Int): RDD[Array[Byte]] = {
+    new OssBytesRDD(sc, path, minPartitions, endpoint, accessKeyId, accessKeySecret, securityToken)
+  }
+
   /**
    * Write RDD to OSS
    * {{{
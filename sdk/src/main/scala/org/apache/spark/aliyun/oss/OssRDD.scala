@@ -19,11 +19,12 @@
 package org.apache.spark.aliyun.oss
 
 import java.io.EOFException
+import java.util.Arrays
 
 import com.aliyun.fs.utils.OssInputUtils
+import com.google.common.base.Charsets
 import org.apache.hadoop.conf.Configuration
-import org.apache.hadoop.io.{LongWritable, Text}
-import org.apache.hadoop.mapred.FileSplit
+import org.apache.hadoop.mapred.lib.CombineFileSplit
 import org.apache.spark._
 import org.apache.spark.executor.DataReadMethod
 import org.apache.spark.rdd.RDD
@@ -31,18 +32,27 @@ import org.apache.spark.util.NextIterator
 
 import scala.reflect.ClassTag
 
+/**
+ * The objects, or ranges of objects, read by a task: small objects are packed together up to
+ * `fs.oss.input.combine.size` bytes.
+ */
 class OssPartition(
     rddId: Int,
     idx: Int,
-    @transient split: FileSplit)
+    @transient split: CombineFileSplit)
   extends Partition {
-  val inputSplit = new SerializableWritable[FileSplit](split)
+  val inputSplit = new SerializableWritable[CombineFileSplit](split)
 
   override def hashCode(): Int = 41 * (41 + rddId) + idx
 
   override val index: Int = idx
 }
-class OssRDD(
+
+/**
+ * Lines of OSS objects, each one built by `convert` from the bytes of the line in the buffer of
+ * the reader.
+ */
+abstract class OssLineRDD[T: ClassTag](
     @transient sc: SparkContext,
     path: String,
     numPartitions: Int,
@@ -50,7 +60,7 @@ class OssRDD(
     accessKeyId: String,
     accessKeySecret: String,
     securityToken: Option[String] = None)
-  extends RDD[String](sc, Nil) with Logging {
+  extends RDD[T](sc, Nil) with Logging {
 
   @transient private val sparkConf = sc.getConf
   @transient private val hadoopConfiguration: Configuration = {
@@ -82,24 +92,27 @@ class OssRDD(
 
   val serializableHadoopConf = new SerializableWritable[Configuration](hadoopConfiguration)
 
+  /** Builds a record from the `length` bytes of a line at `offset` in `buffer`, which is reused. */
+  protected def convert(buffer: Array[Byte], offset: Int, length: Int): T
+
   /** Implemented by subclasses to compute a given partition. */
-  override def compute(theSplit: Partition, context: TaskContext): Iterator[String] = {
+  override def compute(theSplit: Partition, context: TaskContext): Iterator[T] = {
     val conf = serializableHadoopConf.value
-    val iter = new NextIterator[String] {
+    val iter = new NextIterator[T] {
       val split = theSplit.asInstanceOf[OssPartition]
       logInfo("Input split: " + split.inputSplit)
       val ossInputUtils = new OssInputUtils(conf)
       val reader = ossInputUtils.getOssRecordReader(split.inputSplit.value, conf)
       val inputMetrics = context.taskMetrics.getInputMetricsForReadMethod(DataReadMethod.Hadoop)
+      // the iterator may not be drained, e.g. by take() or a failed task
+      context.addTaskCompletionListener{ context => closeIfNeeded() }
 
-      val key: LongWritable = reader.createKey()
-      val value: Text = reader.createValue()
-      override def getNext() = {
-        var ret: String = ""
+      override def getNext(): T = {
+        var ret: T = null.asInstanceOf[T]
         try {
-          finished = !reader.next(key, value)
+          finished = !reader.nextLine()
           if (!finished) {
-            ret = value.toString
+            ret = convert(reader.getLineBuffer, reader.getLineOffset, reader.getLineLength)
             inputMetrics.incRecordsRead(1L)
           }
         } catch {
@@ -125,7 +138,7 @@ class OssRDD(
       }
     }
 
-    new InterruptibleIterator[String](context, iter)
+    new InterruptibleIterator[T](context, iter)
   }
 
   /**
@@ -134,7 +147,7 @@ class OssRDD(
    */
   override def getPartitions: Array[Partition] = {
     val ossInputUtils = new OssInputUtils(hadoopConfiguration)
-    val splits = ossInputUtils.getSplits(path, numPartitions)
+    val splits = ossInputUtils.getCombinedSplits(path, numPartitions)
     Array.tabulate(splits.length) {
       idx =>
         val split = splits(idx)
@@ -151,3 +164,39 @@ class OssRDD(
   }
 }
 
+/**
+ * Lines of OSS objects, decoded as UTF-8.
+ */
+class OssRDD(
+    @transient sc: SparkContext,
+    path: String,
+    numPartitions: Int,
+    endpoint: String,
+    accessKeyId: String,
+    accessKeySecret: String,
+    securityToken: Option[String] = None)
+  extends OssLineRDD[String](sc, path, numPartitions, endpoint, accessKeyId, accessKeySecret, securityToken) {
+
+  override protected def convert(buffer: Array[Byte], offset: Int, length: Int): String = {
+    new String(buffer, offset, length, Charsets.UTF_8)
+  }
+}
+
+/**
+ * Lines of OSS objects, as their raw bytes without delimiter, which saves decoding them.
+ */
+class OssBytesRDD(
+    @transient sc: SparkContext,
+    path: String,
+    numPartitions: Int,
+    endpoint: String,
+    accessKeyId: String,
+    accessKeySecret: String,
+    securityToken: Option[String] = None)
+  extends OssLineRDD[Array[Byte]](sc, path, numPartitions, endpoint, accessKeyId, accessKeySecret,
+    securityToken) {
+
+  override protected def convert(buffer: Array[Byte], offset: Int, length: Int): Array[Byte] = {
+    Arrays.copyOfRange(buffer, offset, offset + length)
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.fs.utils
+
+import java.io.{File, FileOutputStream, PrintWriter}
+import java.util.zip.GZIPOutputStream
+
+import com.aliyun.fs.oss.common.GzipIndex
+import org.apache.hadoop.conf.Configuration
+import org.apache.hadoop.fs.FileUtil
+import org.scalatest.{BeforeAndAfterEach, FunSuite}
+
+import scala.collection.mutable.ArrayBuffer
+
+class OssInputUtilsSuite extends FunSuite with BeforeAndAfterEach {
+  private var dir: File = _
+
+  override def beforeEach() {
+    dir = new File(System.getProperty("java.io.tmpdir"), "oss-input-utils-" + System.nanoTime())
+    dir.mkdirs()
+  }
+
+  override def afterEach() {
+    FileUtil.fullyDelete(dir)
+  }
+
+  private def writeFile(name: String, lines: Seq[String]) {
+    val out = new PrintWriter(new File(dir, name))
+    lines.foreach(out.println)
+    out.close()
+  }
+
+  private def readAll(utils: OssInputUtils, conf: Configuration): Seq[String] = {
+    val lines = new ArrayBuffer[String]()
+    utils.getCombinedSplits(dir.toURI.toString, 1).foreach { split =>
+      val reader = utils.getOssRecordReader(split, conf)
+      val key = reader.createKey()
+      val value = reader.createValue()
+      while (reader.next(key, value)) {
+        lines += value.toString
+      }
+      reader.close()
+    }
+    lines
+  }
+
+  test("small files are packed into combined splits") {
+    for (i <- 0 until 50) {
+      writeFile("part-%05d".format(i), Seq("line-%02d".format(i)))
+    }
+    val conf = new Configuration()
+    conf.setLong(OssInputUtils.COMBINE_SIZE, 100)
+    val utils = new OssInputUtils(conf)
+
+    val splits = utils.getCombinedSplits(dir.toURI.toString, 2)
+    // 50 files of 8 bytes, 12 files a split at most
+    assert(splits.length === 5)
+    assert(splits.map(_.getNumPaths).sum === 50)
+    assert(splits.forall(_.getLength <= 100))
+
+    assert(readAll(utils, conf).sorted === (0 until 50).map("line-%02d".format(_)))
+  }
+
+  test("large files are still split, empty files skipped") {
+    writeFile("large", (0 until 1000).map("large-" + _))
+    writeFile("small", Seq("small"))
+    writeFile("empty", Seq())
+    val conf = new Configuration()
+    val utils = new OssInputUtils(conf)
+
+    val splits = utils.getCombinedSplits(dir.toURI.toString, 4)
+    // the large file is cut into 4 splits of the goal size, which the small one does not fit in
+    assert(splits.map(_.getNumPaths).sum === 5)
+    assert(splits.length === 5)
+    assert(splits.filter(_.getNumPaths == 1).map(_.getPath(0).getName).count(_ == "large") === 4)
+
+    val lines = readAll(utils, conf)
+    assert(lines.size === 1001)
+    assert(lines.toSet === ((0 until 1000).map("large-" + _) :+ "small").toSet)
+  }
+
+  test("objects are read in order whatever the prefetch bounds") {
+    for (i <- 0 until 20) {
+      writeFile("part-%05d".format(i), (0 until 100).map("line-%02d-%03d".format(i, _)))
+    }
+    for (prefetchBytes <- Seq(1L, 3000L, 1L << 30); prefetchObjects <- Seq(1, 4, 100)) {
+      val conf = new Configuration()
+      conf.setLong(CombinedRecordReader.PREFETCH_BYTES, prefetchBytes)
+      conf.setInt(CombinedRecordReader.PREFETCH_OBJECTS, prefetchObjects)
+      val utils = new OssInputUtils(conf)
+      val splits = utils.getCombinedSplits(dir.toURI.toString, 1)
+      assert(splits.length === 1)
+      val expected = (0 until 20).map(splits(0).getPath(_).getName.substring(5).toInt)
+        .flatMap(i => (0 until 100).map("line-%02d-%03d".format(i, _)))
+      assert(readAll(utils, conf) === expected)
+    }
+  }
+
+  test("packing disabled") {
+    for (i <- 0 until 5) {
+      writeFile("part-%05d".format(i), Seq("line-" + i))
+    }
+    val conf = new Configuration()
+    conf.setLong(OssInputUtils.COMBINE_SIZE, 0)
+    val utils = new OssInputUtils(conf)
+    assert(utils.getCombinedSplits(dir.toURI.toString, 1).length === 5)
+  }
+
+  test("gzip objects are split between members once indexed") {
+    // members of 100 lines each, as written by bgzip or by concatenating gzip files
+    val out = new FileOutputStream(new File(dir, "multi.gz"))
+    for (m <- 0 until 20) {
+      val member = new GZIPOutputStream(out)
+      member.write((m * 100 until (m + 1) * 100).map("line-" + _ + "\n").mkString.getBytes("UTF-8"))
+      member.finish()
+    }
+    out.close()
+    val conf = new Configuration()
+    val utils = new OssInputUtils(conf)
+
+    def readSplits(): Seq[String] = {
+      val lines = new ArrayBuffer[String]()
+      utils.getSplits(dir.toURI.toString, 4).foreach { split =>
+        val reader = utils.getOssRecordReader(split, conf)
+        val key = reader.createKey()
+        val value = reader.createValue()
+        while (reader.next(key, value)) {
+          lines += value.toString
+        }
+        reader.close()
+      }
+      lines
+    }
+
+    // without index, the object is read whole
+    assert(utils.getSplits(dir.toURI.toString, 4).length === 1)
+    assert(readSplits() === (0 until 2000).map("line-" + _))
+
+    conf.setBoolean(OssInputUtils.GZIP_INDEX_BUILD, true)
+    val splits = utils.getSplits(dir.toURI.toString, 4)
+    assert(splits.length === 4)
+    assert(new File(dir, "multi.gz" + GzipIndex.SUFFIX).exists())
+
+    // the index is found next to the object, and not read as input
+    conf.setBoolean(OssInputUtils.GZIP_INDEX_BUILD, false)
+    assert(utils.getSplits(dir.toURI.toString, 4).map(_.getStart).toSeq === splits.map(_.getStart).toSeq)
+    assert(splits.forall(_.getPath.getName == "multi.gz"))
+    assert(readSplits() === (0 until 2000).map("line-" + _))
+  }
+}
@@ -0,0 +1,33 @@
+package org.apache.spark.aliyun.odps
+
+import org.scalatest.FunSuite
+
+/**
+ * The tests of [[OdpsRDD]] which need neither credentials nor an ODPS service.
+ */
+class OdpsRDDPlanningSuite extends FunSuite {
+
+  test("records of several partitions are spread evenly") {
+    val parts = Seq(("pt=1", 10L), ("pt=2", 0L), ("pt=3", 3L), ("pt=4", 7L))
+    val groups = OdpsRDD.planSlices(parts, 3)
+    assert(groups.length === 3)
+    assert(groups.map(_.map(_.count).sum).toSeq === Seq(7L, 7L, 6L))
+    assert(groups(0).toSeq === Seq(OdpsSlice("pt=1", 0, 7)))
+    assert(groups(1).toSeq === Seq(OdpsSlice("pt=1", 7, 3), OdpsSlice("pt=3", 0, 3), OdpsSlice("pt=4", 0, 1)))
+    assert(groups(2).toSeq === Seq(OdpsSlice("pt=4", 1, 6)))
+
+    // no more partitions than records, none without record
+    assert(OdpsRDD.planSlices(Seq(("pt=1", 2L), ("pt=2", 0L)), 5).map(_.toSeq).toSeq ===
+      Seq(Seq(OdpsSlice("pt=1", 0, 1)), Seq(OdpsSlice("pt=1", 1, 1))))
+    assert(OdpsRDD.planSlices(Seq(("pt=1", 0L)), 2).isEmpty)
+    assert(OdpsRDD.planSlices(Seq(("Non-Partitioned", 30L)), 0).map(_.toSeq).toSeq ===
+      Seq(Seq(OdpsSlice("Non-Partitioned", 0, 30))))
+  }
+
+  test("tunnel clients are shared by credentials and endpoints") {
+    val tunnel = OdpsRDD.getTunnel("id", "secret", "http://odps", "http://tunnel")
+    assert(OdpsRDD.getTunnel("id", "secret", "http://odps", "http://tunnel") eq tunnel)
+    assert(OdpsRDD.getTunnel("id", "other", "http://odps", "http://tunnel") ne tunnel)
+    assert(OdpsRDD.getTunnel("id", "secret", "http://odps", "http://other") ne tunnel)
+  }
+}